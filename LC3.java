@@ -0,0 +1,111 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One front door for all the tools, so they can live in one jar:
+ * `java -jar lc3.jar asm bubba.asm' is `java LC3asm bubba.asm', and so on
+ * for every tool (run it with no arguments for the list). See lc3jar.sh,
+ * which builds the jar and a class data sharing archive that lets the JVM
+ * skip loading and verifying most of our classes (and the JDK's) from
+ * scratch on every run, plus the `lc3' script that uses them.
+ *
+ * There's also `pipeline', which does what you'd otherwise need three tools
+ * for, all in one JVM:
+ *
+ *     lc3 pipeline my_assembly.asm my_library.asm -o linked.obj
+ *
+ * assembles both files, links them into linked.obj (see
+ * LC3asm.assembleAndLink) and converts that to linked.lc3tools.obj for
+ * LC3Tools. With just one file and no -o, it assembles it into an .obj next
+ * to it as usual and converts that. It takes -O and -relax like LC3asm.
+ */
+public class LC3 {
+    interface Tool {
+        void main(String[] args) throws Exception;
+    }
+
+    static final Map<String, Tool> tools = new LinkedHashMap<>();
+    static {
+        tools.put("asm", LC3asm::main);
+        tools.put("link", LC3link::main);
+        tools.put("ar", LC3ar::main);
+        tools.put("conv", ObjToLC3Tools::main);
+        tools.put("disasm", LC3disasm::main);
+        tools.put("pipeline", LC3::pipeline);
+        tools.put("sim", LC3sim::main);
+        tools.put("jit", LC3jit::main);
+        tools.put("batch", LC3batch::main);
+        tools.put("lockstep", LC3lockstep::main);
+        tools.put("prof", LC3prof::main);
+        tools.put("cov", LC3cov::main);
+        tools.put("trace", LC3trace::main);
+        tools.put("watch", LC3watch::main);
+        tools.put("lsp", LC3lsp::main);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Tool tool = args.length == 0? null : tools.get(args[0]);
+        if (tool == null) {
+            System.err.println("usage: lc3 <command> [<arguments>...], where <command> is one of:");
+            System.err.println("    " + String.join(" ", tools.keySet()));
+            System.err.println("Run a command without arguments to see what it takes");
+            System.exit(1);
+        }
+        tool.main(Arrays.copyOfRange(args, 1, args.length));
+    }
+
+    /**
+     * asm -> link -> LC3Tools, in one go
+     */
+    static void pipeline(String[] args) {
+        // Tedious argument parsing
+        List<String> asmfilenames = new ArrayList<>();
+        String outObjFileName = null;
+        boolean usage = args.length == 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length && outObjFileName == null) {
+                outObjFileName = args[++i];
+            } else if (args[i].equals("-O")) {
+                LC3asm.optimize = true;
+            } else if (args[i].equals("-relax")) {
+                LC3asm.relax = true;
+                if (i + 1 < args.length && args[i + 1].matches("[Rr][0-7]")) {
+                    LC3asm.scratch = args[++i].charAt(1) - '0';
+                }
+            } else if (!args[i].startsWith("-")) {
+                asmfilenames.add(args[i]);
+            } else {
+                usage = true;
+            }
+        }
+        if (usage || asmfilenames.isEmpty() || (outObjFileName != null && !outObjFileName.endsWith(".obj"))) {
+            System.err.println("usage: lc3 pipeline [-O] [-relax [R0-R7]] <asm file>... [-o <linked object file>]");
+            System.exit(1);
+        }
+
+        String objfilename;
+        try {
+            if (asmfilenames.size() == 1 && outObjFileName == null) {
+                String asmfilename = asmfilenames.get(0);
+                LC3asm.assemble(asmfilename);
+                objfilename = asmfilename.substring(0, asmfilename.lastIndexOf('.')) + ".obj";
+            } else {
+                objfilename = outObjFileName != null? outObjFileName : "output.obj";
+                LC3asm.assembleAndLink(asmfilenames, objfilename);
+            }
+        } catch (LC3asm.AssemblyError err) {
+            System.err.println(asmfilenames.get(0) + ": " + err.getMessage());
+            System.exit(1);
+            return;
+        } catch (IOException | LC3link.LinkError err) {
+            System.err.println(err.getMessage());
+            System.exit(1);
+            return;
+        }
+        System.exit(ObjToLC3Tools.convertPulkitToChirag(objfilename));
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * Archiver for LC-3 object files. Like ar(1), but worse.
+ *
+ * `java LC3ar libcs2110.lc3a strlen.obj mult.obj' bundles up each object file
+ * along with its .sym and .dbgsym into one archive, plus an index of which
+ * member defines which label. Hand the archive to LC3link like any other
+ * object file and it will only link in the members your program actually
+ * needs. `java LC3ar -t libcs2110.lc3a' lists what's inside.
+ *
+ * The archive is a text header followed by the raw member files:
+ *
+ *     LC3AR 1
+ *     MEMBER strlen.obj <obj offset> <obj length> <sym offset> <sym length> <dbgsym offset> <dbgsym length>
+ *     INDEX STRLEN 0
+ *     DATA
+ *     ...the .obj, .sym and .dbgsym of every member, back to back...
+ *
+ * Offsets are in bytes, counted from just after the DATA line, so the linker
+ * can read the header and then seek straight to the members it wants.
+ */
+public class LC3ar {
+    static final String HEADER = "LC3AR 1";
+
+    static class Member {
+        String name; // filename of the object file this member came from
+        long[] offsets = new long[6]; // {offset, length} of the .obj, .sym and .dbgsym
+    }
+
+    static class Archive {
+        File file;
+        List<Member> members = new ArrayList<>();
+        Map<String, Integer> index = new LinkedHashMap<>(); // label -> index of the member that defines it
+        long dataStart; // byte offset of the first byte after the DATA line
+
+        /**
+         * reads only the header of an archive. member contents are read
+         * later on demand with readMember()
+         */
+        static Archive read(File file) throws IOException {
+            Archive archive = new Archive();
+            archive.file = file;
+
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line = br.readLine();
+                if (line == null || !line.equals(HEADER)) {
+                    throw new IllegalArgumentException(file + " is not an LC-3 archive");
+                }
+                long pos = line.getBytes(StandardCharsets.UTF_8).length + 1;
+                while ((line = br.readLine()) != null) {
+                    pos += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                    String[] words = line.split(" ");
+                    if (words[0].equals("DATA")) {
+                        archive.dataStart = pos;
+                        return archive;
+                    } else if (words[0].equals("MEMBER")) {
+                        Member member = new Member();
+                        member.name = words[1];
+                        for (int i = 0; i < member.offsets.length; i++) {
+                            member.offsets[i] = Long.parseLong(words[2 + i]);
+                        }
+                        archive.members.add(member);
+                    } else if (words[0].equals("INDEX")) {
+                        archive.index.put(words[1], Integer.parseInt(words[2]));
+                    } else {
+                        throw new IllegalArgumentException("Bad line in archive " + file + ": " + line);
+                    }
+                }
+            }
+            throw new IllegalArgumentException("Archive " + file + " is truncated");
+        }
+
+        /**
+         * returns the {.obj, .sym, .dbgsym} contents of a member
+         */
+        byte[][] readMember(int i) throws IOException {
+            Member member = members.get(i);
+            byte[][] contents = new byte[3][];
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                for (int j = 0; j < contents.length; j++) {
+                    contents[j] = new byte[(int)member.offsets[2 * j + 1]];
+                    raf.seek(dataStart + member.offsets[2 * j]);
+                    raf.readFully(contents[j]);
+                }
+            }
+            return contents;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("-t")) {
+            Archive archive = Archive.read(new File(args[1]));
+            for (int i = 0; i < archive.members.size(); i++) {
+                System.out.print(archive.members.get(i).name + ":");
+                for (Map.Entry<String, Integer> entry : archive.index.entrySet()) {
+                    if (entry.getValue() == i) {
+                        System.out.print(" " + entry.getKey());
+                    }
+                }
+                System.out.println();
+            }
+            return;
+        }
+        if (args.length < 2 || !args[0].endsWith(".lc3a")) {
+            System.err.println("usage: java LC3ar <archive.lc3a> <objfile1> <objfile2> ...");
+            System.err.println("       java LC3ar -t <archive.lc3a>");
+            System.exit(1);
+        }
+
+        List<Member> members = new ArrayList<>();
+        List<byte[]> data = new ArrayList<>();
+        Map<String, Integer> index = new LinkedHashMap<>();
+        long offset = 0;
+        for (int i = 1; i < args.length; i++) {
+            String filename = args[i];
+            String filebase = filename.substring(0, filename.lastIndexOf('.')); // get the root filename without any extensions
+            Member member = new Member();
+            member.name = new File(filename).getName();
+            byte[][] contents = {
+                Files.readAllBytes(new File(filename).toPath()),
+                Files.readAllBytes(new File(filebase + ".sym").toPath()),
+                Files.readAllBytes(new File(filebase + ".dbgsym").toPath()),
+            };
+            for (int j = 0; j < contents.length; j++) {
+                member.offsets[2 * j] = offset;
+                member.offsets[2 * j + 1] = contents[j].length;
+                offset += contents[j].length;
+                data.add(contents[j]);
+            }
+
+            // index every label this member defines (but not the ones it
+            // only uses .EXTERNALly)
+            Scanner symreader = new Scanner(new String(contents[1], StandardCharsets.UTF_8));
+            symreader.nextLine(); // skip the header line
+            while (symreader.hasNext()) {
+                String[] words = symreader.nextLine().trim().split(" +");
+                if (Integer.parseInt(words[2]) == 0) {
+                    if (index.containsKey(words[1])) {
+                        System.err.println("Symbol " + words[1] + " defined by both " + members.get(index.get(words[1])).name + " and " + filename);
+                        System.exit(1);
+                    }
+                    index.put(words[1], members.size());
+                }
+            }
+            symreader.close();
+
+            members.add(member);
+        }
+
+        try (FileOutputStream out = new FileOutputStream(args[0])) {
+            StringBuilder header = new StringBuilder();
+            header.append(HEADER).append('\n');
+            for (Member member : members) {
+                header.append("MEMBER ").append(member.name);
+                for (long o : member.offsets) {
+                    header.append(' ').append(o);
+                }
+                header.append('\n');
+            }
+            for (Map.Entry<String, Integer> entry : index.entrySet()) {
+                header.append("INDEX ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+            }
+            header.append("DATA\n");
+            out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+            for (byte[] d : data) {
+                out.write(d);
+            }
+        }
+
+        System.out.println("Wrote archive with " + members.size() + " members and " + index.size() + " symbols to " + args[0]);
+    }
+}
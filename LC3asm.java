@@ -6,9 +6,19 @@ import java.util.List;
 import java.util.ArrayList;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.lang.NumberFormatException;
 import java.util.Collections;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 /**
  * Simple proof of concept assembler for LC3
@@ -45,44 +55,362 @@ public class LC3asm {
         }
     }
 
-    static int lc = 0; // Location Counter
-    static int pass; // determines which pass the assembler is on
-    static Scanner read; // scanner for the input file
-    static PrintStream obj; // printstream for object file
-    static PrintStream sym; // printstream for symboltable
-    static PrintStream debug; // printstream for debug
-    static PrintStream dat; // printstream for dat file (for datapath)
-    static PrintStream dbgsym; // printstream for debug symbols (mapping addresses -> lines of code)
-    static Map<String, Symbol> symbolTable = new HashMap<>(); // runtime copy of symbol table
-    static String[] pseudoOps = {".ORIG", ".END", ".FILL", ".BLKW", ".STRINGZ", ".EXTERNAL"}; // array of pseudoOps
+    // utility class for `LD R0, =x4000' constants, which go in the next pool
+    // (at .POOL or .END) unless an earlier pool already has them close enough
+    static class Literal {
+        final String value; // what goes in the pool: a number (as XNNNN, so x10 and #16 share) or a label
+        final boolean number;
+        int address; // where pass 1 put it
+
+        Literal(String value, boolean number) {
+            this.value = value;
+            this.number = number;
+        }
+    }
+
+    // pass 1 decides where every constant goes, pass 2 follows along in the same order
+    static class Literals {
+        Map<String, Literal> pooled = new HashMap<>(); // the latest pool spot for each constant
+        Map<String, Literal> pending = new LinkedHashMap<>(); // waiting for the next pool
+        List<Literal> uses = new ArrayList<>(); // the one each LD gets, in order
+        List<List<Literal>> pools = new ArrayList<>(); // what each .POOL/.END got, in order
+        int nextUse, nextPool; // how far pass 2 has gotten
+    }
+
+    int lc = 0; // Location Counter
+    Literals literals = new Literals(); // the =constants and their pools
+    int pass; // determines which pass the assembler is on
+    List<SourceLine> source; // the input file, line by line
+    PrintStream obj; // printstream for object file
+    PrintStream sym; // printstream for symboltable
+    PrintStream debug; // printstream for debug
+    PrintStream dat; // printstream for dat file (for datapath)
+    PrintStream dbgsym; // printstream for debug symbols (mapping addresses -> lines of code)
+    LC3dbginfo.Builder dbginfo; // the same thing for the binary .dbginfo
+    List<LC3disasm.OrigEndWindow> image; // where the words go instead of obj, when assembling straight into the linker
+    ByteArrayOutputStream dbgsymBytes; // where dbgsym goes then
+    static Map<String, ByteArrayOutputStream> captured; // if not null, the output files go in here (by name) instead of on disk
+    Map<String, Symbol> symbolTable = new HashMap<>(); // runtime copy of symbol table
+    static String[] pseudoOps = {".ORIG", ".END", ".FILL", ".BLKW", ".STRINGZ", ".EXTERNAL", ".POOL"}; // array of pseudoOps
     static List<String> directives = Arrays.asList(pseudoOps); // list of all pseudoOps
     static String[] instructions = {"ADD", "AND", "BR", "NOP", "JMP", "JSR", "JSRR", "LD", "LDI", "LDR", "LEA", "NOT", "RET", "ST", "STI", "STR", "TRAP", "GETC", "PUTC", "OUT", "PUTS", "IN", "HALT"};
     static List<String> mnemonics = Arrays.asList(instructions); // list of all instructions and Trap Aliases
-    static boolean done = false; // detect if missing end statements
+    static final Pattern BR = Pattern.compile("BRN?Z?P?"); // all the ways to spell a branch
+    boolean done = false; // detect if missing end statements
+    static boolean quiet = false; // don't print progress to stdout (for LC3watch)
+    static boolean optimize = false; // run the peephole optimizer (LC3opt) before assembling for real
+    static boolean relax = false; // rewrite out-of-range PC offsets to go through pointers (LC3relax)
+    static int scratch = -1; // the register LC3relax can clobber for far branches, or -1 for none
+    int emitted; // the first word the current line assembled to, when check()ing
+    final String filename; // the file being assembled, or null when only check()ing
+    final Map<String, Symbol> globals; // every label the files being assembled together define, see assembleAndLink()
+
+    // each run of the assembler (one file, or one check()) gets its own
+    // LC3asm, so several can go at once. only the options up there are shared
+    private LC3asm(String filename, List<SourceLine> lines, Map<String, Symbol> globals) {
+        this.filename = filename;
+        this.source = lines;
+        this.globals = globals;
+    }
+
+    /**
+     * Thrown when the assembly fails, after the reason has been written to
+     * the debug file
+     */
+    static class AssemblyError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        // what kind of mistake, so tools don't have to pick apart messages:
+        // missing-end, bad-string, bad-mnemonic, operands (wrong number of
+        // them), bad-register, bad-number, bad-offset (doesn't fit),
+        // undefined-label or external-offset (.EXTERNAL label used as a
+        // PC offset)
+        final String code;
+        final String word; // the word on the line that's wrong, or null if it's the whole line
+
+        AssemblyError(String code, String word, String message) {
+            super(message);
+            this.code = code;
+            this.word = word;
+        }
+    }
 
     public static void main(String[] args) {
-        if (args.length == 0) {
-            System.out.println("error incorrect inputs, usage: java LC3asm <local path to input file>");
+        // Tedious argument parsing
+        List<String> asmfilenames = new ArrayList<>();
+        String outObjFileName = null, symfilename = null, dbgsymfilename = null;
+        boolean all = false, json = false, stream = false, usage = args.length == 0;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-o") && i + 1 < args.length && outObjFileName == null) {
+                outObjFileName = args[++i];
+            } else if (arg.equals("-sym") && i + 1 < args.length && symfilename == null) {
+                symfilename = args[++i];
+            } else if (arg.equals("-dbgsym") && i + 1 < args.length && dbgsymfilename == null) {
+                dbgsymfilename = args[++i];
+            } else if (arg.equals("-stream")) {
+                stream = true;
+            } else if (arg.equals("-all")) {
+                all = true;
+            } else if (arg.equals("-json")) {
+                all = json = true;
+            } else if (arg.equals("-O")) {
+                optimize = true;
+            } else if (arg.equals("-relax")) {
+                relax = true;
+                if (i + 1 < args.length && args[i + 1].matches("[Rr][0-7]")) {
+                    scratch = args[++i].charAt(1) - '0';
+                }
+            } else if (!arg.startsWith("-") || arg.equals("-")) {
+                asmfilenames.add(arg);
+            } else {
+                usage = true;
+            }
+        }
+        boolean link = outObjFileName != null || asmfilenames.size() > 1;
+        // reading stdin means writing the object file to stdout
+        boolean toStdout = stream || asmfilenames.contains("-");
+        if (usage || asmfilenames.isEmpty() || (link && (all || toStdout)) || (json && toStdout)
+                || ((symfilename != null || dbgsymfilename != null) && (!toStdout || stream))
+                || (outObjFileName != null && !outObjFileName.contains("."))) {
+            System.out.println("error incorrect inputs, usage: java LC3asm [-all | -json] [-O] [-relax [R0-R7]] <local path to input file>");
+            System.out.println("                       or: java LC3asm [-all] [-O] [-relax [R0-R7]] [-stream | -sym <file> -dbgsym <file>] - < <input file>");
+            System.out.println("                       or: java LC3asm [-O] [-relax [R0-R7]] <input file>... [-o <linked object file>]");
+            System.exit(1);
+        }
+        if (link) {
+            try {
+                assembleAndLink(asmfilenames, outObjFileName != null? outObjFileName : "output.obj");
+            } catch (IOException | LC3link.LinkError err) {
+                System.err.println(err.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        String asmfilename = asmfilenames.get(0);
+        if (toStdout) {
+            // nothing but the object file (or stream) on stdout
+            quiet = true;
+            captured = new LinkedHashMap<>();
+        }
+        try {
+            List<SourceLine> lines = readLines(asmfilename);
+            if (all) {
+                // look for every mistake first, and don't write a thing if
+                // there are any
+                quiet |= json;
+                List<SourceLine> relaxed = lines;
+                if (relax) {
+                    // either fixes the far offsets or hands back the lines
+                    // as they were, so the line numbers still line up
+                    relaxed = LC3relax.relax(lines, scratch, null);
+                }
+                List<Diagnostic> diagnostics = check(relaxed).diagnostics;
+                if (json) {
+                    List<String> objects = new ArrayList<>();
+                    for (Diagnostic diagnostic : diagnostics) {
+                        objects.add(diagnostic.toJson());
+                    }
+                    System.out.println("{\"file\":" + LC3json.quote(asmfilename) + ",\"diagnostics\":[" + String.join(",", objects) + "]}");
+                } else {
+                    for (Diagnostic diagnostic : diagnostics) {
+                        System.err.println(diagnostic.toString(asmfilename));
+                    }
+                }
+                if (!diagnostics.isEmpty()) {
+                    if (!json) System.err.println(diagnostics.size() + (diagnostics.size() == 1? " error" : " errors") + ", nothing written");
+                    System.exit(1);
+                }
+            }
+            assemble(asmfilename, lines);
+            if (toStdout) {
+                String filebase = filebase(asmfilename);
+                if (stream) {
+                    List<LC3stream.Frame> frames = new ArrayList<>();
+                    for (String extension : new String[] {".obj", ".sym", ".dbgsym", ".dbginfo"}) {
+                        frames.add(new LC3stream.Frame(new File(filebase + extension).getName(), captured.get(filebase + extension).toByteArray()));
+                    }
+                    LC3stream.write(System.out, frames);
+                } else {
+                    captured.get(filebase + ".obj").writeTo(System.out);
+                    System.out.flush();
+                    if (symfilename != null) {
+                        Files.write(Path.of(symfilename), captured.get(filebase + ".sym").toByteArray());
+                    }
+                    if (dbgsymfilename != null) {
+                        Files.write(Path.of(dbgsymfilename), captured.get(filebase + ".dbgsym").toByteArray());
+                    }
+                }
+            }
+        } catch (FileNotFoundException fnf) {
+            fnf.printStackTrace();
+            System.exit(1);
+        } catch (IOException err) {
+            System.err.println(err.getMessage());
+            System.exit(1);
+        } catch (AssemblyError err) {
+            if (toStdout) {
+                // no .debug file to look in
+                System.err.println(asmfilename + ": " + err.getMessage());
+            }
+            System.exit(1);
         }
+    }
+
+    // the output files go next to the input file, or are called stdin.obj
+    // and so on if it's coming from stdin
+    private static String filebase(String asmfilename) {
+        if (asmfilename.equals("-")) {
+            return "stdin";
+        }
+        return asmfilename.substring(0, asmfilename.lastIndexOf('.')); // get the root filename without any extensions
+    }
+
+    /**
+     * Assembles a bunch of files and links them into one object file in one
+     * go, like running LC3asm on each and then LC3link on the lot, except
+     * that nothing but the linked .obj, .sym, .map and .dbgsym gets written.
+     * Every file gets checked first, and any mistakes in any of them get
+     * printed (file:line:column, like -all) instead of linking anything.
+     *
+     * Every file gets an assembler of its own and they all go at once: pass 1
+     * over every file, putting the labels each one defines into one shared
+     * table, and then pass 2, which fills in .EXTERNAL labels straight out of
+     * that table. The linker just lays out the modules it gets back and
+     * writes the outputs
+     */
+    static void assembleAndLink(List<String> asmfilenames, String outObjFileName) throws IOException {
+        List<List<SourceLine>> sources;
         try {
+            sources = asmfilenames.parallelStream().map(asmfilename -> {
+                try {
+                    return readLines(asmfilename);
+                } catch (FileNotFoundException fnf) {
+                    throw new UncheckedIOException(fnf);
+                }
+            }).collect(Collectors.toCollection(ArrayList::new));
+        } catch (UncheckedIOException err) {
+            throw err.getCause();
+        }
+
+        // optimizing, relaxing and checking one file doesn't need the others
+        // either. what that prints gets held onto so it comes out in order
+        ByteArrayOutputStream[] reports = new ByteArrayOutputStream[sources.size()];
+        Checked[] checks = new Checked[sources.size()];
+        IntStream.range(0, sources.size()).parallel().forEach(i -> {
+            reports[i] = new ByteArrayOutputStream();
+            PrintStream report = quiet? null : new PrintStream(reports[i], true);
+            List<SourceLine> lines = sources.get(i);
+            if (optimize) {
+                lines = LC3opt.optimize(lines, report);
+            }
+            if (relax) {
+                lines = LC3relax.relax(lines, scratch, report);
+            }
+            sources.set(i, lines);
+            checks[i] = check(lines);
+        });
+        int mistakes = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            System.out.print(reports[i]);
+            for (Diagnostic diagnostic : checks[i].diagnostics) {
+                System.err.println(diagnostic.toString(asmfilenames.get(i)));
+                mistakes++;
+            }
+        }
+        if (mistakes > 0) {
+            throw new IOException(mistakes + (mistakes == 1? " error" : " errors") + ", nothing written");
+        }
 
-            System.out.println("if \"Success!!\" isnt printed, assembly process has failed, check debug file");
+        Map<String, Symbol> globals = new ConcurrentHashMap<>();
+        List<LC3asm> assemblers = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            assemblers.add(new LC3asm(asmfilenames.get(i), sources.get(i), globals));
+        }
+        // every file's pass 1 has to be done before any pass 2 can look up
+        // another file's labels
+        assemblers.parallelStream().forEach(LC3asm::firstPass);
+        List<LC3link.Module> modules = assemblers.parallelStream().map(LC3asm::secondPass).collect(Collectors.toList());
+        LC3link.link(modules, outObjFileName);
+        if (!quiet) System.out.println("Assembled and linked " + asmfilenames.size() + " files into " + outObjFileName);
+    }
+
+    /**
+     * Pass 1 over one of assembleAndLink()'s files: where everything goes,
+     * and what labels it defines
+     */
+    private void firstPass() {
+        image = new ArrayList<>();
+        dbgsymBytes = new ByteArrayOutputStream();
+        dbgsym = new PrintStream(dbgsymBytes);
+        dbginfo = new LC3dbginfo.Builder();
+        pass = 1;
+        parse();
+    }
+
+    /**
+     * Pass 2, once every file has had its pass 1: the words, labels and
+     * .dbgsym, kept in memory for the linker instead of written out
+     */
+    private LC3link.Module secondPass() {
+        lc = 0;
+        literals.nextUse = literals.nextPool = 0;
+        pass = 2;
+        parse();
+        dbgsym.flush();
+
+        Map<String, Integer> definitions = new LinkedHashMap<>();
+        Map<String, List<Integer>> fills = new LinkedHashMap<>();
+        for (Symbol s : symbolTable.values()) {
+            if (!s.external) {
+                definitions.put(s.label, s.address);
+            } else if (!s.fillAddresses.isEmpty()) {
+                fills.put(s.label, s.fillAddresses);
+            }
+        }
+        return LC3link.module(filename, image, definitions, fills, dbgsymBytes.toByteArray(), dbginfo.toBytes());
+    }
+
+    /**
+     * Assembles one file, writing the .obj, .sym, .debug, .dat and .dbgsym
+     * next to it. Can be called over and over (by LC3watch, say)
+     *
+     * @param asmfilename: the path to the assembly file
+     * @throws AssemblyError if the assembly has a mistake in it
+     */
+    static void assemble(String asmfilename) throws FileNotFoundException {
+        assemble(asmfilename, readLines(asmfilename));
+    }
+
+    /**
+     * Same thing for a file that's been read in already (from stdin, say)
+     */
+    static void assemble(String asmfilename, List<SourceLine> lines) throws FileNotFoundException {
+        if (optimize) {
+            lines = LC3opt.optimize(lines, quiet? null : System.out);
+        }
+        if (relax) {
+            lines = LC3relax.relax(lines, scratch, quiet? null : System.out);
+        }
+
+        new LC3asm(asmfilename, lines, null).writeFiles();
+    }
+
+    private void writeFiles() throws FileNotFoundException {
+        try {
+
+            if (!quiet) System.out.println("if \"Success!!\" isnt printed, assembly process has failed, check debug file");
 
             //here we are creating the output files and PrintStreams for them, this allows us to use them like System.out
-            String filebase = args[0].substring(0, args[0].lastIndexOf('.')); // get the root filename without any extensions
-            File outfile = new File(filebase + ".obj"); //initialize an output file for .obj
-            obj = new PrintStream(outfile); // create printstream for the object file
-            File symbolfile = new File(filebase + ".sym"); // output file for .sym
-            sym = new PrintStream(symbolfile); // printstream for symbol table
-            File debugfile = new File(filebase + ".debug"); // output file for debug information
-            debug = new PrintStream(debugfile); // printstream for debug file
-            File datfile = new File(filebase + ".dat"); // output file for use in datapath
-            dat = new PrintStream(datfile); // printstream for debug file
-            File dbgsymfile = new File(filebase + ".dbgsym"); // debug symbols. used to map addresses to source lines.
-                                                              // used by ObjToLC3Tools for conversion to LC3Tools object file
-            dbgsym = new PrintStream(dbgsymfile); // printstream for debug symbols
-
-            read = new Scanner(new File(args[0])); //initialize scanner for first pass
+            String filebase = filebase(filename);
+            obj = create(filebase + ".obj"); // create printstream for the object file
+            sym = create(filebase + ".sym"); // printstream for symbol table
+            debug = create(filebase + ".debug"); // printstream for debug file
+            dat = create(filebase + ".dat"); // printstream for the file for use in datapath
+            dbgsym = create(filebase + ".dbgsym"); // printstream for debug symbols. used to map addresses to source lines.
+                                                   // used by ObjToLC3Tools for conversion to LC3Tools object file
+            dbginfo = new LC3dbginfo.Builder(); // and the binary version of it, see LC3dbginfo
+
             pass = 1; // set pass to 1
             parse(); // run pass 1
 
@@ -105,12 +433,10 @@ public class LC3asm {
                 }
                 sym.printf(fmt, s.address, s.label, 0);
             }
-            System.out.println("Pass 1 complete, symbol table at: " + filebase + ".sym");
+            if (!quiet) System.out.println("Pass 1 complete, symbol table at: " + filebase + ".sym");
 
-            read.close();
-            read = null;
-            read = new Scanner(new File(args[0])); //reset scanner
             lc = 0; // reset lc
+            literals.nextUse = literals.nextPool = 0;
             pass = 2; // set pass to 2
             parse(); // run pass 2
 
@@ -125,20 +451,254 @@ public class LC3asm {
                 }
             }
 
+            // (after the .dbgsym is all written, so it doesn't look newer
+            // than this)
+            dbgsym.close();
+            try (PrintStream out = create(filebase + ".dbginfo")) {
+                out.writeBytes(dbginfo.toBytes());
+            }
+
             debug.println("Success!!");
-            System.out.println("Success!!");
+            if (!quiet) System.out.println("Success!!");
 
-        } catch (FileNotFoundException fnf) {
-            fnf.printStackTrace();
-            System.exit(1);
+        } finally {
+            // nothing else is going to close these for us now
+            for (PrintStream ps : new PrintStream[] {obj, sym, debug, dat, dbgsym}) {
+                if (ps != null) ps.close();
+            }
+        }
+    }
+
+    /**
+     * Opens one of the output files, or a spot for it in captured if we're
+     * not writing to disk
+     */
+    private static PrintStream create(String filename) throws FileNotFoundException {
+        if (captured == null) {
+            return new PrintStream(new File(filename));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        captured.put(filename, bytes);
+        return new PrintStream(bytes);
+    }
+
+    /**
+     * One line of a file, tokenized, ready for check()
+     */
+    static class SourceLine {
+        final String text; // the line as written, without the line break
+        final List<String> words; // what tokenize makes of it, or null if there's nothing there (or it's broken)
+        final AssemblyError error; // why it couldn't be tokenized, if it couldn't
+
+        SourceLine(String text) {
+            this.text = text;
+            String input = stripComment(text);
+            List<String> words = null;
+            AssemblyError error = null;
+            if (input.length() != 0) {
+                try {
+                    words = tokenize(input);
+                } catch (AssemblyError err) {
+                    error = err;
+                }
+            }
+            this.words = words;
+            this.error = error;
+        }
+
+        /**
+         * The same line, but assembled as if it said something else (for
+         * LC3opt, which wants the .dbgsym to keep showing what you wrote)
+         */
+        SourceLine(SourceLine line, List<String> words) {
+            this.text = line.text;
+            this.words = words;
+            this.error = null;
+        }
+    }
+
+    /**
+     * Something wrong with one line of a file
+     */
+    static class Diagnostic {
+        final int line; // counting from 0
+        final int column, endColumn; // the part of the line that's wrong, counting from 0
+        final String code; // see AssemblyError
+        final String message;
+
+        Diagnostic(SourceLine source, int line, String code, String word, String message) {
+            this.line = line;
+            this.code = code;
+            this.message = message;
+            // find the word that's wrong on the line, or else underline all of it
+            String text = source == null? "" : source.text;
+            int comment = text.indexOf(';');
+            int end = comment >= 0? comment : text.length();
+            int start = 0;
+            while (start < end && Character.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+            while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+                end--;
+            }
+            for (int i = start; word != null && i < end; ) {
+                int j = i;
+                while (j < end && " \t,".indexOf(text.charAt(j)) < 0) {
+                    j++;
+                }
+                if (j > i && text.substring(i, j).equalsIgnoreCase(word)) {
+                    start = i;
+                    end = j;
+                    break;
+                }
+                i = j + 1;
+            }
+            column = start;
+            endColumn = end;
+        }
+
+        /**
+         * file:line:column: code: message, like a C compiler, counting lines
+         * and columns from 1
+         */
+        String toString(String filename) {
+            return filename + ":" + (line + 1) + ":" + (column + 1) + ": " + code + ": " + message;
+        }
+
+        /**
+         * the same thing as a JSON object
+         */
+        String toJson() {
+            return "{\"line\":" + (line + 1) + ",\"column\":" + (column + 1) + ",\"endColumn\":" + (endColumn + 1)
+                   + ",\"code\":" + LC3json.quote(code) + ",\"message\":" + LC3json.quote(message) + "}";
+        }
+    }
+
+    /**
+     * What check() found out about a file
+     */
+    static class Checked {
+        final int[] addresses; // the address each line starts at
+        final Map<String, Integer> labels = new HashMap<>(); // label -> address, or -1 for an .EXTERNAL one
+        final int[] code; // the first word each line assembled to, or -1 if it didn't
+        final Map<String, Integer> definedOn = new HashMap<>(); // label -> the line it's defined (or declared .EXTERNAL) on
+        final List<Diagnostic> diagnostics = new ArrayList<>();
+
+        Checked(int lines) {
+            addresses = new int[lines];
+            code = new int[lines];
+        }
+    }
+
+    /**
+     * Reads in a whole file and tokenizes every line
+     *
+     * @param asmfilename: the path to the assembly file, or - for stdin
+     * @return the file, line by line
+     */
+    static List<SourceLine> readLines(String asmfilename) throws FileNotFoundException {
+        List<SourceLine> lines = new ArrayList<>();
+        try (Scanner scanner = asmfilename.equals("-")? new Scanner(System.in) : new Scanner(new File(asmfilename))) {
+            while (scanner.hasNextLine()) {
+                lines.add(new SourceLine(scanner.nextLine()));
+            }
         }
+        return lines;
+    }
+
+    /**
+     * Runs both passes over a file that's been tokenized already, without
+     * writing anything anywhere, and keeps going after a mistake instead of
+     * giving up, so you hear about every bad line at once. LC3lsp runs this
+     * on every keystroke
+     *
+     * @param lines: the file, line by line
+     * @return the addresses, the symbol table, and everything that's wrong
+     */
+    static Checked check(List<SourceLine> lines) {
+        return new LC3asm(null, lines, null).checkLines();
+    }
+
+    private Checked checkLines() {
+        List<SourceLine> lines = source;
+        Checked checked = new Checked(lines.size());
+        int[] after = new int[lines.size()]; // where pass 1 says each line ends
+        boolean[] failed = new boolean[lines.size()]; // so pass 2 doesn't complain about the same line twice
+        int last = 0; // the last line with anything on it, which is where a missing .end goes
+        for (pass = 1; pass <= 2; pass++) {
+            lc = 0;
+            literals.nextUse = literals.nextPool = 0;
+            for (int i = 0; i < lines.size(); i++) {
+                SourceLine line = lines.get(i);
+                List<String> words = line.words;
+                if (pass == 1) {
+                    checked.addresses[i] = lc;
+                    if (line.error != null) {
+                        checked.diagnostics.add(new Diagnostic(line, i, line.error.code, line.error.word, line.error.getMessage()));
+                        last = i;
+                    } else if (words != null) {
+                        if (startsWithLabel(words)) {
+                            checked.definedOn.put(words.get(0), i);
+                        } else if (words.size() > 1 && words.get(0).equals(".EXTERNAL")) {
+                            checked.definedOn.put(words.get(1), i);
+                        }
+                        last = i;
+                    }
+                }
+                emitted = -1;
+                if (words != null && !failed[i]) {
+                    AssemblyError why = null;
+                    try {
+                        assembleLine(new ArrayList<>(words));
+                    } catch (AssemblyError err) {
+                        why = err;
+                    } catch (NumberFormatException err) {
+                        why = new AssemblyError("bad-number", null, "invalid number: " + words);
+                    } catch (IndexOutOfBoundsException err) {
+                        why = new AssemblyError("operands", null, "missing operand: " + words);
+                    }
+                    if (why != null) {
+                        checked.diagnostics.add(new Diagnostic(line, i, why.code, why.word, why.getMessage()));
+                        failed[i] = true;
+                        if (pass == 2) {
+                            lc = after[i]; // pretend it worked so the lines after it land in the right place
+                        }
+                    }
+                }
+                if (pass == 1) {
+                    after[i] = lc;
+                } else {
+                    checked.code[i] = emitted;
+                }
+            }
+            if (pass == 1 && !done) {
+                checked.diagnostics.add(new Diagnostic(lines.isEmpty()? null : lines.get(last), last, "missing-end", null, "missing .end"));
+            }
+        }
+        for (Symbol s : symbolTable.values()) {
+            checked.labels.put(s.label, s.external? -1 : s.address);
+        }
+        checked.diagnostics.sort((a, b) -> Integer.compare(a.line, b.line));
+        return checked;
     }
 
     /**
      * prints to object file and to dat file
-     * @param outstring: the string to be output
+     * @param word: the word to be output
     */
-    private static void output(String outstring) {
+    private void output(int word) {
+        if (image != null) { // going straight to the linker, see assembleAndLink()
+            if (image.isEmpty()) {
+                image.add(new LC3disasm.OrigEndWindow(0)); // no .orig yet
+            }
+            image.get(image.size() - 1).words.add(word & 0xFFFF);
+            return;
+        }
+        if (obj == null) { // only checking, see check()
+            if (emitted < 0) emitted = word & 0xFFFF;
+            return;
+        }
+        String outstring = int2hex(word);
         obj.println(outstring);
         dat.println(outstring.substring(outstring.indexOf("x") + 1)); // print without leading 'x'
     }
@@ -149,177 +709,224 @@ public class LC3asm {
      * processes each line to generate the symbol table and the instructions as necessary
      *
      */
-    private static void parse() {
-        while (read.hasNext()) {
+    private void parse() {
+        for (SourceLine line : source) {
             int initial_lc = lc; // used to print debug symbols
-            boolean writeDebugSymbols = true;
-            String input = read.nextLine().trim(); // read the next line
-            if (input.contains(";")){
-                input = input.substring(0, input.indexOf(";")); // truncate any comments off the end
-            }
-            if (input.length() == 0) continue;
-
-            String[] sepStrLit = new String[2]; // need to separate out any string literals in the line
-            if (input.contains("\"")) {
-                int idx = input.indexOf("\"");
-                sepStrLit[0] = input.substring(0, idx).toUpperCase(); // uppercase to ease parsing
-                sepStrLit[1] = input.substring(idx+1, input.length()-1); // remainder of line except for quotes
-                if (input.charAt(input.length() - 1) != '\"') { // check for closing " in string literal
-                    debug.println("invalid string literal in line");
-                    System.exit(1);
-                }
-            } else {
-                sepStrLit[0] = input.toUpperCase(); // uppercase to ease parsing
-                sepStrLit[1] = "";
+            if (line.error != null) { // couldn't even tokenize it
+                throw error(line.error.code, line.error.word, line.error.getMessage());
             }
-            String[] instWords = sepStrLit[0].split("[, \t]+");
-            List<String> words = new ArrayList<String>(Arrays.asList(instWords)); // split the string on spaces and commas
-            if (sepStrLit[1].length() != 0) words.add(words.size(), sepStrLit[1]);
+            if (line.words == null) continue;
+            String input = stripComment(line.text);
 
-            // if first word is not a pseudo op or opcode mnemonic, it must be a label
-            if (!directives.contains(words.get(0)) && !mnemonics.contains(words.get(0)) && !words.get(0).matches("BRN?Z?P?")) {
-                //on pass 1 generate the symbol table
-                if (pass == 1) {
-                    gen_label(words);
-                } else { // on pass 2 dont need to recreate label
-                    words.remove(0);
-                }
+            boolean writeDebugSymbols = assembleLine(new ArrayList<>(line.words));
+
+            // If you need to see which address a line of assembly maps to, look at myfile.dbgsym.
+            // check here that pass==1 so we don't write the same thing to the .dbgsym file twice
+            if (writeDebugSymbols && pass == 1) {
+                dbgsym.println("x" + Integer.toString(initial_lc, 16) + ": " + input);
+                dbginfo.add(initial_lc, input);
             }
+        }
 
-            if (words.size() == 0) continue; // if a label is on a line by itself, there is nothing else to parse
+        if (!done) {
+            throw error("missing-end", null, "missing .end");
+        }
+        done = false;
+    }
 
-            //process directives
-            if (directives.contains(words.get(0))) {
-                //label corresponds to a pseudoOP
-                //{".ORIG", ".END", ".FILL", ".BLKW", ".STRINGZ"}
-                switch (directives.indexOf(words.get(0))) {
-                    case 0: // orig
-                        gen_orig(words);
-                        // don't write debug symbols for an .orig since it does not actually exist in memory
-                        writeDebugSymbols = false;
+    /**
+     * trims a line and chops off any comment
+     *
+     * @param line: a line straight out of the file
+     * @return what's left, which is empty if there's nothing to assemble
+     */
+    static String stripComment(String line) {
+        String input = line.trim();
+        if (input.contains(";")){
+            input = input.substring(0, input.indexOf(";")); // truncate any comments off the end
+        }
+        return input;
+    }
+
+    /**
+     * splits a (comment-free, nonempty) line into uppercase words, with any
+     * string literal tacked on the end as-is
+     *
+     * @param input: the line, after stripComment
+     * @return the words on the line
+     */
+    static List<String> tokenize(String input) {
+        String[] sepStrLit = new String[2]; // need to separate out any string literals in the line
+        if (input.contains("\"")) {
+            int idx = input.indexOf("\"");
+            sepStrLit[0] = input.substring(0, idx).toUpperCase(); // uppercase to ease parsing
+            sepStrLit[1] = input.substring(idx+1, input.length()-1); // remainder of line except for quotes
+            if (input.charAt(input.length() - 1) != '\"') { // check for closing " in string literal
+                // (before there's an assembler, or a .debug file, to tell)
+                throw new AssemblyError("bad-string", null, "invalid string literal in line");
+            }
+        } else {
+            sepStrLit[0] = input.toUpperCase(); // uppercase to ease parsing
+            sepStrLit[1] = "";
+        }
+        String[] instWords = sepStrLit[0].split("[, \t]+");
+        List<String> words = new ArrayList<String>(Arrays.asList(instWords)); // split the string on spaces and commas
+        if (sepStrLit[1].length() != 0) words.add(words.size(), sepStrLit[1]);
+        return words;
+    }
+
+    /**
+     * is the first word on the line a label (rather than a pseudo op or an
+     * opcode mnemonic)?
+     */
+    static boolean startsWithLabel(List<String> words) {
+        return !directives.contains(words.get(0)) && !mnemonics.contains(words.get(0)) && !(words.get(0).startsWith("BR") && BR.matcher(words.get(0)).matches());
+    }
+
+    /**
+     * processes one line's worth of words for the current pass, generating
+     * the symbol table entry and the instruction as necessary. Chews up words
+     *
+     * @param words: the words on the line, from tokenize
+     * @return whether the line takes up any memory (and so belongs in the .dbgsym)
+     */
+    boolean assembleLine(List<String> words) {
+        boolean writeDebugSymbols = true;
+        String lbl = null;
+
+        // if first word is not a pseudo op or opcode mnemonic, it must be a label
+        if (startsWithLabel(words)) {
+            lbl = words.get(0);
+            //on pass 1 generate the symbol table
+            if (pass == 1) {
+                gen_label(words);
+            } else { // on pass 2 dont need to recreate label
+                words.remove(0);
+            }
+        }
+
+        if (words.size() == 0) return false; // if a label is on a line by itself, there is nothing else to parse
+
+        //process directives
+        if (directives.contains(words.get(0))) {
+            //label corresponds to a pseudoOP
+            //{".ORIG", ".END", ".FILL", ".BLKW", ".STRINGZ"}
+            switch (directives.indexOf(words.get(0))) {
+                case 0: // orig
+                    gen_orig(words);
+                    // don't write debug symbols for an .orig since it does not actually exist in memory
+                    writeDebugSymbols = false;
+                    break;
+                case 1: // end
+                    gen_end(words);
+                    // don't write debug symbols for an .end since it does not actually exist in memory
+                    writeDebugSymbols = false;
+                    break;
+                case 2: // fill
+                    gen_fill(words);
+                    break;
+                case 3: // blkw
+                    gen_blkw(words);
+                    break;
+                case 4: // stringz
+                    gen_stringz(words);
+                    break;
+                case 5: // external
+                    gen_external(words);
+                    // don't write debug symbols for an .external since it does not actually exist in memory
+                    writeDebugSymbols = false;
+                    break;
+                case 6: // pool
+                    // only takes up memory if there's anything waiting for it
+                    writeDebugSymbols = gen_pool();
+                    break;
+                default:
+                    throw error("bad-mnemonic", words.get(0), "invalid directive");
+            }
+        } else if (mnemonics.contains(words.get(0)) || words.get(0).startsWith("BR")) {
+            //process instructions and aliases
+            if (words.get(0).startsWith("BR")) {
+                //need to catch BR statements here as the conditioncode is part of the opcode mnemonic
+                gen_br(words);
+            } else {
+            //{"ADD", "AND", "BR", "NOP", "JMP", "JSR", "JSRR", "LD", "LDI", "LDR", "LEA", "NOT", "RET", "ST", "STI", "STR", "TRAP", "GETC", "PUTC", "OUT", "PUTS", "IN", "HALT"}
+                switch (mnemonics.indexOf(words.get(0))) {
+                    case 0: // ADD
+                        gen_add(words);
                         break;
-                    case 1: // end
-                        gen_end(words);
-                        // don't write debug symbols for an .end since it does not actually exist in memory
-                        writeDebugSymbols = false;
+                    case 1: // AND
+                        gen_and(words);
                         break;
-                    case 2: // fill
-                        gen_fill(words);
+                    case 2: // NOP
+                        gen_nop(words);
                         break;
-                    case 3: // blkw
-                        gen_blkw(words);
+                    case 3: // BR, this is caught earlier because of nzp being part of the mnemonic
+                        //gen_br(words);
                         break;
-                    case 4: // stringz
-                        gen_stringz(words);
+                    case 4: // JMP
+                        gen_jmp(words);
                         break;
-                    case 5: // external
-                        gen_external(words);
-                        // don't write debug symbols for an .external since it does not actually exist in memory
-                        writeDebugSymbols = false;
+                    case 5: // JSR
+                        gen_jsr(words);
                         break;
-                    default:
-                        debug.println("invalid directive");
-                        System.exit(1);
+                    case 6: // JSRR
+                        gen_jsrr(words);
                         break;
+                    case 7: // LD
+                        gen_ld(words);
+                        break;
+                    case 8: // LDI
+                        gen_ldi(words);
+                        break;
+                    case 9: // LDR
+                        gen_ldr(words);
+                        break;
+                    case 10: // LEA
+                        gen_lea(words);
+                        break;
+                    case 11: // NOT
+                        gen_not(words);
+                        break;
+                    case 12: // RET
+                        gen_ret(words);
+                        break;
+                    case 13: // ST
+                        gen_st(words);
+                        break;
+                    case 14: // STI
+                        gen_sti(words);
+                        break;
+                    case 15: // STR
+                        gen_str(words);
+                        break;
+                    case 16: // TRAP
+                        gen_trap(words);
+                        break;
+                    case 17: //GETC
+                        gen_getc(words);
+                        break;
+                    case 18: //PUTC
+                    case 19: //OUT
+                        gen_out(words);
+                        break;
+                    case 20: //PUTS
+                        gen_puts(words);
+                        break;
+                    case 21: //IN
+                        gen_in(words);
+                        break;
+                    case 22: //HALT
+                        gen_halt(words);
+                        break;
+                    default:
+                        throw error("bad-mnemonic", words.get(0), "invalid mnemonic: " + words);
                 }
             }
-
-            //process instructions and aliases
-            if (mnemonics.contains(words.get(0)) || words.get(0).substring(0,2).equals("BR")) {
-                if (words.get(0).substring(0,2).equals("BR")) {
-                    //need to catch BR statements here as the conditioncode is part of the opcode mnemonic
-                    gen_br(words);
-                } else {
-                //{"ADD", "AND", "BR", "NOP", "JMP", "JSR", "JSRR", "LD", "LDI", "LDR", "LEA", "NOT", "RET", "ST", "STI", "STR", "TRAP", "GETC", "PUTC", "OUT", "PUTS", "IN", "HALT"}
-                    switch (mnemonics.indexOf(words.get(0))) {
-                        case 0: // ADD
-                            gen_add(words);
-                            break;
-                        case 1: // AND
-                            gen_and(words);
-                            break;
-                        case 2: // NOP
-                            gen_nop(words);
-                            break;
-                        case 3: // BR, this is caught earlier because of nzp being part of the mnemonic
-                            //gen_br(words);
-                            break;
-                        case 4: // JMP
-                            gen_jmp(words);
-                            break;
-                        case 5: // JSR
-                            gen_jsr(words);
-                            break;
-                        case 6: // JSRR
-                            gen_jsrr(words);
-                            break;
-                        case 7: // LD
-                            gen_ld(words);
-                            break;
-                        case 8: // LDI
-                            gen_ldi(words);
-                            break;
-                        case 9: // LDR
-                            gen_ldr(words);
-                            break;
-                        case 10: // LEA
-                            gen_lea(words);
-                            break;
-                        case 11: // NOT
-                            gen_not(words);
-                            break;
-                        case 12: // RET
-                            gen_ret(words);
-                            break;
-                        case 13: // ST
-                            gen_st(words);
-                            break;
-                        case 14: // STI
-                            gen_sti(words);
-                            break;
-                        case 15: // STR
-                            gen_str(words);
-                            break;
-                        case 16: // TRAP
-                            gen_trap(words);
-                            break;
-                        case 17: //GETC
-                            gen_getc(words);
-                            break;
-                        case 18: //PUTC
-                        case 19: //OUT
-                            gen_out(words);
-                            break;
-                        case 20: //PUTS
-                            gen_puts(words);
-                            break;
-                        case 21: //IN
-                            gen_in(words);
-                            break;
-                        case 22: //HALT
-                            gen_halt(words);
-                            break;
-                        default:
-                            debug.println(words);
-                            debug.println("invalid mnemonic");
-                            System.exit(1);
-                            break;
-                    }
-                }
-            }
-
-            // If you need to see which address a line of assembly maps to, look at myfile.dbgsym.
-            // check here that pass==1 so we don't write the same thing to the .dbgsym file twice
-            if (writeDebugSymbols && pass == 1) {
-                dbgsym.println("x" + Integer.toString(initial_lc, 16) + ": " + input);
-            }
-        }
-
-        if (!done) {
-            debug.println("missing .end");
-            System.exit(1);
+        } else {
+            // a second label, or a typo'd mnemonic that got taken for a label
+            throw error("bad-mnemonic", lbl, "expected an instruction or directive after label " + lbl + ", found " + words.get(0));
         }
-        done = false;
+        return writeDebugSymbols;
     }
 
     /**
@@ -330,7 +937,8 @@ public class LC3asm {
      * @param num: the string containing a number
      * @return the integer value represented by num
      */
-    private static int str2int(String num) {
+    private int str2int(String num) {
+        String literal = num; // for the error message
         int radix = 10;
         if (num.charAt(0) == 'X') {
             radix = 16;
@@ -349,8 +957,7 @@ public class LC3asm {
             if (!((first >= 0 && first <= 9) || (fchar >= 'A' && fchar <= 'F' && radix == 16))) { // input not a valid integer literal
                 throw(new NumberFormatException()); //not a valid number
             } else {
-                debug.println("error: immediate value too large: " + num + " at LC: " + int2hex(lc));
-                System.exit(1);
+                throw error("bad-number", literal, "error: immediate value too large: " + num + " at LC: " + int2hex(lc));
             }
         }
         try {
@@ -363,6 +970,39 @@ public class LC3asm {
 
     }
 
+    /**
+     * Takes in a register specifier like R3 and returns the register number,
+     * or -1 if it isn't one (so the range checks everywhere catch it)
+     *
+     * @param reg: the operand that should be a register
+     * @return the register number
+     */
+    private int str2reg(String reg) {
+        if (reg.length() < 2 || reg.charAt(0) != 'R') {
+            return -1;
+        }
+        try {
+            return str2int(reg.substring(1)); // truncate the leading R from the register specification
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /**
+     * str2int for a PC offset operand that turned out not to be a label, so
+     * it had better be a hardcoded offset (e.g., `-3')
+     *
+     * @param lbl: the operand
+     * @return the offset
+     */
+    private int str2offset(String lbl) {
+        try {
+            return str2int(lbl);
+        } catch (NumberFormatException nfe) {
+            throw error("undefined-label", lbl, "undefined label: " + lbl);
+        }
+    }
+
     /**
      * Takes in an integer and returns it as a 4 character hexadecimal string
      *
@@ -375,34 +1015,48 @@ public class LC3asm {
      */
     private static String int2hex(int num) {
         // Isolate the least significant sixteen bits and print them
-        return String.format("x%04x", num & 0xFFFF);
+        // (by hand, since String.format is slow enough to matter to LC3lsp)
+        String hex = Integer.toHexString(num & 0xFFFF);
+        return "x" + "0000".substring(hex.length()) + hex;
     }
 
     /**
      * Takes in an offset and the width of the encoded offset
      * 
-     * Determines whether the offset fits within the 2'c complement
-     * range for the given bitwidth
+     * Makes sure the offset fits within the 2'c complement
+     * range for the given bitwidth, and gives up if not
      * 
      * @param offset: the offset provided by the label or programmer
      * @param width: the width of the offset as defined by the LC-3 ISA
-     * @return true if the offset fits within the 2's complement range, false otherwise
+     * @param operand: where the offset came from, for the error message
      */
-    private static boolean validate_2c_offset(int offset, int width) {
+    private void check_2c_offset(int offset, int width, String operand) {
         int minimum = -1 * (1 << (width - 1));
         int maximum = (1 << (width - 1)) - 1;
         if (offset > maximum || offset < minimum) {
-            debug.println("invalid offset: " + offset + " for bit width " + width);
-            return false;
-        } else {
-            return true;
+            throw error("bad-offset", operand, "invalid offset: " + offset + " for bit width " + width);
         }
     }
 
+    /**
+     * Writes why assembly failed to the debug file, and returns an exception
+     * for the caller to throw. Callers can't tell the compiler a method never
+     * returns, hence `throw error(...)'
+     *
+     * @param code: what kind of mistake it is (see AssemblyError)
+     * @param word: the word on the line that's wrong, or null if it's the whole line
+     * @param why: what went wrong
+     * @return an AssemblyError to throw
+     */
+    private AssemblyError error(String code, String word, Object why) {
+        if (debug != null) debug.println(why);
+        return new AssemblyError(code, word, String.valueOf(why));
+    }
+
     /**
      * generates a symbol table entry for the label
      */
-    private static void gen_label(List<String> words) {
+    private void gen_label(List<String> words) {
         String lbl = words.get(0); // extract the label
 
         words.remove(0);
@@ -411,18 +1065,29 @@ public class LC3asm {
         }
 
         Symbol label = new Symbol(lc, lbl);
-        debug.println("created symbol: " + label);
-        symbolTable.put(lbl, label);
+        if (debug != null) debug.println("created symbol: " + label);
+        Symbol before = symbolTable.put(lbl, label);
+        if (globals != null) {
+            // the same thing the linker would say, just sooner
+            Symbol other = globals.putIfAbsent(lbl, label);
+            if (other != null && other != before) {
+                throw new LC3link.LinkError("Symbol " + lbl + " defined multiple times");
+            }
+            globals.put(lbl, label);
+        }
     }
 
     /**
      * updates the lc according to the .orig statement
      */
-    private static void gen_orig(List<String> words) {
+    private void gen_orig(List<String> words) {
         int oldLC = lc;
         lc = str2int(words.get(1));
         done = false;
-        if (pass == 2) {
+        if (pass == 2 && image != null) {
+            image.add(new LC3disasm.OrigEndWindow(lc));
+        }
+        if (pass == 2 && obj != null) {
             obj.println("ORIG: " + int2hex(lc));
             int numZero = lc - oldLC;
             for (int i = 0; i < numZero; i++) { // print 0's in dat file
@@ -434,7 +1099,8 @@ public class LC3asm {
     /**
      * marks the end of the file
      */
-    private static void gen_end(List<String> words) {
+    private void gen_end(List<String> words) {
+        gen_pool(); // whatever =constants are left go at the end
         done = true;
         //this code below is for only 1 .orig/.end statement as the book defines it
         // if (!done) {
@@ -449,7 +1115,7 @@ public class LC3asm {
      * updates a symbol in the symbol table if it is there
      * creates the entry in obj file
      */
-    private static void gen_fill(List<String> words) {
+    private void gen_fill(List<String> words) {
         boolean label = false;
         int value = 999999999; // default value too large for 16 bits
         try {
@@ -460,16 +1126,21 @@ public class LC3asm {
         if (pass == 2) {
             if (label) {
                 Symbol symbol = symbolTable.get(words.get(1));
-                if (symbol.external) {
-                    // write a foreboding message here for now. the linker will this in
-                    output(int2hex(0xDEAD));
+                if (symbol == null) {
+                    throw error("undefined-label", words.get(1), "undefined label: " + words.get(1));
+                } else if (symbol.external) {
+                    // if it's from another file being assembled along with
+                    // this one, we know where it is already. otherwise write
+                    // a foreboding message here for now. the linker will this in
+                    Symbol definition = globals == null? null : globals.get(words.get(1));
+                    output(definition != null? definition.address : 0xDEAD);
                     // keep track of this so we can tell the linker to fill it in
                     symbol.fillAddresses.add(lc);
                 } else {
-                    output(int2hex(symbol.address));
+                    output(symbol.address);
                 }
             } else {
-                output(int2hex(value)); // add the hex value to the object file
+                output(value); // add the hex value to the object file
             }
         }
 
@@ -479,7 +1150,7 @@ public class LC3asm {
     /**
      * updates a symbol in the symbol table to be external
      */
-    private static void gen_external(List<String> words) {
+    private void gen_external(List<String> words) {
         if (pass == 1) {
             Symbol external = new Symbol(-1, words.get(1));
             external.external = true;
@@ -487,15 +1158,68 @@ public class LC3asm {
         }
     }
 
+    /**
+     * puts the =constants waiting for a pool here, as .FILLs
+     *
+     * @return whether there were any
+     */
+    private boolean gen_pool() {
+        List<Literal> pool;
+        if (pass == 1) {
+            pool = new ArrayList<>(literals.pending.values());
+            literals.pending.clear();
+            literals.pools.add(pool);
+        } else {
+            pool = literals.pools.get(literals.nextPool++);
+        }
+        for (Literal literal : pool) {
+            if (pass == 1) {
+                literal.address = lc;
+                literals.pooled.put(literal.value, literal);
+            } else if (!literal.number && !symbolTable.containsKey(literal.value)) {
+                lc++; // already complained about at the LD
+                continue;
+            }
+            gen_fill(Arrays.asList(".FILL", literal.value));
+        }
+        return !pool.isEmpty();
+    }
+
+    /**
+     * finds a pool spot for an LD's =constant in pass 1: the one from an
+     * earlier pool if that's still within reach, otherwise one in the next pool
+     */
+    private void gen_literal(String operand) {
+        String value = operand.substring(1);
+        if (value.isEmpty()) {
+            throw error("operands", operand, "missing constant after =");
+        }
+        boolean number = true;
+        try {
+            value = int2hex(str2int(value)).toUpperCase();
+        } catch (NumberFormatException nfe) {
+            number = false; // a label, so it's the label's address we want
+        }
+        Literal literal = literals.pending.get(value);
+        if (literal == null) {
+            literal = literals.pooled.get(value);
+            if (literal == null || (lc + 1) - literal.address > 256) {
+                literal = new Literal(value, number);
+                literals.pending.put(value, literal);
+            }
+        }
+        literals.uses.add(literal);
+    }
+
     /**
      * increments lc by the correct amount and makes room in the obj file
      */
-    private static void gen_blkw(List<String> words) {
+    private void gen_blkw(List<String> words) {
         int w = str2int(words.get(1)); // get the size of block
         lc += (w - 1); // make room for the word block (-1 because first word at initial lc)
         if (pass == 2) {
             for (int i = 0; i < w; i++) {
-                output(int2hex(0));
+                output(0);
             }
         }
         lc++; // increment lc after processing asm directive
@@ -504,7 +1228,7 @@ public class LC3asm {
     /**
      * updates lc and populates obj file
      */
-    private static void gen_stringz(List<String> words) {
+    private void gen_stringz(List<String> words) {
         String s = words.get(1); //the string to be placed in memory at LC
 
         // in pass 1, the only job of this is to calculate the length of the
@@ -532,7 +1256,7 @@ public class LC3asm {
         int len = chars.size();
         if (pass == 2) {
             for (char c : chars) {
-                output(int2hex(c)); // place char in memory
+                output(c); // place char in memory
             }
         }
         lc += len; // increment lc by size of string, including null terminator
@@ -541,43 +1265,37 @@ public class LC3asm {
     /**
      * generates the binary encoding of the ADD instruction
      */
-    private static void gen_add(List<String> words) {
+    private void gen_add(List<String> words) {
         if (pass == 2) {
             if (words.size() != 4) {
-                debug.println("invalid add instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid add instruction: " + words);
             }
             int instruction = 0;
             int opcode = 1; //0001
-            int dr = str2int(words.get(1).substring(1)); // truncate the leading R from the register specification
+            int dr = str2reg(words.get(1));
             if (dr < 0 || dr > 7) {
-                debug.println("invalid destination register: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(1), "invalid destination register: " + words);
             }
-            int sr1 = str2int(words.get(2).substring(1)); // truncate the leading R from the register specification
+            int sr1 = str2reg(words.get(2));
             if (sr1 < 0 || sr1 > 7) {
-                debug.println("invalid SR1: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(2), "invalid SR1: " + words);
             }
             int imm = 0;
             int val = 0;
             if (words.get(3).charAt(0) == 'R') {
                 imm = 0;
-                val = str2int(words.get(3).substring(1)); // truncate R for register specifier, forces base 10
+                val = str2reg(words.get(3));
                 if (val < 0 || val > 7) {
-                    debug.println("invalid SR2: " + words);
-                    System.exit(1);
+                    throw error("bad-register", words.get(3), "invalid SR2: " + words);
                 }
             } else {
                 imm = 1;
                 val = str2int(words.get(3)); //get the imm5
-                if (!validate_2c_offset(val, 5)) {
-                    System.exit(-1);
-                }
+                check_2c_offset(val, 5, words.get(3));
             }
             val = val & 0x001F; // only keep the lower 5 bits of the imm;
             instruction = opcode << 12 | dr << 9 | sr1 << 6 | imm << 5 | val;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -585,43 +1303,37 @@ public class LC3asm {
     /**
      * generates the binary encoding of the AND instruction
      */
-    private static void gen_and(List<String> words) {
+    private void gen_and(List<String> words) {
         if (pass == 2) {
             if (words.size() != 4) {
-                debug.println("invalid and instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid and instruction: " + words);
             }
             int instruction = 0;
             int opcode = 5; // 0101
-            int dr = str2int(words.get(1).substring(1)); // truncate the leading R from the register specification
+            int dr = str2reg(words.get(1));
             if (dr < 0 || dr > 7) {
-                debug.println("invalid destination register: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(1), "invalid destination register: " + words);
             }
-            int sr1 = str2int(words.get(2).substring(1)); // truncate the leading R from the register specification
+            int sr1 = str2reg(words.get(2));
             if (sr1 < 0 || sr1 > 7) {
-                debug.println("invalid SR1: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(2), "invalid SR1: " + words);
             }
             int imm = 0;
             int val = 0;
             if (words.get(3).charAt(0) == 'R') {
                 imm = 0;
-                val = str2int(words.get(3).substring(1)); // truncate R for register specifier, forces base 10
+                val = str2reg(words.get(3));
                 if (val < 0 || val > 7) {
-                    debug.println("invalid SR2: " + words);
-                    System.exit(1);
+                    throw error("bad-register", words.get(3), "invalid SR2: " + words);
                 }
             } else {
                 imm = 1;
                 val = str2int(words.get(3)); //get the imm5
-                if (!validate_2c_offset(val, 5)) {
-                    System.exit(-1);
-                }
+                check_2c_offset(val, 5, words.get(3));
             }
             val = val & 0x001F; // only keep the lower 5 bits of the imm;
             instruction = opcode << 12 | dr << 9 | sr1 << 6 | imm << 5 | val;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -629,14 +1341,13 @@ public class LC3asm {
     /**
      * generates the binary encoding of a no-op
      */
-    private static void gen_nop(List<String> words) {
+    private void gen_nop(List<String> words) {
         if (pass == 2) {
             if (!words.isEmpty()) {
-                debug.println("invalid NOP: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid NOP: " + words);
             }
             // This is a BR with all conditions set to 0 (so it is never taken)
-            output(int2hex(0x0000));
+            output(0x0000);
         }
         lc++;
     }
@@ -644,11 +1355,10 @@ public class LC3asm {
     /**
      * generates the binary encoding of the BR instruction
      */
-    private static void gen_br(List<String> words) {
+    private void gen_br(List<String> words) {
         if (pass == 2) {
             if (words.size() != 2) {
-                debug.println("invalid BR instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid BR instruction: " + words);
             }
             int instruction = 0;
             int opcode = 0; // 0000
@@ -670,22 +1380,19 @@ public class LC3asm {
             int offset;
             if (s != null) {
                 if (s.external) {
-                    debug.println("cannot use external label for pc-offset: " + words);
-                    System.exit(1);
+                    throw error("external-offset", lbl, "cannot use external label for pc-offset: " + words);
                 }
                 offset = s.address - (lc + 1); //PCOffset is from lc+1
             } else {
                 // if operand is not a label in the symbol table, assume it's a
                 // hardcoded offset instead (e.g., `-3')
-                offset = str2int(lbl);
-            }
-            if (!validate_2c_offset(offset, 9)) {
-                System.exit(1);
+                offset = str2offset(lbl);
             }
+            check_2c_offset(offset, 9, lbl);
             offset = offset & 0x01FF; // keep only the lower 9 bits
 
             instruction = opcode << 12 | n << 11 | z << 10 | p << 9 | offset;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -693,21 +1400,19 @@ public class LC3asm {
     /**
      * generates the binary encoding of the JMP instruction
      */
-    private static void gen_jmp(List<String> words) {
+    private void gen_jmp(List<String> words) {
         if (pass == 2) {
             if (words.size() != 2) {
-                debug.println("invalid jmp instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid jmp instruction: " + words);
             }
             int instruction = 0;
             int opcode = 12; //1100
-            int baseR = str2int(words.get(1).substring(1)); // truncate the leading R from the register specification
+            int baseR = str2reg(words.get(1));
             if (baseR < 0 || baseR > 7) {
-                debug.println("invalid base register: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(1), "invalid base register: " + words);
             }
             instruction = opcode << 12 | baseR << 6;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -715,11 +1420,10 @@ public class LC3asm {
     /**
      * generates the binary encoding of the JSR instruction
      */
-    private static void gen_jsr(List<String> words) {
+    private void gen_jsr(List<String> words) {
         if (pass == 2) {
             if (words.size() != 2) {
-                debug.println("invalid JSR instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid JSR instruction: " + words);
             }
             int instruction = 0;
             int opcode = 4; // 0100
@@ -729,22 +1433,19 @@ public class LC3asm {
             int offset;
             if (s != null) {
                 if (s.external) {
-                    debug.println("cannot use external label for pc-offset: " + words);
-                    System.exit(1);
+                    throw error("external-offset", lbl, "cannot use external label for pc-offset: " + words);
                 }
                 offset = s.address - (lc + 1); //PCOffset is from lc+1
             } else {
                 // if operand is not a label in the symbol table, assume it's a
                 // hardcoded offset instead (e.g., `-3')
-                offset = str2int(lbl);
-            }
-            if (!validate_2c_offset(offset, 11)) {
-                System.exit(1);
+                offset = str2offset(lbl);
             }
+            check_2c_offset(offset, 11, lbl);
             offset = offset & 0x07FF; // keep only the lower 11 bits
 
             instruction = opcode << 12 | 1 << 11 | offset;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -752,21 +1453,19 @@ public class LC3asm {
     /**
      * generates the binary encoding of the JSRR instruction
      */
-    private static void gen_jsrr(List<String> words) {
+    private void gen_jsrr(List<String> words) {
         if (pass == 2) {
             if (words.size() != 2) {
-                debug.println("invalid jsrr instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid jsrr instruction: " + words);
             }
             int instruction = 0;
             int opcode = 4; // 0100
-            int baseR = str2int(words.get(1).substring(1)); // truncate the leading R from the register specification
+            int baseR = str2reg(words.get(1));
             if (baseR < 0 || baseR > 7) {
-                debug.println("invalid base register: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(1), "invalid base register: " + words);
             }
             instruction = opcode << 12 | baseR << 6;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -774,39 +1473,46 @@ public class LC3asm {
     /**
      * generates the binary encoding of the LD instruction
      */
-    private static void gen_ld(List<String> words) {
+    private void gen_ld(List<String> words) {
         if (pass == 2) {
             if (words.size() != 3) {
-                debug.println("invalid ld instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid ld instruction: " + words);
             }
             int instruction = 0;
             int opcode = 2; // 0010
-            int dr = str2int(words.get(1).substring(1)); // truncate the leading R from the register specification
+            String lbl = words.get(2);
+            // (before anything else can go wrong, so pass 2 stays in step with pass 1)
+            Literal literal = lbl.startsWith("=")? literals.uses.get(literals.nextUse++) : null;
+            int dr = str2reg(words.get(1));
             if (dr < 0 || dr > 7) {
-                debug.println("invalid destination register: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(1), "invalid destination register: " + words);
             }
-            String lbl = words.get(2);
             Symbol s = symbolTable.get(lbl);
             int offset;
-            if (s != null) {
+            if (literal != null) {
+                if (!literal.number && !symbolTable.containsKey(literal.value)) {
+                    throw error("undefined-label", lbl, "undefined label: " + literal.value);
+                }
+                offset = literal.address - (lc + 1);
+                if (offset < -256 || offset > 255) {
+                    throw error("bad-offset", lbl, "no pool within reach for " + lbl + ", add a .POOL somewhere closer (where execution can't fall into it)");
+                }
+            } else if (s != null) {
                 if (s.external) {
-                    debug.println("cannot use external label for pc-offset: " + words);
-                    System.exit(1);
+                    throw error("external-offset", lbl, "cannot use external label for pc-offset: " + words);
                 }
                 offset = s.address - (lc + 1); //PCOffset is from lc+1
             } else {
                 // if operand is not a label in the symbol table, assume it's a
                 // hardcoded offset instead (e.g., `-3')
-                offset = str2int(lbl);
-            }
-            if (!validate_2c_offset(offset, 9)) {
-                System.exit(1);
+                offset = str2offset(lbl);
             }
+            check_2c_offset(offset, 9, lbl);
             offset = offset & 0x01FF; // keep lower 9 bits
             instruction = opcode << 12 | dr << 9 | offset;
-            output(int2hex(instruction));
+            output(instruction);
+        } else if (words.size() == 3 && words.get(2).startsWith("=")) {
+            gen_literal(words.get(2));
         }
         lc++;
     }
@@ -814,40 +1520,34 @@ public class LC3asm {
     /**
      * generates the binary encoding of the LDI instruction
      */
-    private static void gen_ldi(List<String> words) {
+    private void gen_ldi(List<String> words) {
         if (pass == 2) {
             if (words.size() != 3) {
-                debug.println("invalid ldi instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid ldi instruction: " + words);
             }
             int instruction = 0;
             int opcode = 10; // 1010
-            int dr = str2int(words.get(1).substring(1)); // truncate the leading R from the register specification
+            int dr = str2reg(words.get(1));
             if (dr < 0 || dr > 7) {
-                debug.println("invalid destination register: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(1), "invalid destination register: " + words);
             }
             String lbl = words.get(2);
             Symbol s = symbolTable.get(lbl);
             int offset;
             if (s != null) {
                 if (s.external) {
-                    debug.println("cannot use external label for pc-offset: " + words);
-                    System.exit(1);
+                    throw error("external-offset", lbl, "cannot use external label for pc-offset: " + words);
                 }
                 offset = s.address - (lc + 1); //PCOffset is from lc+1
             } else {
                 // if operand is not a label in the symbol table, assume it's a
                 // hardcoded offset instead (e.g., `-3')
-                offset = str2int(lbl);
-            }
-            if (!validate_2c_offset(offset, 9)) {
-                debug.println("invalid 11-bit PC offset" + offset);
-                System.exit(1);
+                offset = str2offset(lbl);
             }
+            check_2c_offset(offset, 9, lbl);
             offset = offset & 0x01FF; // keep lower 9 bits
             instruction = opcode << 12 | dr << 9 | offset;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -855,31 +1555,26 @@ public class LC3asm {
     /**
      * generates the binary encoding of the LDR instruction
      */
-    private static void gen_ldr(List<String> words) {
+    private void gen_ldr(List<String> words) {
         if (pass == 2) {
             if (words.size() != 4) {
-                debug.println("invalid ldr instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid ldr instruction: " + words);
             }
             int instruction = 0;
             int opcode = 6; // 0110
-            int dr = str2int(words.get(1).substring(1)); // truncate the leading R from the register specification
+            int dr = str2reg(words.get(1));
             if (dr < 0 || dr > 7) {
-                debug.println("invalid destination register: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(1), "invalid destination register: " + words);
             }
-            int baseR = str2int(words.get(2).substring(1)); // truncate the leading R from the register specification
+            int baseR = str2reg(words.get(2));
             if (baseR < 0 || baseR > 7) {
-                debug.println("invalid baseR: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(2), "invalid baseR: " + words);
             }
             int offset = str2int(words.get(3)); //get the offset6
-            if (!validate_2c_offset(offset, 6)) {
-                System.exit(1);
-            }
+            check_2c_offset(offset, 6, words.get(3));
             offset = offset & 0x003F; // only keep the lower 6 bits of the offset;
             instruction = opcode << 12 | dr << 9 | baseR << 6 | offset;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -887,39 +1582,34 @@ public class LC3asm {
     /**
      * generates the binary encoding of the LEA instruction
      */
-    private static void gen_lea(List<String> words) {
+    private void gen_lea(List<String> words) {
         if (pass == 2) {
             if (words.size() != 3) {
-                debug.println("invalid lea instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid lea instruction: " + words);
             }
             int instruction = 0;
             int opcode = 14; // 1110
-            int dr = str2int(words.get(1).substring(1)); // truncate the leading R from the register specification
+            int dr = str2reg(words.get(1));
             if (dr < 0 || dr > 7) {
-                debug.println("invalid destination register: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(1), "invalid destination register: " + words);
             }
             String lbl = words.get(2);
             Symbol s = symbolTable.get(lbl);
             int offset;
             if (s != null) {
                 if (s.external) {
-                    debug.println("cannot use external label for pc-offset: " + words);
-                    System.exit(1);
+                    throw error("external-offset", lbl, "cannot use external label for pc-offset: " + words);
                 }
                 offset = s.address - (lc + 1); //PCOffset is from lc+1
             } else {
                 // if operand is not a label in the symbol table, assume it's a
                 // hardcoded offset instead (e.g., `-3')
-                offset = str2int(lbl);
-            }
-            if (!validate_2c_offset(offset, 9)) {
-                System.exit(1);
+                offset = str2offset(lbl);
             }
+            check_2c_offset(offset, 9, lbl);
             offset = offset & 0x01FF; // keep lower 9 bits
             instruction = opcode << 12 | dr << 9 | offset;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -927,27 +1617,24 @@ public class LC3asm {
     /**
      * generates the binary encoding of the NOT instruction
      */
-    private static void gen_not(List<String> words) {
+    private void gen_not(List<String> words) {
         if (pass == 2) {
             if (words.size() != 3) {
-                debug.println("invalid not instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid not instruction: " + words);
             }
             int instruction = 0;
             int opcode = 9; // 1001
-            int dr = str2int(words.get(1).substring(1)); // truncate the leading R from the register specification
+            int dr = str2reg(words.get(1));
             if (dr < 0 || dr > 7) {
-                debug.println("invalid destination register: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(1), "invalid destination register: " + words);
             }
-            int sr = str2int(words.get(2).substring(1)); // truncate the leading R from the register specification
+            int sr = str2reg(words.get(2));
             if (sr < 0 || sr > 7) {
-                debug.println("invalid SR1: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(2), "invalid SR1: " + words);
             }
             int fill = (-1) & 0x003F; // need the 6 ones at the end of the instruction
             instruction = opcode << 12 | dr << 9 | sr << 6 | fill;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -955,7 +1642,7 @@ public class LC3asm {
     /**
      * generates the binary encoding of the RET alias
      */
-    private static void gen_ret(List<String> words) {
+    private void gen_ret(List<String> words) {
         words.add(1, "R7");
         gen_jmp(words);
     }
@@ -963,39 +1650,34 @@ public class LC3asm {
     /**
      * generates the binary encoding of the ST instruction
      */
-    private static void gen_st(List<String> words) {
+    private void gen_st(List<String> words) {
         if (pass == 2) {
             if (words.size() != 3) {
-                debug.println("invalid st instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid st instruction: " + words);
             }
             int instruction = 0;
             int opcode = 3; // 0011
-            int sr = str2int(words.get(1).substring(1)); // truncate the leading R from the register specification
+            int sr = str2reg(words.get(1));
             if (sr < 0 || sr > 7) {
-                debug.println("invalid source register: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(1), "invalid source register: " + words);
             }
             String lbl = words.get(2);
             Symbol s = symbolTable.get(lbl);
             int offset;
             if (s != null) {
                 if (s.external) {
-                    debug.println("cannot use external label for pc-offset: " + words);
-                    System.exit(1);
+                    throw error("external-offset", lbl, "cannot use external label for pc-offset: " + words);
                 }
                 offset = s.address - (lc + 1); //PCOffset is from lc+1
             } else {
                 // if operand is not a label in the symbol table, assume it's a
                 // hardcoded offset instead (e.g., `-3')
-                offset = str2int(lbl);
-            }
-            if (!validate_2c_offset(offset, 9)) {
-                System.exit(1);
+                offset = str2offset(lbl);
             }
+            check_2c_offset(offset, 9, lbl);
             offset = offset & 0x01FF; // keep lower 9 bits
             instruction = opcode << 12 | sr << 9 | offset;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -1003,39 +1685,34 @@ public class LC3asm {
     /**
      * generates the binary encoding of the STI instruction
      */
-    private static void gen_sti(List<String> words) {
+    private void gen_sti(List<String> words) {
         if (pass == 2) {
             if (words.size() != 3) {
-                debug.println("invalid sti instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid sti instruction: " + words);
             }
             int instruction = 0;
             int opcode = 11; // 1011
-            int sr = str2int(words.get(1).substring(1)); // truncate the leading R from the register specification
+            int sr = str2reg(words.get(1));
             if (sr < 0 || sr > 7) {
-                debug.println("invalid source register: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(1), "invalid source register: " + words);
             }
             String lbl = words.get(2);
             Symbol s = symbolTable.get(lbl);
             int offset;
             if (s != null) {
                 if (s.external) {
-                    debug.println("cannot use external label for pc-offset: " + words);
-                    System.exit(1);
+                    throw error("external-offset", lbl, "cannot use external label for pc-offset: " + words);
                 }
                 offset = s.address - (lc + 1); //PCOffset is from lc+1
             } else {
                 // if operand is not a label in the symbol table, assume it's a
                 // hardcoded offset instead (e.g., `-3')
-                offset = str2int(lbl);
-            }
-            if (!validate_2c_offset(offset, 9)) {
-                System.exit(1);
+                offset = str2offset(lbl);
             }
+            check_2c_offset(offset, 9, lbl);
             offset = offset & 0x01FF; // keep lower 9 bits
             instruction = opcode << 12 | sr << 9 | offset;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -1043,31 +1720,26 @@ public class LC3asm {
     /**
      * generates the binary encoding of the STR instruction
      */
-    private static void gen_str(List<String> words) {
+    private void gen_str(List<String> words) {
         if (pass == 2) {
             if (words.size() != 4) {
-                debug.println("invalid ldr instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid ldr instruction: " + words);
             }
             int instruction = 0;
             int opcode = 7; // 0111
-            int sr = str2int(words.get(1).substring(1)); // truncate the leading R from the register specification
+            int sr = str2reg(words.get(1));
             if (sr < 0 || sr > 7) {
-                debug.println("invalid source register: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(1), "invalid source register: " + words);
             }
-            int baseR = str2int(words.get(2).substring(1)); // truncate the leading R from the register specification
+            int baseR = str2reg(words.get(2));
             if (baseR < 0 || baseR > 7) {
-                debug.println("invalid baseR: " + words);
-                System.exit(1);
+                throw error("bad-register", words.get(2), "invalid baseR: " + words);
             }
             int offset = str2int(words.get(3)); //get the offset6
-            if (!validate_2c_offset(offset, 6)) {
-                System.exit(1);
-            }
+            check_2c_offset(offset, 6, words.get(3));
             offset = offset & 0x003F; // only keep the lower 6 bits of the offset;
             instruction = opcode << 12 | sr << 9 | baseR << 6 | offset;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -1075,18 +1747,17 @@ public class LC3asm {
     /**
      * generates the binary encoding of the TRAP instruction
      */
-    private static void gen_trap(List<String> words) {
+    private void gen_trap(List<String> words) {
         if (pass == 2) {
             if (words.size() != 2) {
-                debug.println("invalid trap instruction: " + words);
-                System.exit(1);
+                throw error("operands", null, "invalid trap instruction: " + words);
             }
             int instruction = 0;
             int opcode = 15; // 1111
             int trapvect8 = str2int(words.get(1));
             trapvect8 = trapvect8 & 0x00FF; // keep the 8 bits for the trap vect
             instruction = opcode << 12 | trapvect8;
-            output(int2hex(instruction));
+            output(instruction);
         }
         lc++;
     }
@@ -1094,7 +1765,7 @@ public class LC3asm {
     /**
      * generates the binary encoding of the GETC alias
      */
-    private static void gen_getc(List<String> words) {
+    private void gen_getc(List<String> words) {
         words.add(1, "X20");
         gen_trap(words);
     }
@@ -1102,7 +1773,7 @@ public class LC3asm {
     /**
      * generates the binary encoding of the OUT alias
      */
-    private static void gen_out(List<String> words) {
+    private void gen_out(List<String> words) {
         words.add(1, "X21");
         gen_trap(words);
     }
@@ -1110,7 +1781,7 @@ public class LC3asm {
     /**
      * generates the binary encoding of the PUTS alias
      */
-    private static void gen_puts(List<String> words) {
+    private void gen_puts(List<String> words) {
         words.add(1, "X22");
         gen_trap(words);
     }
@@ -1118,7 +1789,7 @@ public class LC3asm {
     /**
      * generates the binary encoding of the IN alias
      */
-    private static void gen_in(List<String> words) {
+    private void gen_in(List<String> words) {
         words.add(1, "X23");
         gen_trap(words);
     }
@@ -1126,7 +1797,7 @@ public class LC3asm {
     /**
      * generates the binary encoding of the HALT alias
      */
-    private static void gen_halt(List<String> words) {
+    private void gen_halt(List<String> words) {
         words.add(1, "X25");
         gen_trap(words);
     }
@@ -0,0 +1,265 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batch runner: runs a whole pile of LC-3 programs against a whole pile of
+ * inputs at once, for grading.
+ *
+ * `java LC3batch cases.txt' reads a manifest where each line is an object
+ * file and (optionally) a file to use as its console input:
+ *
+ *     # program            input
+ *     alice/hw5.obj        inputs/empty.txt
+ *     alice/hw5.obj        inputs/long.txt
+ *     bob/hw5.obj          inputs/empty.txt
+ *
+ * Programs can also be snapshots saved with `java LC3sim -save'. Paths are
+ * relative to the manifest. Blank lines and lines starting with # are
+ * ignored. Every case gets its own simulator (memory, registers and
+ * console) and runs on a work-stealing pool with one thread per core, or
+ * `-j <threads>'. Each case gives up after `-n <count>' instructions
+ * (default 10 million), so infinite loops always die at the same point no
+ * matter how busy the machine is. `-jit' uses LC3jit instead of the plain
+ * interpreter, which pays off when cases run for a long time.
+ *
+ * `-coverage' records which instructions each program ran and which way its
+ * branches went, over all of that program's cases, and adds it to a .cov
+ * file next to the program (alice/hw5.cov) for LC3cov to report on. Each
+ * thread collects into its own copy, and the copies only get added up once
+ * everything's done, so collecting doesn't slow the threads down waiting on
+ * each other.
+ *
+ * Results come out on stdout as one JSON object per line, in whatever order
+ * the cases finish:
+ *
+ *     {"case":0,"program":"alice/hw5.obj","input":"inputs/empty.txt","status":"halted","instructions":1234,"output":"Hello\n","registers":"R0=x0000 ..."}
+ *
+ * status is halted, timeout (ran out of instructions) or error (illegal
+ * opcode, ran out of input, couldn't read the object file, ...), in which
+ * case there's an "error" field saying what went wrong.
+ */
+public class LC3batch {
+    static final long DEFAULT_BUDGET = 10_000_000;
+
+    static class Case {
+        int index;
+        String program; // as written in the manifest
+        String input; // as written in the manifest, or null for no input
+        File programFile;
+        File inputFile;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Tedious argument parsing
+        String manifest = null;
+        long budget = DEFAULT_BUDGET;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean jit = false;
+        boolean collectCoverage = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-n") && i + 1 < args.length) {
+                    budget = Long.parseLong(args[++i]);
+                } else if (args[i].equals("-j") && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-jit")) {
+                    jit = true;
+                } else if (args[i].equals("-coverage")) {
+                    collectCoverage = true;
+                } else if (manifest == null && !args[i].startsWith("-")) {
+                    manifest = args[i];
+                } else {
+                    manifest = null;
+                    break;
+                }
+            }
+        } catch (NumberFormatException err) {
+            manifest = null;
+        }
+        if (manifest == null || threads < 1) {
+            System.err.println("usage: java LC3batch [-n <max instructions per case>] [-j <threads>] [-jit] [-coverage] <manifest>");
+            System.exit(1);
+        }
+
+        List<Case> cases = readManifest(new File(manifest));
+        PrintStream results = new PrintStream(System.out, false, StandardCharsets.UTF_8);
+        AtomicLong totalInstructions = new AtomicLong();
+        int[] statusCounts = new int[3]; // halted, timeout, error
+
+        // every program and input only gets read once, no matter how many
+        // cases use it. each thread keeps one simulator around and restores
+        // it from a snapshot of the program before each case, which only
+        // copies back the memory the last case changed
+        Map<File, LC3sim.Snapshot> programs = new ConcurrentHashMap<>();
+        Map<File, byte[]> inputs = new ConcurrentHashMap<>();
+        final boolean useJit = jit;
+        ThreadLocal<LC3sim> sims = ThreadLocal.withInitial(() -> useJit? new LC3jit() : new LC3sim());
+
+        // coverage for each program, one map per thread
+        Queue<Map<File, LC3cov.Coverage>> allCoverage = new ConcurrentLinkedQueue<>();
+        ThreadLocal<Map<File, LC3cov.Coverage>> coverage = ThreadLocal.withInitial(() -> {
+            Map<File, LC3cov.Coverage> mine = new HashMap<>();
+            allCoverage.add(mine);
+            return mine;
+        });
+        final boolean useCoverage = collectCoverage;
+
+        final long caseBudget = budget;
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Case c : cases) {
+            tasks.add(pool.submit(() -> {
+                LC3sim sim = sims.get();
+                sim.coverage = useCoverage? coverage.get().computeIfAbsent(c.programFile, f -> new LC3cov.Coverage()) : null;
+                String json = runCase(c, sim, programs, inputs, caseBudget, totalInstructions, statusCounts);
+                synchronized (results) {
+                    results.println(json);
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        pool.shutdown();
+        results.flush();
+        long elapsed = System.nanoTime() - start;
+
+        if (collectCoverage) {
+            Map<File, LC3cov.Coverage> total = new TreeMap<>();
+            for (Map<File, LC3cov.Coverage> mine : allCoverage) {
+                for (Map.Entry<File, LC3cov.Coverage> entry : mine.entrySet()) {
+                    total.computeIfAbsent(entry.getKey(), f -> new LC3cov.Coverage()).merge(entry.getValue());
+                }
+            }
+            for (Map.Entry<File, LC3cov.Coverage> entry : total.entrySet()) {
+                String path = entry.getKey().getPath();
+                int dot = path.lastIndexOf('.');
+                File covFile = new File((dot > path.lastIndexOf(File.separatorChar)? path.substring(0, dot) : path) + ".cov");
+                entry.getValue().mergeInto(covFile);
+                System.err.println("Added coverage to " + covFile.getPath());
+            }
+        }
+
+        System.err.printf("%d cases (%d halted, %d timed out, %d errors) on %d threads in %.3f s, %d instructions (%.1f million per second)%n",
+                          cases.size(), statusCounts[0], statusCounts[1], statusCounts[2], threads, elapsed / 1e9,
+                          totalInstructions.get(), totalInstructions.get() * 1e3 / Math.max(elapsed, 1));
+        System.exit(statusCounts[2] == 0? 0 : 1);
+    }
+
+    static List<Case> readManifest(File manifest) throws IOException {
+        File dir = manifest.getAbsoluteFile().getParentFile();
+        List<Case> cases = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(manifest))) {
+            String line;
+            int lineNum = 0;
+            while ((line = br.readLine()) != null) {
+                lineNum++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] words = line.split("\\s+");
+                if (words.length > 2) {
+                    System.err.println(manifest + ":" + lineNum + ": expected <program> [<input>], got: " + line);
+                    System.exit(1);
+                }
+                Case c = new Case();
+                c.index = cases.size();
+                c.program = words[0];
+                c.programFile = resolve(dir, words[0]);
+                if (words.length > 1) {
+                    c.input = words[1];
+                    c.inputFile = resolve(dir, words[1]);
+                }
+                cases.add(c);
+            }
+        }
+        return cases;
+    }
+
+    private static File resolve(File dir, String path) {
+        File file = new File(path);
+        return file.isAbsolute()? file : new File(dir, path);
+    }
+
+    /**
+     * Runs one case start to finish on sim and returns its JSON result line
+     */
+    static String runCase(Case c, LC3sim sim, Map<File, LC3sim.Snapshot> programs, Map<File, byte[]> inputs, long budget,
+                          AtomicLong totalInstructions, int[] statusCounts) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"case\":").append(c.index);
+        json.append(",\"program\":").append(LC3json.quote(c.program));
+        json.append(",\"input\":").append(c.input == null? "null" : LC3json.quote(c.input));
+
+        LC3sim.Snapshot program;
+        byte[] input;
+        try {
+            program = programs.computeIfAbsent(c.programFile, LC3sim::loadProgram);
+            input = c.inputFile == null? new byte[0] : inputs.computeIfAbsent(c.inputFile, LC3batch::readInput);
+        } catch (RuntimeException err) {
+            synchronized (statusCounts) {
+                statusCounts[2]++;
+            }
+            json.append(",\"status\":\"error\",\"error\":").append(LC3json.quote(String.valueOf(err.getCause() != null? err.getCause() : err)));
+            json.append(",\"instructions\":0}");
+            return json.toString();
+        }
+
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        sim.restore(program);
+        try {
+            sim.in = new ByteArrayInputStream(input);
+            sim.out = new PrintStream(console, false, StandardCharsets.ISO_8859_1);
+            sim.run(budget);
+            sim.flush();
+        } catch (RuntimeException err) {
+            sim.halted = true;
+            sim.error = String.valueOf(err.getCause() != null? err.getCause() : err);
+        }
+
+        int status = sim.error != null? 2 : sim.halted? 0 : 1;
+        synchronized (statusCounts) {
+            statusCounts[status]++;
+        }
+        totalInstructions.addAndGet(sim.instructions);
+
+        json.append(",\"status\":\"").append(new String[] {"halted", "timeout", "error"}[status]).append('"');
+        if (sim.error != null) {
+            json.append(",\"error\":").append(LC3json.quote(sim.error));
+        }
+        json.append(",\"instructions\":").append(sim.instructions);
+        json.append(",\"output\":").append(LC3json.quote(console.toString(StandardCharsets.ISO_8859_1)));
+        json.append(",\"registers\":").append(LC3json.quote(sim.dumpRegisters()));
+        json.append('}');
+        return json.toString();
+    }
+
+    private static byte[] readInput(File inputFile) {
+        try {
+            return Files.readAllBytes(inputFile.toPath());
+        } catch (IOException err) {
+            // Rethrow as unchecked (Mr. Gosling, thank you for everything)
+            throw new RuntimeException(err);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coverage reports: which lines of a program did your tests actually run,
+ * and did every branch go both ways?
+ *
+ * Collect coverage with `java LC3sim -coverage bubba.cov bubba.obj' (or
+ * `java LC3batch -coverage cases.txt', which writes a .cov next to every
+ * program in the manifest). Running again with the same .cov file adds to
+ * what's already in there, so you can run a whole test suite and then look
+ * at all of it together:
+ *
+ *     java LC3cov bubba.obj bubba.cov more.cov
+ *
+ * prints which source lines never ran and which branches only ever went one
+ * way. `-lcov bubba.info' also writes an LCOV tracefile for genhtml and
+ * friends. Lines are found by matching bubba.dbgsym against bubba.asm; for
+ * a linked program, list each module's source with `-src mod.asm'.
+ */
+public class LC3cov {
+    /**
+     * Coverage of one program, as collected by LC3sim: a bit for every
+     * address that ever executed, and how many times every BR was taken and
+     * not taken. Each simulator (or thread) gets its own and they get
+     * merged at the end, so collecting never needs a lock
+     */
+    static class Coverage {
+        static final String HEADER = "LC3COV 1";
+
+        final long[] executed = new long[LC3sim.MEM_SIZE / 64];
+        final long[] taken = new long[LC3sim.MEM_SIZE];
+        final long[] notTaken = new long[LC3sim.MEM_SIZE];
+
+        boolean wasExecuted(int addr) {
+            return (executed[addr >> 6] & 1L << addr) != 0;
+        }
+
+        void merge(Coverage other) {
+            for (int i = 0; i < executed.length; i++) {
+                executed[i] |= other.executed[i];
+            }
+            for (int addr = 0; addr < LC3sim.MEM_SIZE; addr++) {
+                taken[addr] += other.taken[addr];
+                notTaken[addr] += other.notTaken[addr];
+            }
+        }
+
+        /**
+         * Writes runs of executed addresses, then branch counts:
+         *
+         *     LC3COV 1
+         *     EXEC x3000 x3012
+         *     BR x3005 12 3
+         */
+        void write(File file) throws IOException {
+            try (PrintStream out = new PrintStream(file)) {
+                out.println(HEADER);
+                for (int addr = 0; addr < LC3sim.MEM_SIZE; addr++) {
+                    if (wasExecuted(addr)) {
+                        int end = addr;
+                        while (end + 1 < LC3sim.MEM_SIZE && wasExecuted(end + 1)) {
+                            end++;
+                        }
+                        out.printf("EXEC x%04x x%04x%n", addr, end);
+                        addr = end;
+                    }
+                }
+                for (int addr = 0; addr < LC3sim.MEM_SIZE; addr++) {
+                    if (taken[addr] > 0 || notTaken[addr] > 0) {
+                        out.printf("BR x%04x %d %d%n", addr, taken[addr], notTaken[addr]);
+                    }
+                }
+            }
+        }
+
+        static Coverage read(File file) throws IOException {
+            Coverage coverage = new Coverage();
+            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+                String line = br.readLine();
+                if (line == null || !line.equals(HEADER)) {
+                    throw new IllegalArgumentException(file + " is not an LC-3 coverage file");
+                }
+                while ((line = br.readLine()) != null) {
+                    String[] words = line.split(" ");
+                    if (words[0].equals("EXEC")) {
+                        int end = LC3sim.parseAddress(words[2]);
+                        for (int addr = LC3sim.parseAddress(words[1]); addr <= end; addr++) {
+                            coverage.executed[addr >> 6] |= 1L << addr;
+                        }
+                    } else if (words[0].equals("BR")) {
+                        int addr = LC3sim.parseAddress(words[1]);
+                        coverage.taken[addr] += Long.parseLong(words[2]);
+                        coverage.notTaken[addr] += Long.parseLong(words[3]);
+                    } else {
+                        throw new IllegalArgumentException("Bad line in coverage file " + file + ": " + line);
+                    }
+                }
+            }
+            return coverage;
+        }
+
+        /**
+         * Adds this coverage to whatever's already in file (if anything)
+         */
+        void mergeInto(File file) throws IOException {
+            Coverage total = file.exists()? read(file) : new Coverage();
+            total.merge(this);
+            total.write(file);
+        }
+    }
+
+    // one line of the program, from the .dbgsym
+    static class Line {
+        int addr;
+        String text;
+        File source; // null if we couldn't find it in any source file
+        int lineNum;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Tedious argument parsing
+        String objfilename = null;
+        String lcovFilename = null;
+        List<File> sources = new ArrayList<>();
+        List<File> covFiles = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-lcov") && i + 1 < args.length) {
+                lcovFilename = args[++i];
+            } else if (args[i].equals("-src") && i + 1 < args.length) {
+                sources.add(new File(args[++i]));
+            } else if (args[i].startsWith("-")) {
+                objfilename = null;
+                break;
+            } else if (objfilename == null) {
+                objfilename = args[i];
+            } else {
+                covFiles.add(new File(args[i]));
+            }
+        }
+        if (objfilename == null || !objfilename.contains(".") || covFiles.isEmpty()) {
+            System.err.println("usage: java LC3cov [-lcov <tracefile>] [-src <asm file>]... <path to object file> <coverage file>...");
+            System.exit(1);
+        }
+
+        String filebase = objfilename.substring(0, objfilename.lastIndexOf('.')); // get the root filename without any extensions
+        if (sources.isEmpty()) {
+            sources.add(new File(filebase + ".asm"));
+        }
+        Coverage coverage = new Coverage();
+        for (File covFile : covFiles) {
+            coverage.merge(Coverage.read(covFile));
+        }
+        List<Line> lines = readLines(new File(filebase + ".dbgsym"), sources);
+        List<LC3disasm.OrigEndWindow> blocks = LC3sim.readObjectFile(new File(objfilename));
+        int[] mem = new int[LC3sim.MEM_SIZE];
+        for (LC3disasm.OrigEndWindow block : blocks) {
+            for (int i = 0; i < block.words.size(); i++) {
+                mem[(block.origAddr + i) & 0xFFFF] = block.words.get(i);
+            }
+        }
+
+        // the text report
+        int linesHit = 0;
+        int directions = 0, directionsHit = 0;
+        List<String> missed = new ArrayList<>();
+        List<String> oneWay = new ArrayList<>();
+        for (Line line : lines) {
+            boolean hit = coverage.wasExecuted(line.addr);
+            if (hit) {
+                linesHit++;
+            } else {
+                missed.add(describe(line));
+            }
+            if (isConditionalBranch(mem[line.addr])) {
+                directions += 2;
+                long t = coverage.taken[line.addr], nt = coverage.notTaken[line.addr];
+                directionsHit += (t > 0? 1 : 0) + (nt > 0? 1 : 0);
+                if (hit && (t == 0 || nt == 0)) {
+                    oneWay.add(String.format("%s   (taken %d, not taken %d)", describe(line), t, nt));
+                }
+            }
+        }
+        System.out.printf("Lines:    %d of %d executed (%.1f%%)%n", linesHit, lines.size(), percent(linesHit, lines.size()));
+        System.out.printf("Branches: %d of %d directions taken (%.1f%%)%n", directionsHit, directions, percent(directionsHit, directions));
+        if (!missed.isEmpty()) {
+            System.out.println();
+            System.out.println("Never executed:");
+            missed.forEach(System.out::println);
+        }
+        if (!oneWay.isEmpty()) {
+            System.out.println();
+            System.out.println("Branches that only ever went one way:");
+            oneWay.forEach(System.out::println);
+        }
+
+        if (lcovFilename != null) {
+            writeLcov(new File(lcovFilename), lines, coverage, mem);
+            System.out.println();
+            System.out.println("Wrote LCOV tracefile to " + lcovFilename);
+        }
+    }
+
+    /**
+     * Reads the instructions out of a .dbgsym (skipping .fills and friends,
+     * since those never execute) and finds the line each one came from in
+     * the source files. The .dbgsym doesn't have line numbers, but it has
+     * the text of each line in order, so we walk through the sources
+     * matching it up
+     */
+    static List<Line> readLines(File dbgsymFile, List<File> sources) throws IOException {
+        List<Line> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(dbgsymFile))) {
+            String text;
+            while ((text = br.readLine()) != null) {
+                int colon = text.indexOf(':');
+                if (!text.startsWith("x") || colon < 0) {
+                    continue;
+                }
+                Line line = new Line();
+                line.addr = Integer.parseInt(text.substring(1, colon), 16);
+                line.text = text.substring(colon + 1).trim();
+                if (!isDirective(line.text)) {
+                    lines.add(line);
+                }
+            }
+        }
+
+        Map<File, List<String>> sourceLines = new LinkedHashMap<>();
+        Map<File, Integer> cursors = new LinkedHashMap<>();
+        for (File source : sources) {
+            List<String> texts = new ArrayList<>();
+            if (source.exists()) {
+                try (BufferedReader br = new BufferedReader(new FileReader(source))) {
+                    String text;
+                    while ((text = br.readLine()) != null) {
+                        // the same cleanup LC3asm does before writing the .dbgsym
+                        text = text.trim();
+                        if (text.contains(";")) {
+                            text = text.substring(0, text.indexOf(";"));
+                        }
+                        texts.add(text.trim());
+                    }
+                }
+            }
+            sourceLines.put(source, texts);
+            cursors.put(source, 0);
+        }
+
+        File current = sources.isEmpty()? null : sources.get(0);
+        for (Line line : lines) {
+            // usually the next line is in the same file, a little further
+            // down. if not, try every file
+            if (current != null && match(line, current, sourceLines, cursors)) {
+                continue;
+            }
+            for (File source : sources) {
+                if (match(line, source, sourceLines, cursors)) {
+                    current = source;
+                    break;
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static boolean match(Line line, File source, Map<File, List<String>> sourceLines, Map<File, Integer> cursors) {
+        List<String> texts = sourceLines.get(source);
+        for (int i = cursors.get(source); i < texts.size(); i++) {
+            if (texts.get(i).equals(line.text)) {
+                line.source = source;
+                line.lineNum = i + 1;
+                cursors.put(source, i + 1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // whether a line is a directive like .fill (maybe after a label)
+    private static boolean isDirective(String text) {
+        String[] words = text.split("\\s+");
+        return words[0].startsWith(".") || (words.length > 1 && words[1].startsWith("."));
+    }
+
+    private static boolean isConditionalBranch(int word) {
+        int nzp = word >> 9 & 0x7;
+        return (word >> 12) == 0b0000 && nzp != 0 && nzp != 0x7;
+    }
+
+    private static String describe(Line line) {
+        String where = line.source == null? "?" : line.source.getName() + ":" + line.lineNum;
+        return String.format("  x%04x  %-16s %s", line.addr, where, line.text);
+    }
+
+    /**
+     * Writes an LCOV tracefile, with one record per source file. LCOV wants
+     * hit counts per line, but all we know is whether each line ran, so
+     * lines that ran get a count of 1
+     */
+    static void writeLcov(File file, List<Line> lines, Coverage coverage, int[] mem) throws IOException {
+        Map<File, List<Line>> bySource = new LinkedHashMap<>();
+        for (Line line : lines) {
+            if (line.source != null) {
+                bySource.computeIfAbsent(line.source, s -> new ArrayList<>()).add(line);
+            }
+        }
+        try (PrintStream lcov = new PrintStream(file)) {
+            for (Map.Entry<File, List<Line>> entry : bySource.entrySet()) {
+                lcov.println("TN:");
+                lcov.println("SF:" + entry.getKey().getAbsolutePath());
+                int found = 0, hit = 0, branchesFound = 0, branchesHit = 0;
+                for (Line line : entry.getValue()) {
+                    if (isConditionalBranch(mem[line.addr])) {
+                        boolean ran = coverage.wasExecuted(line.addr);
+                        long[] counts = {coverage.taken[line.addr], coverage.notTaken[line.addr]};
+                        for (int branch = 0; branch < 2; branch++) {
+                            lcov.printf("BRDA:%d,0,%d,%s%n", line.lineNum, branch, ran? String.valueOf(counts[branch]) : "-");
+                            branchesFound++;
+                            branchesHit += counts[branch] > 0? 1 : 0;
+                        }
+                    }
+                }
+                lcov.println("BRF:" + branchesFound);
+                lcov.println("BRH:" + branchesHit);
+                for (Line line : entry.getValue()) {
+                    boolean ran = coverage.wasExecuted(line.addr);
+                    lcov.printf("DA:%d,%d%n", line.lineNum, ran? 1 : 0);
+                    found++;
+                    hit += ran? 1 : 0;
+                }
+                lcov.println("LF:" + found);
+                lcov.println("LH:" + hit);
+                lcov.println("end_of_record");
+            }
+        }
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0? 100 : 100.0 * part / whole;
+    }
+}
@@ -0,0 +1,427 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The same thing as a .dbgsym (which source line ended up at which
+ * address), but in a binary .dbginfo that can be memory mapped and looked up
+ * right away instead of parsed line by line into a map first:
+ *
+ *     "LC3DBGI" and a version byte (1)
+ *     int ranges, int slots, int lines, int blob length
+ *     ranges x {int start, int length, int first slot}, sorted by start
+ *     slots x int: the line at each address of each range, or -1 for none
+ *     (lines + 1) x int: where each line starts in the blob (the last one
+ *                        is where the blob ends)
+ *     the blob: every different source line, UTF-8, back to back
+ *
+ * all big-endian like the LC-3. A range is a run of addresses with source
+ * lines no more than GAP words apart (so usually one per .ORIG block), and
+ * finding an address is a binary search over those and then an array index.
+ * The same line at two addresses (a hundred `ADD R0, R0, #1's, say) is only
+ * in the blob once.
+ *
+ * The one LC3link writes keeps each module's lines together, followed by a
+ * few unused ones and some spare blob bytes, and has a slot for every word
+ * of every .ORIG block, so when a module changes without moving, its lines
+ * can be swapped in place (see merge() and patch()).
+ *
+ * LC3asm writes one next to every .dbgsym, LC3link merges them, and
+ * ObjToLC3Tools and LC3prof read them, falling back to the .dbgsym if the
+ * .dbginfo is missing or older
+ */
+public class LC3dbginfo {
+    static final byte[] MAGIC = {'L', 'C', '3', 'D', 'B', 'G', 'I', 1};
+    static final int HEADER_LEN = MAGIC.length + 4 * 4;
+    static final int RANGE_LEN = 3 * 4;
+    // addresses without a line this close together share a range anyway,
+    // since a few -1 slots are cheaper than another range to search
+    static final int GAP = 16;
+
+    private final ByteBuffer buf;
+    private final int ranges, slots, lines, blobLength;
+    private final int rangesAt, slotsAt, offsetsAt, blobAt;
+    private final String[] decoded; // lines we've already turned into Strings
+
+    private LC3dbginfo(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        byte[] magic = new byte[MAGIC.length];
+        if (buf.capacity() < HEADER_LEN) {
+            throw new IOException("Debug info is too short");
+        }
+        buf.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a .dbginfo file (or the wrong version)");
+        }
+        ranges = buf.getInt(MAGIC.length);
+        slots = buf.getInt(MAGIC.length + 4);
+        lines = buf.getInt(MAGIC.length + 8);
+        blobLength = buf.getInt(MAGIC.length + 12);
+        rangesAt = HEADER_LEN;
+        slotsAt = rangesAt + ranges * RANGE_LEN;
+        offsetsAt = slotsAt + slots * 4;
+        blobAt = offsetsAt + (lines + 1) * 4;
+        if (ranges < 0 || slots < 0 || lines < 0 || blobLength < 0 || (long)blobAt + blobLength != buf.capacity()) {
+            throw new IOException("Debug info is the wrong length for what its header says");
+        }
+        decoded = new String[lines];
+    }
+
+    /**
+     * maps a .dbginfo file into memory. Nothing gets read until it's looked up
+     */
+    static LC3dbginfo map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new LC3dbginfo(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    static LC3dbginfo of(byte[] bytes) throws IOException {
+        return new LC3dbginfo(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * the debug info for filebase.obj: its .dbginfo if that's at least as new
+     * as its .dbgsym, otherwise the .dbgsym
+     */
+    static LC3dbginfo load(String filebase) throws IOException {
+        File dbginfoFile = new File(filebase + ".dbginfo");
+        File dbgsymFile = new File(filebase + ".dbgsym");
+        if (dbginfoFile.exists() && (!dbgsymFile.exists() || dbginfoFile.lastModified() >= dbgsymFile.lastModified())) {
+            return map(dbginfoFile);
+        }
+        return of(fromDbgsym(Files.readAllBytes(dbgsymFile.toPath())));
+    }
+
+    /**
+     * the index of the source line at address, or -1 if there isn't one
+     */
+    int lineIndex(int address) {
+        int at = slotAt(address);
+        return at < 0? -1 : buf.getInt(at);
+    }
+
+    // where address's slot is in buf, or -1 if it's in none of the ranges
+    private int slotAt(int address) {
+        int lo = 0, hi = ranges - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int start = buf.getInt(rangesAt + mid * RANGE_LEN);
+            if (address < start) {
+                hi = mid - 1;
+            } else if (address >= start + buf.getInt(rangesAt + mid * RANGE_LEN + 4)) {
+                lo = mid + 1;
+            } else {
+                int firstSlot = buf.getInt(rangesAt + mid * RANGE_LEN + 8);
+                return slotsAt + (firstSlot + address - start) * 4;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * the source line at address, or null if there isn't one
+     */
+    String line(int address) {
+        int index = lineIndex(address);
+        return index < 0? null : text(index);
+    }
+
+    String text(int index) {
+        if (decoded[index] == null) {
+            int from = buf.getInt(offsetsAt + index * 4);
+            int to = buf.getInt(offsetsAt + (index + 1) * 4);
+            byte[] bytes = new byte[to - from];
+            buf.get(blobAt + from, bytes);
+            decoded[index] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return decoded[index];
+    }
+
+    interface LineConsumer {
+        void accept(int address, String line);
+    }
+
+    /**
+     * every address with a source line, in order
+     */
+    void forEach(LineConsumer consumer) {
+        for (int r = 0; r < ranges; r++) {
+            int start = buf.getInt(rangesAt + r * RANGE_LEN);
+            int length = buf.getInt(rangesAt + r * RANGE_LEN + 4);
+            int firstSlot = buf.getInt(rangesAt + r * RANGE_LEN + 8);
+            for (int i = 0; i < length; i++) {
+                int index = buf.getInt(slotsAt + (firstSlot + i) * 4);
+                if (index >= 0) {
+                    consumer.accept(start + i, text(index));
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects lines as the assembler comes across them
+     */
+    static class Builder {
+        private final int[] slots = new int[1 << 16]; // line index at each address, or -1
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> texts = new ArrayList<>();
+
+        Builder() {
+            Arrays.fill(slots, -1);
+        }
+
+        /**
+         * the source line at address is text. Trailing whitespace goes, same
+         * as ObjToLC3Tools always did when it read the .dbgsym
+         */
+        void add(int address, String text) {
+            int end = text.length();
+            while (end > 0 && text.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            text = text.substring(0, end);
+            Integer index = indexes.get(text);
+            if (index == null) {
+                index = texts.size();
+                indexes.put(text, index);
+                texts.add(text);
+            }
+            slots[address & 0xFFFF] = index;
+        }
+
+        byte[] toBytes() {
+            List<byte[]> blobs = new ArrayList<>();
+            for (String text : texts) {
+                blobs.add(text.getBytes(StandardCharsets.UTF_8));
+            }
+            return LC3dbginfo.toBytes(slots, null, blobs);
+        }
+    }
+
+    // lays out a .dbginfo with line slots[addr] at each address and the lines
+    // in blobs. every address marked in covered gets a slot even without a line
+    private static byte[] toBytes(int[] slots, boolean[] covered, List<byte[]> blobs) {
+        List<int[]> ranges = new ArrayList<>(); // {start, length}
+        int totalSlots = 0;
+        for (int addr = 0; addr < slots.length; addr++) {
+            if (slots[addr] < 0 && (covered == null || !covered[addr])) {
+                continue;
+            }
+            int[] last = ranges.isEmpty()? null : ranges.get(ranges.size() - 1);
+            if (last != null && addr - (last[0] + last[1]) < GAP) {
+                totalSlots += addr + 1 - (last[0] + last[1]);
+                last[1] = addr + 1 - last[0];
+            } else {
+                ranges.add(new int[] {addr, 1});
+                totalSlots++;
+            }
+        }
+
+        int blobLength = 0;
+        for (byte[] blob : blobs) {
+            blobLength += blob.length;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, ranges.size(), totalSlots, blobs.size(), blobLength);
+            int firstSlot = 0;
+            for (int[] range : ranges) {
+                out.writeInt(range[0]);
+                out.writeInt(range[1]);
+                out.writeInt(firstSlot);
+                firstSlot += range[1];
+            }
+            for (int[] range : ranges) {
+                for (int i = 0; i < range[1]; i++) {
+                    out.writeInt(slots[range[0] + i]);
+                }
+            }
+            int offset = 0;
+            for (byte[] blob : blobs) {
+                out.writeInt(offset);
+                offset += blob.length;
+            }
+            out.writeInt(offset);
+            for (byte[] blob : blobs) {
+                out.write(blob);
+            }
+        } catch (IOException err) {
+            // it's all in memory
+            throw new IllegalStateException(err);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * converts a .dbgsym (for the modules that only came with one, like
+     * archive members) the way ObjToLC3Tools used to read it
+     */
+    static byte[] fromDbgsym(byte[] dbgsym) {
+        Builder builder = new Builder();
+        for (String line : new String(dbgsym, StandardCharsets.UTF_8).split("\r?\n")) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            int colon = line.indexOf(": ");
+            String addrString = colon < 0? line : line.substring(0, colon);
+            if (addrString.startsWith("x")) {
+                addrString = addrString.substring(1);
+            }
+            builder.add(Integer.parseInt(addrString, 16), colon < 0? "" : line.substring(colon + 2));
+        }
+        return builder.toBytes();
+    }
+
+    // one module's lines, numbered from 0 in address order, each different
+    // one only once
+    private static class ModuleLines {
+        final Map<Integer, Integer> at = new TreeMap<>(); // address -> line
+        final List<byte[]> texts = new ArrayList<>();
+        int blobLength;
+
+        ModuleLines(byte[] part) throws IOException {
+            Map<String, Integer> indexes = new HashMap<>();
+            of(part).forEach((address, text) -> {
+                Integer index = indexes.get(text);
+                if (index == null) {
+                    index = texts.size();
+                    indexes.put(text, index);
+                    texts.add(text.getBytes(StandardCharsets.UTF_8));
+                    blobLength += texts.get(index).length;
+                }
+                at.put(address, index);
+            });
+        }
+    }
+
+    /**
+     * Sticks the debug info of several modules together for the linker. The
+     * addresses are already absolute, but one module's ranges can have
+     * another's code in their gaps (and -1 slots where it goes), so the
+     * table gets built over again instead of just pasting the ranges together.
+     * Each module gets lineRooms[i] lines in a row to itself (its own, then
+     * unused ones, the first of which holds its spare blob bytes), and every
+     * word in layouts[i] gets a slot, so patch() can replace them later
+     */
+    static byte[] merge(List<byte[]> parts, List<int[][]> layouts, int[] lineRooms) throws IOException {
+        int[] slots = new int[1 << 16];
+        Arrays.fill(slots, -1);
+        boolean[] covered = new boolean[1 << 16];
+        List<byte[]> blobs = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i++) {
+            for (int[] block : layouts.get(i)) {
+                for (int j = 0; j < block[1]; j++) {
+                    covered[(block[0] + j) & 0xFFFF] = true;
+                }
+            }
+            ModuleLines lines = new ModuleLines(parts.get(i));
+            int firstLine = blobs.size();
+            for (Map.Entry<Integer, Integer> line : lines.at.entrySet()) {
+                slots[line.getKey()] = firstLine + line.getValue();
+            }
+            blobs.addAll(lines.texts);
+            // room for a quarter again as many lines and bytes, so most
+            // edits fit without laying the whole thing out again
+            lineRooms[i] = lines.texts.size() + lines.texts.size() / 4 + 4;
+            blobs.add(spaces(lines.blobLength / 4 + 64));
+            while (blobs.size() < firstLine + lineRooms[i]) {
+                blobs.add(new byte[0]);
+            }
+        }
+        return toBytes(slots, covered, blobs);
+    }
+
+    /**
+     * Swaps in part as the lines of one module of a .dbginfo that merge()
+     * made, right in the file: firstLine and lineRoom are the lines it was
+     * given, and layout is its .ORIG blocks. Returns false without changing
+     * anything if the new lines don't fit in that room (or the file doesn't
+     * look like it came from merge() with that module in it)
+     */
+    static boolean patch(File file, int firstLine, int lineRoom, int[][] layout, byte[] part) throws IOException {
+        ModuleLines fresh = new ModuleLines(part);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            LC3dbginfo info = new LC3dbginfo(buf);
+            // keep at least one unused line for the spare bytes to belong to
+            if (firstLine < 0 || firstLine + lineRoom > info.lines || fresh.texts.size() >= lineRoom) {
+                return false;
+            }
+            int blobFrom = buf.getInt(info.offsetsAt + firstLine * 4);
+            int blobTo = buf.getInt(info.offsetsAt + (firstLine + lineRoom) * 4);
+            if (fresh.blobLength > blobTo - blobFrom) {
+                return false;
+            }
+
+            // every word of the module needs a slot, which can't be showing
+            // some other (overlapping) module's line, and every new line
+            // has to be at one of those words
+            Map<Integer, Integer> slotPositions = new TreeMap<>();
+            for (int[] block : layout) {
+                for (int j = 0; j < block[1]; j++) {
+                    int address = (block[0] + j) & 0xFFFF;
+                    int at = info.slotAt(address);
+                    if (at < 0) {
+                        return false;
+                    }
+                    int line = buf.getInt(at);
+                    if (line >= 0 && (line < firstLine || line >= firstLine + lineRoom)) {
+                        return false;
+                    }
+                    slotPositions.put(address, at);
+                }
+            }
+            if (!slotPositions.keySet().containsAll(fresh.at.keySet())) {
+                return false;
+            }
+
+            for (Map.Entry<Integer, Integer> slot : slotPositions.entrySet()) {
+                Integer line = fresh.at.get(slot.getKey());
+                buf.putInt(slot.getValue(), line == null? -1 : firstLine + line);
+            }
+            int offset = blobFrom;
+            for (int j = 0; j < lineRoom; j++) {
+                buf.putInt(info.offsetsAt + (firstLine + j) * 4, offset);
+                if (j < fresh.texts.size()) {
+                    buf.put(info.blobAt + offset, fresh.texts.get(j));
+                    offset += fresh.texts.get(j).length;
+                } else if (offset < blobTo) {
+                    buf.put(info.blobAt + offset, spaces(blobTo - offset));
+                    offset = blobTo;
+                }
+            }
+            buf.force();
+        }
+        return true;
+    }
+
+    private static byte[] spaces(int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte)' ');
+        return bytes;
+    }
+
+    private static void writeHeader(DataOutputStream out, int ranges, int slots, int lines, int blobLength) throws IOException {
+        out.write(MAGIC);
+        out.writeInt(ranges);
+        out.writeInt(slots);
+        out.writeInt(lines);
+        out.writeInt(blobLength);
+    }
+}
@@ -1,8 +1,14 @@
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.function.Function;
@@ -18,7 +24,8 @@ import java.util.Optional;
  * `bubba.dis.asm' which attempts to decode instructions into assembly syntax
  * if possible. Pass `-x' on the command line to write hex .fills for words
  * that can't be decoded as instructions instead of writing their
- * interpretation in 16-bit two's complement.
+ * interpretation in 16-bit two's complement. Pass - instead of a filename to
+ * disassemble stdin (a plain .obj, or a stream from LC3asm -stream) to stdout.
  *
  * Author: Austin J. Adams IV, B.S., M.S., B.F.D
  */
@@ -38,13 +45,29 @@ public class LC3disasm {
         }
         final boolean useHexFills = hexFillsArg;
 
-        String filebase = objfilename.substring(0, objfilename.lastIndexOf('.')); // get the root filename without any extensions
-        File objFile = new File(objfilename);
-        File disasmFile = new File(filebase + ".dis.asm");
-
-        List<OrigEndWindow> origBlocks = parseObjectFile(objFile);
+        boolean stdio = objfilename.equals("-");
+        List<OrigEndWindow> origBlocks;
+        File disasmFile = null;
+        if (stdio) {
+            // a plain .obj or a stream (see LC3stream) on stdin, disassembly on stdout
+            try {
+                byte[] objBytes = LC3stream.find(LC3stream.read(System.in, "stdin.obj"), ".obj");
+                if (objBytes == null) {
+                    System.err.println("No object file on stdin");
+                    System.exit(1);
+                }
+                origBlocks = parseObjectFile(new InputStreamReader(new ByteArrayInputStream(objBytes), StandardCharsets.UTF_8));
+            } catch (IOException err) {
+                // Rethrow as unchecked (Thank you Mr. Dr. Gosling sir)
+                throw new RuntimeException(err);
+            }
+        } else {
+            String filebase = objfilename.substring(0, objfilename.lastIndexOf('.')); // get the root filename without any extensions
+            disasmFile = new File(filebase + ".dis.asm");
+            origBlocks = parseObjectFile(new File(objfilename));
+        }
 
-        try (PrintStream dis = new PrintStream(disasmFile)) {
+        try (PrintStream dis = stdio? new PrintStream(new FileOutputStream(FileDescriptor.out)) : new PrintStream(disasmFile)) {
             boolean first = true;
             for (OrigEndWindow window : origBlocks) {
                 if (!first) {
@@ -66,15 +89,23 @@ public class LC3disasm {
             throw new RuntimeException(err);
         }
 
-        System.out.println("Wrote disassembly to " + disasmFile.getPath());
+        if (!stdio) System.out.println("Wrote disassembly to " + disasmFile.getPath());
+    }
+
+    static List<OrigEndWindow> parseObjectFile(File objFile) {
+        try (FileReader fr = new FileReader(objFile)) {
+            return parseObjectFile(fr);
+        } catch (IOException err) {
+            // Rethrow as unchecked (Thank you Mr. Dr. Gosling sir)
+            throw new RuntimeException(err);
+        }
     }
 
-    private static List<OrigEndWindow> parseObjectFile(File objFile) {
+    static List<OrigEndWindow> parseObjectFile(Reader reader) {
         final String ORIG = "ORIG: ";
         List<OrigEndWindow> windows = new ArrayList<OrigEndWindow>();
 
-        try (FileReader fr = new FileReader(objFile);
-             BufferedReader br = new BufferedReader(fr)) {
+        try (BufferedReader br = new BufferedReader(reader)) {
             String line;
             while ((line = br.readLine()) != null) {
                 line = line.trim();
@@ -0,0 +1,690 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just-in-time compiler for the LC-3 simulator. Instead of interpreting every
+ * instruction, it finds blocks of code that get executed a lot, translates
+ * each one into JVM bytecode for a hidden class with the LC-3 registers in
+ * local variables, and lets the JVM's own JIT take it from there.
+ *
+ * A block is a straight line of instructions starting wherever execution
+ * got hot and running until an unconditional jump (BRnzp, JMP, RET, JSR).
+ * Conditional branches that are taken just leave the block early.
+ *
+ * Blocks are cached by start address. Storing into a word that's part of a
+ * compiled block throws that block away, and that word is interpreted from
+ * then on, so self-modifying code keeps working. If a block's own store
+ * does that, the block bails out right after the store. So does a load or
+ * store that stops the machine by touching a device register (KBSR once the
+ * input runs out, or MCR). TRAP and RTI aren't compiled at all; the
+ * interpreter handles those.
+ *
+ * Use it with `java LC3sim -jit bubba.obj', or run `java LC3jit bubba.obj' to
+ * race it against the plain interpreter.
+ */
+public class LC3jit extends LC3sim {
+    // what a compiled block looks like to the rest of the simulator. run()
+    // returns the next PC in bits 0-15, the condition codes in bits 16-18,
+    // and how many instructions it executed in bits 19 and up
+    interface Block {
+        int run(LC3jit jit, int[] reg, int cc);
+    }
+
+    static final int MAX_BLOCK_LEN = 64; // longest block we'll bother compiling
+    static final int HOT_THRESHOLD = 16; // times a block must start executing before we compile it
+
+    Block[] blocks = new Block[MEM_SIZE]; // compiled block starting at each address, if any
+    int[] blockLength = new int[MEM_SIZE]; // number of instructions in blocks[addr]
+    int[] heat = new int[MEM_SIZE]; // how many times we've started interpreting at each address
+    int[] coveredBy = new int[MEM_SIZE]; // how many compiled blocks contain each address
+    boolean[] selfModified = new boolean[MEM_SIZE]; // words that got overwritten while compiled
+    boolean invalidated; // set when a store throws away a compiled block
+    int compiledBlocks;
+
+    public static void main(String[] args) {
+        String objfilename = null;
+        long budget = Long.MAX_VALUE;
+        if (args.length == 1) {
+            objfilename = args[0];
+        } else if (args.length == 3 && args[0].equals("-n")) {
+            budget = Long.parseLong(args[1]);
+            objfilename = args[2];
+        } else {
+            System.err.println("usage: java LC3jit [-n <max instructions>] <path to object file>");
+            System.err.println();
+            System.err.println("Runs the program with the interpreter and then with the JIT and compares the speed");
+            System.exit(1);
+        }
+        List<LC3disasm.OrigEndWindow> blocks = readObjectFile(new File(objfilename));
+
+        // run each engine a few times so the JVM warms up too, and keep the best
+        String[] names = {"interpreter", "jit"};
+        LC3sim[] last = new LC3sim[names.length];
+        for (int e = 0; e < names.length; e++) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                LC3sim sim = e == 0? new LC3sim() : new LC3jit();
+                sim.out = new java.io.PrintStream(java.io.OutputStream.nullOutputStream());
+                sim.load(blocks);
+                long start = System.nanoTime();
+                sim.run(budget);
+                best = Math.min(best, System.nanoTime() - start);
+                last[e] = sim;
+            }
+            System.out.printf("%-12s %d instructions, best %.3f s (%.1f million per second)%n",
+                              names[e], last[e].instructions, best / 1e9, last[e].instructions * 1e3 / Math.max(best, 1));
+        }
+        System.out.println("jit compiled " + ((LC3jit)last[1]).compiledBlocks + " blocks");
+        if (!last[0].dumpRegisters().equals(last[1].dumpRegisters())) {
+            System.out.println("final states differ!");
+            System.out.println("interpreter: " + last[0].dumpRegisters());
+            System.out.println("jit:         " + last[1].dumpRegisters());
+            System.exit(1);
+        }
+    }
+
+    @Override
+    long run(long budget) {
+        if (profile != null || coverage != null || trace != null) {
+            // compiled blocks don't count anything, so just interpret
+            return super.run(budget);
+        }
+        // Same trick as the interpreter: keep the hot stuff in locals
+        Block[] blocks = this.blocks;
+        int[] blockLength = this.blockLength;
+        int[] reg = this.reg;
+        int pc = this.pc;
+        int cc = this.cc;
+        long n = 0;
+        long compiled = 0; // instructions run by compiled blocks
+
+        while (n < budget && !halted) {
+            Block block = blocks[pc];
+            int len = blockLength[pc];
+            if (block != null && budget - n >= len) {
+                invalidated = false;
+                int result = block.run(this, reg, cc);
+                pc = result & 0xFFFF;
+                cc = result >>> 16 & 0x7;
+                n += result >>> 19;
+                compiled += result >>> 19;
+                continue;
+            }
+
+            // slow path: interpret one instruction, and compile the block
+            // starting here if it's been run enough
+            if (block == null && !selfModified[pc] && ++heat[pc] == HOT_THRESHOLD && compile(pc) != null) {
+                continue;
+            }
+            this.pc = pc;
+            this.cc = cc;
+            n += super.run(1);
+            pc = this.pc;
+            cc = this.cc;
+        }
+
+        this.pc = pc;
+        this.cc = cc;
+        this.instructions += compiled;
+        return n;
+    }
+
+    @Override
+    void write(int addr, int value) {
+        super.write(addr, value);
+        if (coveredBy[addr] > 0) {
+            // somebody wrote over compiled code. never compile this word again
+            selfModified[addr] = true;
+            invalidate(addr);
+        }
+    }
+
+    @Override
+    void pageRestored(int p) {
+        // whatever we compiled here might not be the code that's here now
+        for (int addr = p << PAGE_SHIFT; addr < (p + 1) << PAGE_SHIFT; addr++) {
+            if (coveredBy[addr] > 0) {
+                invalidate(addr);
+            }
+            heat[addr] = 0;
+            selfModified[addr] = false;
+        }
+    }
+
+    /**
+     * Throws away every block that includes addr
+     */
+    void invalidate(int addr) {
+        for (int start = addr; start > addr - MAX_BLOCK_LEN && coveredBy[addr] > 0; start--) {
+            int s = start & 0xFFFF;
+            if (blocks[s] != null && ((addr - s) & 0xFFFF) < blockLength[s]) {
+                for (int i = 0; i < blockLength[s]; i++) {
+                    coveredBy[(s + i) & 0xFFFF]--;
+                }
+                blocks[s] = null;
+                blockLength[s] = 0;
+                invalidated = true;
+            }
+        }
+    }
+
+    /**
+     * Finds the basic block starting at start, compiles it and caches it.
+     * Returns null if there's nothing worth compiling there (like a TRAP)
+     */
+    Block compile(int start) {
+        // find the end of the block
+        List<Integer> words = new ArrayList<>();
+        for (int addr = start; words.size() < MAX_BLOCK_LEN; addr = (addr + 1) & 0xFFFF) {
+            if (selfModified[addr] || (addr < start && !words.isEmpty())) {
+                break; // don't compile code that's been overwritten, or wrap around memory
+            }
+            int word = read(addr);
+            int opcode = word >> 12 & 0xf;
+            if (opcode == 0b1111 || opcode == 0b1000 || opcode == 0b1101) {
+                break; // TRAP, RTI and illegal opcodes are the interpreter's problem
+            }
+            words.add(word);
+            if (endsBlock(word)) {
+                break;
+            }
+        }
+        if (words.isEmpty()) {
+            selfModified[start] = true; // close enough: never try compiling here again
+            return null;
+        }
+
+        Block block;
+        try {
+            byte[] classBytes = new BlockCompiler(start, words).compile();
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+            block = (Block)lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable err) {
+            // Rethrow as unchecked (Thank you Mr. Dr. Gosling sir)
+            throw new RuntimeException(err);
+        }
+
+        blocks[start] = block;
+        blockLength[start] = words.size();
+        for (int i = 0; i < words.size(); i++) {
+            coveredBy[(start + i) & 0xFFFF]++;
+        }
+        compiledBlocks++;
+        return block;
+    }
+
+    static boolean endsBlock(int word) {
+        switch (word >> 12 & 0xf) {
+            case 0b0000: // BRnzp (the others might fall through)
+                return (word >> 9 & 0x7) == 0x7;
+            case 0b1100: // JMP/RET
+            case 0b0100: // JSR/JSRR
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Hand-rolls the class file for one block, since the JDK doesn't come
+     * with a bytecode library (at least not one we're allowed to use). The
+     * class is version 49 (Java 5) so the JVM doesn't demand stack map
+     * frames, which would be a whole other nightmare. The generated method
+     * is equivalent to:
+     *
+     *     public int run(LC3jit jit, int[] reg, int cc) {
+     *         int r0 = reg[0], ..., r7 = reg[7];
+     *         // one chunk of code per instruction, like:
+     *         r1 = (char)(r1 + -1); cc = LC3sim.setcc(r1);
+     *         if ((cc & 0b001) != 0) {
+     *             reg[1] = r1;
+     *             return executed << 19 | cc << 16 | branchTarget;
+     *         }
+     *         ...
+     *         reg[0] = r0; ...; reg[7] = r7;
+     *         return executed << 19 | cc << 16 | nextPc;
+     *     }
+     */
+    static class BlockCompiler {
+        // JVM opcodes we need
+        static final int ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, ILOAD = 0x15, ISTORE = 0x36, GETFIELD = 0xb4,
+                         IALOAD = 0x2e, IASTORE = 0x4f, ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11,
+                         LDC_W = 0x13, IADD = 0x60, IAND = 0x7e, IXOR = 0x82, ISHL = 0x78, IOR = 0x80,
+                         I2C = 0x92, DUP = 0x59, IFEQ = 0x99, IRETURN = 0xac, RETURN = 0xb1,
+                         INVOKEVIRTUAL = 0xb6, INVOKESTATIC = 0xb8, INVOKESPECIAL = 0xb7;
+
+        // local variable slots in the generated run() method
+        static final int SIM = 1, REG = 2, CC = 3, R0 = 4, TEMP = 12, MAX_LOCALS = 13;
+
+        final int start;
+        final List<Integer> words;
+        final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        final List<byte[]> constants = new ArrayList<>();
+        final Map<String, Integer> constantIndex = new HashMap<>();
+        boolean[] written = new boolean[8]; // registers the block writes, which need storing back
+
+        BlockCompiler(int start, List<Integer> words) {
+            this.start = start;
+            this.words = words;
+        }
+
+        byte[] compile() throws IOException {
+            String name = String.format("LC3jit$Block%04x", start);
+            int thisClass = classConstant(name);
+            int superClass = classConstant("java/lang/Object");
+            int iface = classConstant("LC3jit$Block");
+            int codeAttr = utf8("Code");
+            int initName = utf8("<init>");
+            int initType = utf8("()V");
+            int objectInit = methodConstant(0x0a, "java/lang/Object", "<init>", "()V");
+            int runName = utf8("run");
+            int runType = utf8("(LLC3jit;[II)I");
+
+            // figure out which instructions' condition codes anybody looks
+            // at. condition codes are live anywhere the block might exit,
+            // since whatever runs next might branch on them
+            boolean[] needsCC = new boolean[words.size()];
+            boolean live = true;
+            for (int i = words.size() - 1; i >= 0; i--) {
+                int opcode = words.get(i) >> 12 & 0xf;
+                if (opcode == 0b0000 || opcode == 0b0011 || opcode == 0b1011 || opcode == 0b0111) {
+                    live = true;
+                } else if (setsCC(opcode)) {
+                    // (a load from a device register might leave right after)
+                    needsCC[i] = live || touchesDevice(words.get(i), (start + i) & 0xFFFF);
+                    live = false;
+                }
+            }
+
+            for (int r = 0; r < 8; r++) {
+                op(ALOAD_2);
+                pushInt(r);
+                op(IALOAD);
+                op(ISTORE, R0 + r);
+            }
+            boolean exited = false;
+            for (int i = 0; i < words.size(); i++) {
+                exited = emitInstruction(words.get(i), (start + i) & 0xFFFF, i + 1, needsCC[i]);
+            }
+            if (!exited) {
+                exitTo((start + words.size()) & 0xFFFF, words.size());
+            }
+            byte[] runCode = code.toByteArray();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0); // minor version
+            out.writeShort(49); // major version: Java 5
+            out.writeShort(constants.size() + 1);
+            for (byte[] constant : constants) {
+                out.write(constant);
+            }
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1); // interfaces
+            out.writeShort(iface);
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+
+            // the constructor, which just calls Object()
+            out.writeShort(0x0001); // public
+            out.writeShort(initName);
+            out.writeShort(initType);
+            out.writeShort(1); // attributes
+            byte[] initCode = {(byte)ALOAD_0, (byte)INVOKESPECIAL, (byte)(objectInit >> 8), (byte)objectInit, (byte)RETURN};
+            writeCode(out, codeAttr, 1, 1, initCode);
+
+            // run()
+            out.writeShort(0x0001); // public
+            out.writeShort(runName);
+            out.writeShort(runType);
+            out.writeShort(1); // attributes
+            writeCode(out, codeAttr, 8, MAX_LOCALS, runCode);
+
+            out.writeShort(0); // class attributes
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private static void writeCode(DataOutputStream out, int codeAttr, int maxStack, int maxLocals, byte[] code) throws IOException {
+            out.writeShort(codeAttr);
+            out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        }
+
+        // might this load or store hit a device register (and so stop the
+        // machine, like KBSR at the end of the input or clearing MCR)?
+        static boolean touchesDevice(int word, int addr) {
+            int target = (addr + 1 + LC3disasm.Instruction.sext(word & 0x1ff, 9)) & 0xFFFF;
+            switch (word >> 12 & 0xf) {
+                case 0b0010: // LD
+                case 0b0011: // ST
+                    return target >= LC3sim.IO_PAGE;
+                case 0b1010: // LDI
+                case 0b1011: // STI
+                case 0b0110: // LDR
+                case 0b0111: // STR
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        static boolean setsCC(int opcode) {
+            return opcode == 0b0001 || opcode == 0b0101 || opcode == 0b1001
+                   || opcode == 0b0010 || opcode == 0b1010 || opcode == 0b0110;
+        }
+
+        /**
+         * Emits the bytecode for one LC-3 instruction at addr, which is
+         * instruction number executed in the block (counting from 1).
+         * Returns true if it always leaves the block
+         */
+        private boolean emitInstruction(int word, int addr, int executed, boolean needsCC) {
+            int opcode = word >> 12 & 0xf;
+            int a = word >> 9 & 0x7;
+            int b = word >> 6 & 0x7;
+            int nextPc = (addr + 1) & 0xFFFF;
+            int pcOffset9 = (nextPc + LC3disasm.Instruction.sext(word & 0x1ff, 9)) & 0xFFFF;
+
+            switch (opcode) {
+                case 0b0001: // ADD
+                case 0b0101: // AND
+                    op(ILOAD, R0 + b);
+                    if ((word & 0x1 << 5) != 0) {
+                        pushInt(LC3disasm.Instruction.sext(word & 0x1f, 5));
+                    } else {
+                        op(ILOAD, R0 + (word & 0x7));
+                    }
+                    op(opcode == 0b0001? IADD : IAND);
+                    op(I2C); // the same as & 0xFFFF
+                    setRegister(a, needsCC);
+                    return false;
+                case 0b1001: // NOT
+                    op(ILOAD, R0 + b);
+                    pushInt(-1);
+                    op(IXOR);
+                    op(I2C);
+                    setRegister(a, needsCC);
+                    return false;
+                case 0b0010: // LD
+                    op(ALOAD_1);
+                    pushInt(pcOffset9);
+                    read();
+                    setRegister(a, needsCC);
+                    bailOutIfHalted(word, addr, executed);
+                    return false;
+                case 0b1010: // LDI
+                    op(ALOAD_1);
+                    op(ALOAD_1);
+                    pushInt(pcOffset9);
+                    read();
+                    read();
+                    setRegister(a, needsCC);
+                    bailOutIfHalted(word, addr, executed);
+                    return false;
+                case 0b0110: // LDR
+                    op(ALOAD_1);
+                    op(ILOAD, R0 + b);
+                    pushInt(LC3disasm.Instruction.sext(word & 0x3f, 6));
+                    op(IADD);
+                    op(I2C);
+                    read();
+                    setRegister(a, needsCC);
+                    bailOutIfHalted(word, addr, executed);
+                    return false;
+                case 0b1110: // LEA
+                    pushInt(pcOffset9);
+                    op(ISTORE, R0 + a);
+                    written[a] = true;
+                    return false;
+                case 0b0011: // ST
+                    op(ALOAD_1);
+                    pushInt(pcOffset9);
+                    op(ILOAD, R0 + a);
+                    write();
+                    bailOutIfInvalidated(nextPc, executed);
+                    bailOutIfHalted(word, addr, executed);
+                    return false;
+                case 0b1011: // STI
+                    op(ALOAD_1);
+                    op(ALOAD_1);
+                    pushInt(pcOffset9);
+                    read();
+                    op(ILOAD, R0 + a);
+                    write();
+                    bailOutIfInvalidated(nextPc, executed);
+                    bailOutIfHalted(word, addr, executed);
+                    return false;
+                case 0b0111: // STR
+                    op(ALOAD_1);
+                    op(ILOAD, R0 + b);
+                    pushInt(LC3disasm.Instruction.sext(word & 0x3f, 6));
+                    op(IADD);
+                    op(I2C);
+                    op(ILOAD, R0 + a);
+                    write();
+                    bailOutIfInvalidated(nextPc, executed);
+                    bailOutIfHalted(word, addr, executed);
+                    return false;
+                case 0b0000: // BR
+                    if (a == 0) {
+                        return false; // NOP
+                    }
+                    if (a == 0b111) {
+                        exitTo(pcOffset9, executed);
+                        return true;
+                    }
+                    op(ILOAD, CC);
+                    pushInt(a);
+                    op(IAND);
+                    int branch = skipIfZero();
+                    exitTo(pcOffset9, executed);
+                    patchSkip(branch);
+                    return false;
+                case 0b1100: // JMP/RET
+                    op(ILOAD, R0 + b);
+                    op(ISTORE, TEMP);
+                    exitTo(-1, executed);
+                    return true;
+                case 0b0100: // JSR/JSRR
+                    if ((word >> 11 & 0x1) == 1) {
+                        pushInt((nextPc + LC3disasm.Instruction.sext(word & 0x7ff, 11)) & 0xFFFF);
+                    } else {
+                        op(ILOAD, R0 + b);
+                    }
+                    op(ISTORE, TEMP);
+                    pushInt(nextPc);
+                    op(ISTORE, R0 + 7);
+                    written[7] = true;
+                    exitTo(-1, executed);
+                    return true;
+                default:
+                    throw new IllegalStateException("Can't compile opcode " + opcode);
+            }
+        }
+
+        // stores the value on top of the stack in register r, setting the
+        // condition codes from it if anybody cares
+        private void setRegister(int r, boolean needsCC) {
+            if (needsCC) {
+                op(DUP);
+                op(INVOKESTATIC, methodConstant(0x0a, "LC3sim", "setcc", "(I)I"));
+                op(ISTORE, CC);
+            }
+            op(ISTORE, R0 + r);
+            written[r] = true;
+        }
+
+        private void read() {
+            op(INVOKEVIRTUAL, methodConstant(0x0a, "LC3jit", "read", "(I)I"));
+        }
+
+        private void write() {
+            op(INVOKEVIRTUAL, methodConstant(0x0a, "LC3jit", "write", "(II)V"));
+        }
+
+        // leaves the block if the store we just did clobbered compiled code,
+        // since it might have been our own
+        private void bailOutIfInvalidated(int nextPc, int executed) {
+            bailOutIfSet("invalidated", nextPc, executed);
+        }
+
+        // leaves the block if the load or store at addr stopped the machine,
+        // so nothing runs after that (just like in the interpreter)
+        private void bailOutIfHalted(int word, int addr, int executed) {
+            if (touchesDevice(word, addr)) {
+                bailOutIfSet("halted", (addr + 1) & 0xFFFF, executed);
+            }
+        }
+
+        private void bailOutIfSet(String field, int nextPc, int executed) {
+            op(ALOAD_1);
+            op(GETFIELD, fieldConstant("LC3jit", field, "Z"));
+            int branch = skipIfZero();
+            exitTo(nextPc, executed);
+            patchSkip(branch);
+        }
+
+        // emits an IFEQ with a placeholder offset and returns where it is
+        private int skipIfZero() {
+            int branch = code.size();
+            op(IFEQ);
+            code.write(0);
+            code.write(0);
+            return branch;
+        }
+
+        // points the IFEQ at branch to wherever we are now
+        private void patchSkip(int branch) {
+            int offset = code.size() - branch;
+            byte[] soFar = code.toByteArray();
+            soFar[branch + 1] = (byte)(offset >> 8);
+            soFar[branch + 2] = (byte)offset;
+            code.reset();
+            code.write(soFar, 0, soFar.length);
+        }
+
+        // stores the registers back into reg[] and returns. nextPc of -1
+        // means the next PC is in the TEMP local
+        private void exitTo(int nextPc, int executed) {
+            for (int r = 0; r < 8; r++) {
+                if (written[r]) {
+                    op(ALOAD_2);
+                    pushInt(r);
+                    op(ILOAD, R0 + r);
+                    op(IASTORE);
+                }
+            }
+            op(ILOAD, CC);
+            pushInt(16);
+            op(ISHL);
+            pushInt(executed << 19);
+            op(IOR);
+            if (nextPc < 0) {
+                op(ILOAD, TEMP);
+            } else {
+                pushInt(nextPc);
+            }
+            op(IOR);
+            op(IRETURN);
+        }
+
+        private void op(int opcode) {
+            code.write(opcode);
+        }
+
+        private void op(int opcode, int operand) {
+            code.write(opcode);
+            if (opcode == ILOAD || opcode == ISTORE) {
+                code.write(operand);
+            } else {
+                code.write(operand >> 8);
+                code.write(operand);
+            }
+        }
+
+        private void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                code.write(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.write(SIPUSH);
+                code.write(value >> 8);
+                code.write(value);
+            } else {
+                op(LDC_W, constant("I" + value, 3, out -> out.writeInt(value)));
+            }
+        }
+
+        // constant pool plumbing
+
+        interface ConstantWriter {
+            void write(DataOutputStream out) throws IOException;
+        }
+
+        private int constant(String key, int tag, ConstantWriter writer) {
+            Integer index = constantIndex.get(key);
+            if (index != null) {
+                return index;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeByte(tag);
+                writer.write(out);
+            } catch (IOException err) {
+                // Can't happen when writing to a byte array
+                throw new RuntimeException(err);
+            }
+            constants.add(bytes.toByteArray());
+            constantIndex.put(key, constants.size());
+            return constants.size();
+        }
+
+        private int utf8(String str) {
+            return constant("U" + str, 1, out -> out.writeUTF(str));
+        }
+
+        private int classConstant(String name) {
+            int nameIndex = utf8(name);
+            return constant("C" + name, 7, out -> out.writeShort(nameIndex));
+        }
+
+        private int fieldConstant(String owner, String name, String type) {
+            return methodConstant(0x09, owner, name, type);
+        }
+
+        // also does fields, since the only difference is the tag
+        private int methodConstant(int tag, String owner, String name, String type) {
+            int ownerIndex = classConstant(owner);
+            int nameIndex = utf8(name);
+            int typeIndex = utf8(type);
+            int nameAndType = constant("N" + name + type, 12, out -> {
+                out.writeShort(nameIndex);
+                out.writeShort(typeIndex);
+            });
+            return constant("M" + owner + name + type, tag, out -> {
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+    }
+}
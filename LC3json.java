@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the tools that speak it (LC3lsp reads and writes it,
+ * LC3batch, LC3lockstep and LC3asm -json write it): objects become Maps,
+ * arrays Lists, numbers Longs or Doubles
+ */
+public class LC3json {
+    private final String text;
+    private int pos;
+
+    private LC3json(String text) {
+        this.text = text;
+    }
+
+    static Object parse(String text) {
+        LC3json json = new LC3json(text);
+        Object value = json.value();
+        json.space();
+        if (json.pos != text.length()) {
+            throw json.error("junk after the end");
+        }
+        return value;
+    }
+
+    private Object value() {
+        space();
+        if (pos >= text.length()) {
+            throw error("unexpected end");
+        }
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{': {
+                pos++;
+                Map<String, Object> map = new LinkedHashMap<>();
+                space();
+                if (peek('}')) {
+                    return map;
+                }
+                do {
+                    space();
+                    String key = string();
+                    space();
+                    expect(':');
+                    map.put(key, value());
+                    space();
+                } while (peek(','));
+                expect('}');
+                return map;
+            }
+            case '[': {
+                pos++;
+                List<Object> list = new ArrayList<>();
+                space();
+                if (peek(']')) {
+                    return list;
+                }
+                do {
+                    list.add(value());
+                    space();
+                } while (peek(','));
+                expect(']');
+                return list;
+            }
+            case '"':
+                return string();
+            case 't':
+                word("true");
+                return true;
+            case 'f':
+                word("false");
+                return false;
+            case 'n':
+                word("null");
+                return null;
+            default: {
+                int start = pos;
+                while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                    pos++;
+                }
+                String number = text.substring(start, pos);
+                try {
+                    if (number.contains(".") || number.contains("e") || number.contains("E")) {
+                        return Double.parseDouble(number);
+                    }
+                    return Long.parseLong(number);
+                } catch (NumberFormatException err) {
+                    throw error("bad number");
+                }
+            }
+        }
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (pos >= text.length()) {
+                throw error("unterminated string");
+            }
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            } else if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char escaped = text.charAt(pos++);
+            switch (escaped) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u': sb.append((char)Integer.parseInt(text.substring(pos, pos + 4), 16)); pos += 4; break;
+                default: sb.append(escaped); break;
+            }
+        }
+    }
+
+    private void space() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private boolean peek(char c) {
+        if (pos < text.length() && text.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!peek(c)) {
+            throw error("expected " + c);
+        }
+    }
+
+    private void word(String word) {
+        if (!text.startsWith(word, pos)) {
+            throw error("expected " + word);
+        }
+        pos += word.length();
+    }
+
+    private IllegalArgumentException error(String why) {
+        return new IllegalArgumentException("bad JSON at " + pos + ": " + why);
+    }
+
+    static String write(Object value) {
+        StringBuilder sb = new StringBuilder();
+        write(sb, value);
+        return sb.toString();
+    }
+
+    private static void write(StringBuilder sb, Object value) {
+        if (value == null || value instanceof Boolean || value instanceof Number) {
+            sb.append(value);
+        } else if (value instanceof String) {
+            sb.append(quote((String)value));
+        } else if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                write(sb, String.valueOf(entry.getKey()));
+                sb.append(':');
+                write(sb, entry.getValue());
+            }
+            sb.append('}');
+        } else if (value instanceof List) {
+            sb.append('[');
+            boolean first = true;
+            for (Object element : (List<?>)value) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                write(sb, element);
+            }
+            sb.append(']');
+        } else {
+            throw new IllegalArgumentException("can't write " + value.getClass() + " as JSON");
+        }
+    }
+
+    /**
+     * Quotes and escapes a string for JSON
+     */
+    static String quote(String str) {
+        StringBuilder sb = new StringBuilder(str.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20 || c >= 0x7f) {
+                        sb.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+}
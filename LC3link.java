@@ -2,16 +2,61 @@ import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Scanner;
+import java.util.Set;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.PrintStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Proof of concept linker for the LC-3
  * takes in basenames for the files to be linked together
  * aggregates their symbol tables
  * then reads in each object file and repairs any external values
+ *
+ * The linker also leaves a .linkstate file next to the output object file
+ * remembering what every module looked like. Next time around, if only some
+ * modules changed (and still have the same .ORIG blocks), it patches their
+ * words and any .EXTERNAL fills that moved straight into the existing output
+ * instead of rewriting everything. Each module's part of the .dbgsym (padded
+ * out with blank lines) and of the .dbginfo has room to grow, so its debug
+ * symbols get patched in place too unless they outgrow it. Pass -f to force
+ * a full link
+ *
+ * Any input ending in .lc3a is treated as an archive made by LC3ar. Members of
+ * an archive are only linked in if they define a label that something
+ * already being linked uses .EXTERNALly
+ *
+ * Two modules whose .ORIG blocks overlap are an error (or just a warning with
+ * -w). Next to the output, the linker also writes a .map file listing where
+ * every module ended up and every label sorted by address
+ *
+ * With -gc LABEL, each .ORIG block is treated as a section and only the
+ * sections reachable from the section containing LABEL make it into the
+ * output. LABEL can be an address instead (x3000, say) if that block has no
+ * label to name it by. A section reaches another if it .FILLs a label defined there (or
+ * an .EXTERNAL one), or has a PC-relative instruction pointing into it. Pass
+ * -gc more than once for more roots, like a trap vector table
+ *
+ * For pipes: an input of - reads the modules from stdin, as a stream from
+ * `LC3asm -stream' (see LC3stream), and -o - writes the linked object file
+ * to stdout instead, or all of the .obj, .sym, .dbgsym and .dbginfo as a
+ * stream with -stream. Neither leaves a link state behind
  */
 public class LC3link {
 
@@ -35,13 +80,145 @@ public class LC3link {
         }
     }
 
+    // everything the linker knows about one input object file
+    static class Module {
+        private String filename; // path to the .obj file, or archive.lc3a(member.obj)
+        private String archive; // path to the archive this module came from, null if it's a plain .obj
+        private String hash; // digest of the .obj, .sym and .dbgsym contents
+        private long[] stamp; // sizes and modification times of those three files
+        private List<LC3disasm.OrigEndWindow> blocks; // words of each .ORIG block, null if loaded from a link state
+        private int[][] layout; // {orig, length} of each .ORIG block
+        private Map<String, Integer> definitions = new LinkedHashMap<>(); // labels defined in this module
+        private Map<String, List<Integer>> fills = new LinkedHashMap<>(); // .EXTERNAL label -> addresses to fill
+        private byte[] dbgsym; // contents of the .dbgsym, null if loaded from a link state
+        private long dbgsymLength; // length of the .dbgsym in bytes
+        private long dbgsymRoom; // bytes of the linked .dbgsym it has, padding and all
+        private int lineRoom; // lines of the linked .dbginfo it has (see LC3dbginfo.merge)
+        private byte[] dbginfo; // contents of the .dbginfo (see LC3dbginfo), null if loaded from a link state
+    }
+
     static Map<String, Symbol> symbolTable = new HashMap<>(); // runtime copy of symbol table
-    
-    static Map<Integer, Integer> repairLocations = new HashMap<>();
+    static Map<String, ByteArrayOutputStream> captured; // if not null, output files go in here (by name) instead of on disk
+
+    // repairLocations[address] is the value to write at address instead of
+    // what the object file says, or -1 to leave the word alone
+    static int[] repairLocations = new int[1 << 16];
+
+    // on-disk sizes of one line of the linked object file. every word and
+    // every .ORIG line is fixed-width, so we can seek straight to any word
+    static final int ORIG_LINE_LEN = "ORIG: x0000\n".length();
+    static final int WORD_LINE_LEN = "x0000\n".length();
+
+    static final String LINK_STATE_HEADER = "LC3LINK 2";
+
+    // buffers up everything written to one output file and hands it to the
+    // file's channel a big chunk at a time, instead of making a syscall (and
+    // formatting a string) for every single word
+    static class ChannelWriter implements AutoCloseable {
+        private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] ORIG = "ORIG: ".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] NEWLINE = {(byte)'\n'};
+
+        private final WritableByteChannel channel; // a FileChannel, unless it's going to captured
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+
+        ChannelWriter(File file, boolean truncate) throws IOException {
+            if (captured != null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                captured.put(file.getPath(), bytes);
+                channel = Channels.newChannel(bytes);
+            } else if (truncate) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                           StandardOpenOption.TRUNCATE_EXISTING);
+            } else {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+            }
+        }
+
+        // move to a different spot in the file, for patching
+        void seek(long position) throws IOException {
+            flush();
+            ((FileChannel)channel).position(position);
+        }
+
+        // writes "x1234\n"
+        void writeWord(int word) throws IOException {
+            if (buf.remaining() < WORD_LINE_LEN) {
+                flush();
+            }
+            putHex(word);
+        }
+
+        // writes "ORIG: x1234\n"
+        void writeOrig(int address) throws IOException {
+            if (buf.remaining() < ORIG_LINE_LEN) {
+                flush();
+            }
+            buf.put(ORIG);
+            putHex(address);
+        }
+
+        void write(byte[] bytes) throws IOException {
+            if (buf.remaining() < bytes.length) {
+                flush();
+            }
+            if (buf.remaining() < bytes.length) {
+                // too big to bother buffering
+                ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+                while (wrapped.hasRemaining()) {
+                    channel.write(wrapped);
+                }
+            } else {
+                buf.put(bytes);
+            }
+        }
+
+        // PrintStream-alikes for the human-readable outputs
+        void print(String str) throws IOException {
+            write(str.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void println(String str) throws IOException {
+            print(str);
+            println();
+        }
+
+        void println() throws IOException {
+            write(NEWLINE);
+        }
+
+        void printf(String fmt, Object... args) throws IOException {
+            print(String.format(fmt, args));
+        }
+
+        private void putHex(int word) {
+            buf.put((byte)'x');
+            buf.put(HEX_DIGITS[word >> 12 & 0xf]);
+            buf.put(HEX_DIGITS[word >> 8 & 0xf]);
+            buf.put(HEX_DIGITS[word >> 4 & 0xf]);
+            buf.put(HEX_DIGITS[word & 0xf]);
+            buf.put((byte)'\n');
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
 
     private static void printUsageAndExit() {
         System.err.println("error incorrect inputs. Usage:");
-        System.err.println("java Lc3Link <objfile1> <objfile2> ... <objfile3> [-o <outobjfile>]");
+        System.err.println("java Lc3Link [-f] [-w] [-gc <entrylabel or address>] <objfile1> <objfile2> ... <objfile3> [-o <outobjfile>]");
+        System.err.println("An objfile of - reads a stream from LC3asm -stream on stdin. -o - writes the linked object file to stdout (with -stream, along with its .sym and .dbgsym)");
         System.exit(1);
     }
 
@@ -55,9 +232,25 @@ public class LC3link {
         List<String> objFileNames = new ArrayList<String>();
         String outObjFileName = null;
         boolean justSawDashO = false;
+        boolean forceFullLink = false;
+        boolean overlapsAreWarnings = false;
+        List<String> gcRoots = new ArrayList<String>();
+        boolean justSawDashGc = false;
+        boolean stream = false;
         for (String arg : args) {
             boolean isDashO = arg.equals("-o");
-            if (!justSawDashO && outObjFileName == null && isDashO) {
+            if (justSawDashGc) {
+                gcRoots.add(arg);
+                justSawDashGc = false;
+            } else if (!justSawDashO && arg.equals("-gc")) {
+                justSawDashGc = true;
+            } else if (!justSawDashO && arg.equals("-f")) {
+                forceFullLink = true;
+            } else if (!justSawDashO && arg.equals("-w")) {
+                overlapsAreWarnings = true;
+            } else if (!justSawDashO && arg.equals("-stream")) {
+                stream = true;
+            } else if (!justSawDashO && outObjFileName == null && isDashO) {
                 justSawDashO = true;
             } else if (justSawDashO && outObjFileName == null && !isDashO) {
                 outObjFileName = arg;
@@ -75,115 +268,1033 @@ public class LC3link {
                 outObjFileName = "output.obj";
             }
         }
+        if (objFileNames.isEmpty() || justSawDashGc || (stream && !outObjFileName.equals("-"))) {
+            printUsageAndExit();
+        }
+        try {
+            if (outObjFileName.equals("-")) {
+                // everything goes to stdout, so nothing else can
+                captured = new LinkedHashMap<>();
+                link(objFileNames, "linked.obj", true, overlapsAreWarnings, gcRoots);
+                if (stream) {
+                    List<LC3stream.Frame> frames = new ArrayList<>();
+                    for (String name : new String[] {"linked.obj", "linked.sym", "linked.dbgsym", "linked.dbginfo"}) {
+                        frames.add(new LC3stream.Frame(name, captured.get(name).toByteArray()));
+                    }
+                    LC3stream.write(System.out, frames);
+                } else {
+                    captured.get("linked.obj").writeTo(System.out);
+                    System.out.flush();
+                }
+            } else {
+                link(objFileNames, outObjFileName, forceFullLink, overlapsAreWarnings, gcRoots);
+            }
+        } catch (LinkError err) {
+            System.err.println(err.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Thrown when linking fails
+     */
+    static class LinkError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LinkError(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Links objFileNames into outObjFileName, incrementally if it can. Can be
+     * called over and over (by LC3watch, say), but not from more than one
+     * thread at a time
+     */
+    static void link(List<String> objFileNames, String outObjFileName, boolean forceFullLink, boolean overlapsAreWarnings,
+                     List<String> gcRoots) throws IOException {
         String outObjFileBase = outObjFileName.substring(0, outObjFileName.lastIndexOf('.')); // get the root filename without any extensions
 
-        // go through all the filenames and build the aggregate symbol table
+        // which sections survive garbage collection can change with any edit,
+        // so don't bother trying to patch an old output
+        if (!gcRoots.isEmpty()) {
+            forceFullLink = true;
+        }
+        // neither can modules that came in on stdin, since they're gone now
+        boolean fromStdin = objFileNames.contains("-");
+        if (fromStdin) {
+            forceFullLink = true;
+        }
+        if (!forceFullLink && relinkIncrementally(objFileNames, outObjFileName, outObjFileBase)) {
+            return;
+        }
+
+        List<Module> modules = new ArrayList<>();
+        List<LC3ar.Archive> archives = new ArrayList<>();
         for (String filename : objFileNames) {
-            String filebase = filename.substring(0, filename.lastIndexOf('.')); // get the root filename without any extensions
-            String symbol_filename = filebase + ".sym";
-            File symfile = new File(symbol_filename);
-            Scanner symreader = new Scanner(symfile);
-            symreader.nextLine(); // skip the header line
-            while (symreader.hasNext()) {
-                String[] words = symreader.nextLine().trim().split(" +");
-                String addressStr = words[0];
-                String label = words[1];
-                String externalStr = words[2];
-
-                int address = Integer.parseInt(addressStr.substring(1), 16);
-                boolean external = Integer.parseInt(externalStr) == 1;
-
-                if (!external) {
-                    if (symbolTable.containsKey(label)) {
-                        Symbol sym = symbolTable.get(label);
-                        if (sym.address < 0) {
-                            // no problem, another file using this label
-                            // .EXTERNALly already added a dummy entry to the
-                            // symbol table. fix the address now
-                            sym.address = address;
-                        } else {
-                            System.err.println("Symbol " + label + " defined multiple times");
-                            System.exit(1);
-                        }
-                    } else {
-                        symbolTable.put(label, new Symbol(address, label));
+            if (filename.equals("-")) {
+                modules.addAll(readModules(LC3stream.read(System.in, "stdin.obj")));
+            } else if (filename.endsWith(".lc3a")) {
+                archives.add(LC3ar.Archive.read(new File(filename)));
+            } else {
+                modules.add(loadModule(filename));
+            }
+        }
+        pullArchiveMembers(modules, archives);
+        writeLinked(modules, outObjFileName, overlapsAreWarnings, gcRoots);
+
+        if (captured != null) {
+            return; // nothing on disk to remember or report
+        } else if (gcRoots.isEmpty() && !fromStdin) {
+            writeLinkState(outObjFileName, objFileNames, modules);
+        } else {
+            // the modules are missing the sections we threw away (or
+            // there's nowhere to reload them from), so a link state written
+            // now would be a lie
+            new File(outObjFileBase + ".linkstate").delete();
+        }
+
+        System.out.println("Linked object file written to " + outObjFileName);
+    }
+
+    /**
+     * makes modules out of the files in a stream (see LC3stream): each .obj
+     * with the .sym, .dbgsym and .dbginfo of the same name that come after it
+     */
+    static List<Module> readModules(List<LC3stream.Frame> frames) {
+        List<Module> modules = new ArrayList<>();
+        for (int i = 0; i < frames.size(); i++) {
+            String name = frames.get(i).name;
+            if (!name.endsWith(".obj")) {
+                continue;
+            }
+            String base = name.substring(0, name.length() - ".obj".length());
+            byte[] sym = null;
+            byte[] dbgsym = new byte[0];
+            byte[] dbginfo = null;
+            for (int j = i + 1; j < frames.size() && !frames.get(j).name.endsWith(".obj"); j++) {
+                if (frames.get(j).name.equals(base + ".sym")) {
+                    sym = frames.get(j).contents;
+                } else if (frames.get(j).name.equals(base + ".dbgsym")) {
+                    dbgsym = frames.get(j).contents;
+                } else if (frames.get(j).name.equals(base + ".dbginfo")) {
+                    dbginfo = frames.get(j).contents;
+                }
+            }
+            if (sym == null) {
+                throw new LinkError("No " + base + ".sym to go with " + name + " on stdin (use LC3asm -stream)");
+            }
+            modules.add(parseModule(name, frames.get(i).contents, sym, dbgsym, dbginfo));
+        }
+        return modules;
+    }
+
+    /**
+     * Links modules that never touched the disk (see LC3asm.assembleAndLink)
+     * into outObjFileName. There's nothing to relink incrementally from next
+     * time, so any old link state goes
+     */
+    static void link(List<Module> modules, String outObjFileName) throws IOException {
+        writeLinked(modules, outObjFileName, false, new ArrayList<>());
+        new File(outObjFileName.substring(0, outObjFileName.lastIndexOf('.')) + ".linkstate").delete();
+    }
+
+    /**
+     * A module straight from the assembler: its .ORIG blocks, the labels it
+     * defines, where it .FILLs .EXTERNAL labels, and its .dbgsym and .dbginfo
+     */
+    static Module module(String filename, List<LC3disasm.OrigEndWindow> blocks, Map<String, Integer> definitions,
+                         Map<String, List<Integer>> fills, byte[] dbgsym, byte[] dbginfo) {
+        Module module = new Module();
+        module.filename = filename;
+        module.blocks = blocks;
+        module.layout = new int[blocks.size()][];
+        for (int i = 0; i < blocks.size(); i++) {
+            module.layout[i] = new int[] {blocks.get(i).origAddr, blocks.get(i).words.size()};
+        }
+        module.definitions.putAll(definitions);
+        module.fills.putAll(fills);
+        module.dbgsym = dbgsym;
+        module.dbgsymLength = dbgsym.length;
+        module.dbginfo = dbginfo;
+        return module;
+    }
+
+    /**
+     * checks the modules fit together, then writes the linked .obj, .sym,
+     * .map, .dbgsym and .dbginfo
+     */
+    private static void writeLinked(List<Module> modules, String outObjFileName, boolean overlapsAreWarnings,
+                                    List<String> gcRoots) throws IOException {
+        String outObjFileBase = outObjFileName.substring(0, outObjFileName.lastIndexOf('.')); // get the root filename without any extensions
+        if (!checkOverlaps(modules) && !overlapsAreWarnings) {
+            throw new LinkError("Modules overlap (pass -w to link them anyway)");
+        }
+        if (!gcRoots.isEmpty()) {
+            collectGarbage(modules, gcRoots);
+        }
+        symbolTable = buildSymbolTable(modules);
+
+        fillRepairLocations();
+
+        writeSymbols(outObjFileBase + ".sym");
+        writeLinkMap(outObjFileBase + ".map", modules);
+
+        // go through all the modules and as you go through them, calculate LC
+        // when the LC for a repair location is encountered, use the symbol instead of the value in text
+
+        try (ChannelWriter obj_out = new ChannelWriter(new File(outObjFileName), true)) {
+            for (Module module : modules) {
+                writeModule(obj_out, module);
+            }
+        }
+
+        // concatenate all of the listings from austin's changes for the lc3tools object file converter
+
+        writeDebugSymbols(modules, new File(outObjFileBase + ".dbgsym"), new File(outObjFileBase + ".dbginfo"));
+    }
+
+    /**
+     * writes the linked .dbgsym and .dbginfo, giving each module a quarter
+     * again as much room as it needs in both so relinkIncrementally() can
+     * usually patch its debug symbols in place
+     */
+    private static void writeDebugSymbols(List<Module> modules, File dbgsymFile, File dbginfoFile) throws IOException {
+        try (ChannelWriter dbgsym_out = new ChannelWriter(dbgsymFile, true)) {
+            for (Module module : modules) {
+                module.dbgsymRoom = module.dbgsymLength + module.dbgsymLength / 4 + 64;
+                dbgsym_out.write(module.dbgsym);
+                dbgsym_out.write(blankLines(module.dbgsymRoom - module.dbgsymLength));
+            }
+        }
+        List<byte[]> dbginfos = new ArrayList<>();
+        List<int[][]> layouts = new ArrayList<>();
+        for (Module module : modules) {
+            dbginfos.add(module.dbginfo);
+            layouts.add(module.layout);
+        }
+        int[] lineRooms = new int[modules.size()];
+        byte[] dbginfo = LC3dbginfo.merge(dbginfos, layouts, lineRooms);
+        for (int i = 0; i < modules.size(); i++) {
+            modules.get(i).lineRoom = lineRooms[i];
+        }
+        try (ChannelWriter dbginfo_out = new ChannelWriter(dbginfoFile, true)) {
+            dbginfo_out.write(dbginfo);
+        }
+    }
+
+    private static byte[] blankLines(long length) {
+        byte[] bytes = new byte[(int)length];
+        Arrays.fill(bytes, (byte)'\n');
+        return bytes;
+    }
+
+    /**
+     * records where every external label needs to be written, according to
+     * the current symbolTable
+     */
+    private static void fillRepairLocations() {
+        Arrays.fill(repairLocations, -1);
+        for (Symbol sym : symbolTable.values()) {
+            for (int fillAddress : sym.fillAddresses) {
+                repairLocations[fillAddress & 0xFFFF] = sym.address;
+            }
+        }
+    }
+
+    /**
+     * writes all the .ORIG blocks of a module to the linked object file.
+     * when the LC for a repair location is encountered, use the symbol
+     * instead of the value in the module
+     */
+    private static void writeModule(ChannelWriter obj_out, Module module) throws IOException {
+        for (LC3disasm.OrigEndWindow block : module.blocks) {
+            int lc = block.origAddr;
+            obj_out.writeOrig(lc);
+            for (int word : block.words) {
+                int repair = repairLocations[lc & 0xFFFF];
+                obj_out.writeWord(repair >= 0? repair : word);
+                lc++;
+            }
+        }
+    }
+
+    /**
+     * keeps pulling in archive members that define labels nobody has defined
+     * yet, until there's nothing left that an archive could help with. if two
+     * archives define the same label, the one listed first wins
+     */
+    static void pullArchiveMembers(List<Module> modules, List<LC3ar.Archive> archives) throws IOException {
+        if (archives.isEmpty()) {
+            return;
+        }
+        List<boolean[]> pulled = new ArrayList<>();
+        for (LC3ar.Archive archive : archives) {
+            pulled.add(new boolean[archive.members.size()]);
+        }
+
+        boolean pulledAny = true;
+        while (pulledAny) {
+            pulledAny = false;
+            for (String label : undefinedSymbols(modules)) {
+                for (int i = 0; i < archives.size(); i++) {
+                    Integer member = archives.get(i).index.get(label);
+                    if (member == null) {
+                        continue;
+                    }
+                    if (!pulled.get(i)[member]) {
+                        pulled.get(i)[member] = true;
+                        modules.add(loadMember(archives.get(i), member));
+                        pulledAny = true;
                     }
-                } else { // !!external
-                    Symbol sym;
-                    if (symbolTable.containsKey(label)) {
-                        sym = symbolTable.get(label);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * labels some module uses .EXTERNALly but no module defines
+     */
+    static List<String> undefinedSymbols(List<Module> modules) {
+        Map<String, Boolean> defined = new LinkedHashMap<>();
+        for (Module module : modules) {
+            for (String label : module.fills.keySet()) {
+                defined.putIfAbsent(label, false);
+            }
+        }
+        for (Module module : modules) {
+            for (String label : module.definitions.keySet()) {
+                defined.put(label, true);
+            }
+        }
+        List<String> undefined = new ArrayList<>();
+        for (Map.Entry<String, Boolean> entry : defined.entrySet()) {
+            if (!entry.getValue()) {
+                undefined.add(entry.getKey());
+            }
+        }
+        return undefined;
+    }
+
+    /**
+     * reads the .obj, .sym and .dbgsym (and .dbginfo, if it's there and up
+     * to date) for one module into memory
+     */
+    static Module loadModule(String filename) throws IOException {
+        String filebase = filename.substring(0, filename.lastIndexOf('.')); // get the root filename without any extensions
+        File objfile = new File(filename);
+        File symfile = new File(filebase + ".sym");
+        File dbgsymfile = new File(filebase + ".dbgsym");
+
+        byte[] objBytes = Files.readAllBytes(objfile.toPath());
+        byte[] symBytes = Files.readAllBytes(symfile.toPath());
+        byte[] dbgsymBytes = Files.readAllBytes(dbgsymfile.toPath());
+        File dbginfofile = new File(filebase + ".dbginfo");
+        byte[] dbginfoBytes = null;
+        if (dbginfofile.exists() && dbginfofile.lastModified() >= dbgsymfile.lastModified()) {
+            dbginfoBytes = Files.readAllBytes(dbginfofile.toPath());
+        }
+
+        Module module = parseModule(filename, objBytes, symBytes, dbgsymBytes, dbginfoBytes);
+        module.stamp = stamp(filename);
+        return module;
+    }
+
+    /**
+     * reads one member of an archive into memory
+     */
+    static Module loadMember(LC3ar.Archive archive, int member) throws IOException {
+        byte[][] contents = archive.readMember(member);
+        String filename = archive.file.getPath() + "(" + archive.members.get(member).name + ")";
+        Module module = parseModule(filename, contents[0], contents[1], contents[2], null);
+        module.archive = archive.file.getPath();
+        module.stamp = stamp(module.archive);
+        return module;
+    }
+
+    // dbginfoBytes can be null, and then it gets made from the .dbgsym
+    private static Module parseModule(String filename, byte[] objBytes, byte[] symBytes, byte[] dbgsymBytes, byte[] dbginfoBytes) {
+        Module module = new Module();
+        module.filename = filename;
+        module.hash = hash(objBytes, symBytes, dbgsymBytes);
+        module.blocks = LC3disasm.parseObjectFile(new InputStreamReader(new ByteArrayInputStream(objBytes), StandardCharsets.UTF_8));
+        module.layout = new int[module.blocks.size()][];
+        for (int i = 0; i < module.blocks.size(); i++) {
+            LC3disasm.OrigEndWindow block = module.blocks.get(i);
+            module.layout[i] = new int[] {block.origAddr, block.words.size()};
+        }
+
+        // normalize the line endings so the output .dbgsym is predictable
+        StringBuilder dbgsym = new StringBuilder();
+        for (String line : new String(dbgsymBytes, StandardCharsets.UTF_8).split("\r?\n")) {
+            if (!line.isEmpty()) {
+                dbgsym.append(line).append('\n');
+            }
+        }
+        module.dbgsym = dbgsym.toString().getBytes(StandardCharsets.UTF_8);
+        module.dbgsymLength = module.dbgsym.length;
+        module.dbginfo = dbginfoBytes != null? dbginfoBytes : LC3dbginfo.fromDbgsym(module.dbgsym);
+
+        Scanner symreader = new Scanner(new String(symBytes, StandardCharsets.UTF_8));
+        symreader.nextLine(); // skip the header line
+        while (symreader.hasNext()) {
+            String[] words = symreader.nextLine().trim().split(" +");
+            String addressStr = words[0];
+            String label = words[1];
+            String externalStr = words[2];
+
+            int address = Integer.parseInt(addressStr.substring(1), 16);
+            boolean external = Integer.parseInt(externalStr) == 1;
+
+            if (!external) {
+                module.definitions.put(label, address);
+            } else {
+                module.fills.computeIfAbsent(label, l -> new ArrayList<Integer>()).add(address);
+            }
+        }
+        symreader.close();
+
+        return module;
+    }
+
+    /**
+     * aggregates the symbol tables of all the modules, complaining about
+     * labels defined twice or never defined at all
+     */
+    static Map<String, Symbol> buildSymbolTable(List<Module> modules) {
+        Map<String, Symbol> table = new HashMap<>();
+
+        for (Module module : modules) {
+            for (Map.Entry<String, Integer> def : module.definitions.entrySet()) {
+                String label = def.getKey();
+                if (table.containsKey(label)) {
+                    Symbol sym = table.get(label);
+                    if (sym.address < 0) {
+                        // no problem, another file using this label
+                        // .EXTERNALly already added a dummy entry to the
+                        // symbol table. fix the address now
+                        sym.address = def.getValue();
                     } else {
-                        sym = new Symbol(-1, label);
-                        symbolTable.put(label, sym);
+                        throw new LinkError("Symbol " + label + " defined multiple times");
                     }
-                    sym.fillAddresses.add(address);
+                } else {
+                    table.put(label, new Symbol(def.getValue(), label));
                 }
             }
-            symreader.close();
+            for (Map.Entry<String, List<Integer>> fill : module.fills.entrySet()) {
+                String label = fill.getKey();
+                Symbol sym;
+                if (table.containsKey(label)) {
+                    sym = table.get(label);
+                } else {
+                    sym = new Symbol(-1, label);
+                    table.put(label, sym);
+                }
+                sym.fillAddresses.addAll(fill.getValue());
+            }
         }
 
-        for (Symbol sym : symbolTable.values()) {
+        for (Symbol sym : table.values()) {
             if (sym.address < 0) {
-                System.err.println("Undefined symbol " + sym.label);
-                System.exit(1);
+                throw new LinkError("Undefined symbol " + sym.label);
             }
+        }
 
-            for (int fillAddress : sym.fillAddresses) {
-                repairLocations.put(fillAddress, sym.address);
+        return table;
+    }
+
+    /**
+     * marks every address each module's .ORIG blocks occupy in a 64K-bit
+     * bitmap, printing both module names for every overlap found. returns
+     * false if there were any
+     */
+    static boolean checkOverlaps(List<Module> modules) {
+        long[] occupied = new long[(1 << 16) / 64];
+        boolean ok = true;
+        for (Module module : modules) {
+            for (int[] block : module.layout) {
+                int overlapStart = -1;
+                for (int i = 0; i <= block[1]; i++) {
+                    int address = (block[0] + i) & 0xFFFF;
+                    boolean overlaps = false;
+                    if (i < block[1]) {
+                        long bit = 1L << (address & 63);
+                        overlaps = (occupied[address >> 6] & bit) != 0;
+                        occupied[address >> 6] |= bit;
+                    }
+                    // report each overlapping run of addresses once rather
+                    // than once per word
+                    if (overlaps && overlapStart < 0) {
+                        overlapStart = address;
+                    } else if (!overlaps && overlapStart >= 0) {
+                        System.err.printf("Modules %s and %s overlap at x%04x-x%04x\n",
+                                          ownerOf(modules, module, overlapStart), module.filename,
+                                          overlapStart, (address - 1) & 0xFFFF);
+                        overlapStart = -1;
+                        ok = false;
+                    }
+                }
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * throws away every .ORIG block (section) that can't be reached from the
+     * sections containing the root labels, along with the labels, fills and
+     * debug symbols inside them
+     */
+    static void collectGarbage(List<Module> modules, List<String> roots) {
+        // number every section and remember which section owns each address
+        List<int[]> sections = new ArrayList<>(); // {module index, block index}
+        int[] owner = new int[1 << 16];
+        Arrays.fill(owner, -1);
+        Map<String, Integer> labels = new HashMap<>();
+        List<Set<Integer>> labelAddresses = new ArrayList<>(); // addresses of each module's own labels
+        for (int m = 0; m < modules.size(); m++) {
+            Module module = modules.get(m);
+            for (int b = 0; b < module.layout.length; b++) {
+                for (int i = 0; i < module.layout[b][1]; i++) {
+                    owner[(module.layout[b][0] + i) & 0xFFFF] = sections.size();
+                }
+                sections.add(new int[] {m, b});
+            }
+            labels.putAll(module.definitions);
+            labelAddresses.add(new HashSet<>(module.definitions.values()));
+        }
+
+        boolean[] reachable = new boolean[sections.size()];
+        List<Integer> worklist = new ArrayList<>();
+        for (String root : roots) {
+            int section;
+            if (labels.containsKey(root)) {
+                section = owner[labels.get(root) & 0xFFFF];
+            } else {
+                // not a label, so maybe an address, for a block nobody
+                // bothered to label (like the one at x3000)
+                try {
+                    section = owner[LC3sim.parseAddress(root)];
+                } catch (NumberFormatException nfe) {
+                    throw new LinkError("Undefined symbol " + root);
+                }
+                if (section < 0) {
+                    throw new LinkError("Nothing is linked at " + root);
+                }
+            }
+            if (section >= 0 && !reachable[section]) {
+                reachable[section] = true;
+                worklist.add(section);
+            }
+        }
+
+        while (!worklist.isEmpty()) {
+            int[] section = sections.get(worklist.remove(worklist.size() - 1));
+            Module module = modules.get(section[0]);
+            LC3disasm.OrigEndWindow block = module.blocks.get(section[1]);
+            int start = block.origAddr;
+            int end = start + block.words.size();
+            List<Integer> targets = new ArrayList<>();
+
+            // .EXTERNAL fills in this section reach whoever defines the label
+            for (Map.Entry<String, List<Integer>> fill : module.fills.entrySet()) {
+                for (int fillAddress : fill.getValue()) {
+                    if (fillAddress >= start && fillAddress < end && labels.containsKey(fill.getKey())) {
+                        targets.add(labels.get(fill.getKey()));
+                    }
+                }
+            }
+
+            // we don't know which words are instructions and which are data,
+            // so be conservative: any word that's the address of one of this
+            // module's labels could be a .FILL of that label, and any word
+            // that decodes as a PC-relative instruction could be one
+            for (int i = 0; i < block.words.size(); i++) {
+                int word = block.words.get(i);
+                if (labelAddresses.get(section[0]).contains(word)) {
+                    targets.add(word);
+                }
+                int opcode = word >> 12 & 0xf;
+                int pc = start + i + 1;
+                if ((opcode == 0b0000 && (word >> 9 & 0x7) != 0) || opcode == 0b0010 || opcode == 0b0011
+                        || opcode == 0b1010 || opcode == 0b1011 || opcode == 0b1110) {
+                    targets.add(pc + LC3disasm.Instruction.sext(word & 0x1ff, 9));
+                } else if (opcode == 0b0100 && (word >> 11 & 0x1) == 1) {
+                    targets.add(pc + LC3disasm.Instruction.sext(word & 0x7ff, 11));
+                }
+            }
+
+            for (int target : targets) {
+                int other = owner[target & 0xFFFF];
+                if (other >= 0 && !reachable[other]) {
+                    reachable[other] = true;
+                    worklist.add(other);
+                }
             }
         }
 
-        PrintStream symbols_out = new PrintStream(new File(outObjFileBase + ".sym"));
+        // now actually throw away the unreachable sections. go backwards so
+        // removing a block doesn't renumber the ones we haven't visited yet
+        int removedSections = 0;
+        int removedWords = 0;
+        for (int s = sections.size() - 1; s >= 0; s--) {
+            if (reachable[s]) {
+                continue;
+            }
+            Module module = modules.get(sections.get(s)[0]);
+            int b = sections.get(s)[1];
+            int start = module.layout[b][0];
+            int length = module.layout[b][1];
+
+            module.blocks.remove(b);
+            List<int[]> layout = new ArrayList<>(Arrays.asList(module.layout));
+            layout.remove(b);
+            module.layout = layout.toArray(new int[0][]);
+            module.definitions.values().removeIf(address -> address >= start && address < start + length);
+            for (List<Integer> fillAddresses : module.fills.values()) {
+                fillAddresses.removeIf(address -> address >= start && address < start + length);
+            }
+            module.fills.values().removeIf(List::isEmpty);
+
+            StringBuilder dbgsym = new StringBuilder();
+            for (String line : new String(module.dbgsym, StandardCharsets.UTF_8).split("\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int address = Integer.parseInt(line.substring(1, line.indexOf(':')), 16);
+                if (address < start || address >= start + length) {
+                    dbgsym.append(line).append('\n');
+                }
+            }
+            module.dbgsym = dbgsym.toString().getBytes(StandardCharsets.UTF_8);
+            module.dbgsymLength = module.dbgsym.length;
+            module.dbginfo = LC3dbginfo.fromDbgsym(module.dbgsym);
+
+            removedSections++;
+            removedWords += length;
+        }
+
+        // (with -o -, stdout is the linked output, so the report can't go there)
+        (captured != null? System.err : System.out).println("Garbage collection removed " + removedSections + " of " + sections.size()
+                                                            + " .ORIG blocks (" + removedWords + " words, " + 2 * removedWords + " bytes)");
+    }
+
+    /**
+     * name of the first module before notMe that has address in one of its
+     * .ORIG blocks. only used for error messages, so slow is fine
+     */
+    private static String ownerOf(List<Module> modules, Module notMe, int address) {
+        for (Module module : modules) {
+            if (module == notMe) {
+                break;
+            }
+            for (int[] block : module.layout) {
+                if (((address - block[0]) & 0xFFFF) < block[1]) {
+                    return module.filename;
+                }
+            }
+        }
+        return notMe.filename;
+    }
+
+    /**
+     * symbols sorted by address (and then by name, to break ties
+     * predictably), for readability in print form
+     */
+    private static List<Symbol> sortedSymbols() {
+        List<Symbol> symbols = new ArrayList<>(symbolTable.values());
+        Collections.sort(symbols, (a, b) -> a.address != b.address? Integer.compare(a.address, b.address)
+                                                                  : a.label.compareTo(b.label));
+        return symbols;
+    }
+
+    private static void writeSymbols(String symFilename) throws IOException {
+        ChannelWriter symbols_out = new ChannelWriter(new File(symFilename), true);
         String symbol_fmt = "x%04x              %-10s       %1d\n";
 
         symbols_out.println( "ADDRESS            LABEL            EXTERNAL");
-        for (Symbol s : symbolTable.values()) {
+        for (Symbol s : sortedSymbols()) {
             symbols_out.printf(symbol_fmt, s.address, s.label, 0);
         }
+        symbols_out.close();
+    }
 
-        // open all the input files and as you go through them, calculate LC
-        // when the LC for a repair location is encountered, use the symbol instead of the value in text
+    /**
+     * writes the link map, which looks like:
+     *
+     *     START    END      SIZE    MODULE
+     *     x3000    x300d      14    my_assembly.obj
+     *     x4000    x4001       2    my_library.obj
+     *
+     *     ADDRESS  LABEL            MODULE
+     *     x300c    ANSWER           my_assembly.obj
+     *     x4000    ADDFUNC          my_library.obj
+     */
+    private static void writeLinkMap(String mapFilename, List<Module> modules) throws IOException {
+        List<Object[]> ranges = new ArrayList<>();
+        Map<String, String> definedBy = new HashMap<>();
+        int totalSize = 0;
+        for (Module module : modules) {
+            for (int[] block : module.layout) {
+                ranges.add(new Object[] {block[0], block[1], module.filename});
+                totalSize += block[1];
+            }
+            for (String label : module.definitions.keySet()) {
+                definedBy.put(label, module.filename);
+            }
+        }
+        Collections.sort(ranges, (a, b) -> Integer.compare((int)a[0], (int)b[0]));
 
-        PrintStream obj_out = new PrintStream(new File(outObjFileName));
-        for (String filename : objFileNames) {
-            String obj_filename = filename;
-            File objfile = new File(obj_filename);
-            Scanner objreader = new Scanner(objfile);
-            int lc = 0;
-            while (objreader.hasNext()) {
-                String input = objreader.nextLine().trim().replaceAll(" +", " ");
-                String[] words = input.split(" ");
-                if (words[0].startsWith("ORIG:")) {
-                    lc = Integer.parseInt(words[1].substring(1), 16);
-                    obj_out.printf("ORIG: x%04x\n", lc);
-                } else {
-                    if (repairLocations.containsKey(lc)) {
-                        obj_out.printf("x%04x\n", repairLocations.get(lc));
-                    } else {
-                        obj_out.println(input);
+        ChannelWriter map_out = new ChannelWriter(new File(mapFilename), true);
+        map_out.println("START    END      SIZE    MODULE");
+        for (Object[] range : ranges) {
+            int start = (int)range[0];
+            int size = (int)range[1];
+            map_out.printf("x%04x    x%04x  %6d    %s\n", start, (start + size - 1) & 0xFFFF, size, range[2]);
+        }
+        map_out.printf("%22d    total\n", totalSize);
+        map_out.println();
+        map_out.println("ADDRESS  LABEL            MODULE");
+        for (Symbol s : sortedSymbols()) {
+            map_out.printf("x%04x    %-16s %s\n", s.address, s.label, definedBy.get(s.label));
+        }
+        map_out.close();
+    }
+
+    /**
+     * tries to bring an existing linked output up to date by patching only
+     * the modules that changed since the last link. returns false if that
+     * isn't possible (no link state, different inputs, a module's .ORIG blocks
+     * moved or changed size, ...) and a full link is needed instead
+     */
+    static boolean relinkIncrementally(List<String> objFileNames, String outObjFileName, String outObjFileBase) throws IOException {
+        File stateFile = new File(outObjFileBase + ".linkstate");
+        File objFile = new File(outObjFileName);
+        File symFile = new File(outObjFileBase + ".sym");
+        File dbgsymFile = new File(outObjFileBase + ".dbgsym");
+        File dbginfoFile = new File(outObjFileBase + ".dbginfo");
+        if (!stateFile.exists() || !objFile.exists() || !symFile.exists() || !dbgsymFile.exists() || !dbginfoFile.exists()) {
+            return false;
+        }
+
+        List<Module> cached = readLinkState(stateFile, outObjFileName, objFileNames);
+        if (cached == null) {
+            return false;
+        }
+
+        // if somebody touched the outputs behind our back, don't trust them
+        long[] objOffsets = objOffsets(cached);
+        long[] dbgsymOffsets = new long[cached.size() + 1];
+        for (int i = 0; i < cached.size(); i++) {
+            dbgsymOffsets[i + 1] = dbgsymOffsets[i] + cached.get(i).dbgsymRoom;
+        }
+        if (objFile.length() != objOffsets[cached.size()] || dbgsymFile.length() != dbgsymOffsets[cached.size()]) {
+            return false;
+        }
+
+        // a module only needs hashing if its files look different on disk
+        List<Module> modules = new ArrayList<>();
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < cached.size(); i++) {
+            Module old = cached.get(i);
+            if (Arrays.equals(stamp(old.archive != null? old.archive : old.filename), old.stamp)) {
+                modules.add(old);
+                continue;
+            } else if (old.archive != null) {
+                // which members we'd pull from a changed archive could be
+                // totally different now, so start over
+                return false;
+            }
+            Module fresh = loadModule(old.filename);
+            if (fresh.hash.equals(old.hash)) {
+                old.stamp = fresh.stamp;
+                modules.add(old);
+            } else if (Arrays.deepEquals(fresh.layout, old.layout)) {
+                fresh.dbgsymRoom = old.dbgsymRoom;
+                fresh.lineRoom = old.lineRoom;
+                modules.add(fresh);
+                changed.add(i);
+            } else {
+                return false;
+            }
+        }
+
+        if (changed.isEmpty()) {
+            writeLinkState(outObjFileName, objFileNames, modules);
+            System.out.println("Linked object file " + outObjFileName + " is up to date");
+            return true;
+        }
+
+        // a changed module might need a label that isn't defined anywhere
+        // yet. a full link will either pull it out of an archive or complain
+        if (!undefinedSymbols(modules).isEmpty()) {
+            return false;
+        }
+
+        Map<String, Symbol> oldTable = buildSymbolTable(cached);
+        symbolTable = buildSymbolTable(modules);
+
+        fillRepairLocations();
+
+        try (ChannelWriter obj_out = new ChannelWriter(objFile, false)) {
+            // rewrite the words of every module that changed, filling in
+            // external labels as we go
+            for (int i : changed) {
+                obj_out.seek(objOffsets[i]);
+                writeModule(obj_out, modules.get(i));
+            }
+
+            // then repair the fills in the untouched modules whose labels moved
+            for (Symbol sym : symbolTable.values()) {
+                Symbol old = oldTable.get(sym.label);
+                if (old != null && old.address == sym.address) {
+                    continue;
+                }
+                for (int i = 0; i < modules.size(); i++) {
+                    if (changed.contains(i)) {
+                        continue;
+                    }
+                    List<Integer> fillAddresses = modules.get(i).fills.get(sym.label);
+                    if (fillAddresses == null) {
+                        continue;
                     }
+                    for (int fillAddress : fillAddresses) {
+                        obj_out.seek(wordOffset(modules.get(i), objOffsets[i], fillAddress));
+                        obj_out.writeWord(sym.address);
+                    }
+                }
+            }
+        }
+
+        // the symbol table only needs rewriting if a label came, went or moved
+        boolean symbolsMoved = oldTable.size() != symbolTable.size();
+        for (Symbol sym : symbolTable.values()) {
+            Symbol old = oldTable.get(sym.label);
+            symbolsMoved |= old == null || old.address != sym.address;
+        }
+        if (symbolsMoved) {
+            writeSymbols(outObjFileBase + ".sym");
+            writeLinkMap(outObjFileBase + ".map", modules);
+        }
 
-                    lc++;
+        // a changed module's debug symbols go over its old ones in the .dbgsym
+        // and .dbginfo, as long as they fit in the room it has there
+        boolean fits = true;
+        for (int i : changed) {
+            fits &= modules.get(i).dbgsymLength <= modules.get(i).dbgsymRoom;
+        }
+        if (fits) {
+            try (ChannelWriter dbgsym_out = new ChannelWriter(dbgsymFile, false)) {
+                for (int i : changed) {
+                    Module module = modules.get(i);
+                    dbgsym_out.seek(dbgsymOffsets[i]);
+                    dbgsym_out.write(module.dbgsym);
+                    dbgsym_out.write(blankLines(module.dbgsymRoom - module.dbgsymLength));
+                }
+            }
+            int firstLine = 0;
+            for (int i = 0; i < modules.size() && fits; i++) {
+                Module module = modules.get(i);
+                if (changed.contains(i)) {
+                    fits = LC3dbginfo.patch(dbginfoFile, firstLine, module.lineRoom, module.layout, module.dbginfo);
                 }
+                firstLine += module.lineRoom;
             }
-            objreader.close();
+        }
+        if (!fits) {
+            // one outgrew its room, so lay both files out again. the modules
+            // that didn't change are already in the old .dbgsym
+            byte[] oldDbgsym = Files.readAllBytes(dbgsymFile.toPath());
+            for (int i = 0; i < modules.size(); i++) {
+                Module module = modules.get(i);
+                if (!changed.contains(i)) {
+                    module.dbgsym = Arrays.copyOfRange(oldDbgsym, (int)dbgsymOffsets[i], (int)(dbgsymOffsets[i] + module.dbgsymLength));
+                    module.dbginfo = LC3dbginfo.fromDbgsym(module.dbgsym);
+                }
+            }
+            writeDebugSymbols(modules, dbgsymFile, dbginfoFile);
         }
 
-        // concatenate all of the listings from austin's changes for the lc3tools object file converter
+        writeLinkState(outObjFileName, objFileNames, modules);
 
-        PrintStream dbgsym_out = new PrintStream(new File(outObjFileBase + ".dbgsym"));
+        System.out.println("Relinked " + changed.size() + " of " + modules.size() + " modules into " + outObjFileName);
+        return true;
+    }
+
+    /**
+     * byte offsets in the linked object file where each module starts. the
+     * last entry is the total length of the file
+     */
+    private static long[] objOffsets(List<Module> modules) {
+        long[] offsets = new long[modules.size() + 1];
+        for (int i = 0; i < modules.size(); i++) {
+            long length = 0;
+            for (int[] block : modules.get(i).layout) {
+                length += ORIG_LINE_LEN + (long)block[1] * WORD_LINE_LEN;
+            }
+            offsets[i + 1] = offsets[i] + length;
+        }
+        return offsets;
+    }
+
+    /**
+     * byte offset in the linked object file of the word at address within
+     * module, which starts at moduleOffset
+     */
+    private static long wordOffset(Module module, long moduleOffset, int address) {
+        long offset = moduleOffset;
+        for (int[] block : module.layout) {
+            if (address >= block[0] && address < block[0] + block[1]) {
+                return offset + ORIG_LINE_LEN + (long)(address - block[0]) * WORD_LINE_LEN;
+            }
+            offset += ORIG_LINE_LEN + (long)block[1] * WORD_LINE_LEN;
+        }
+        throw new IllegalStateException("Fill address x" + Integer.toString(address, 16) + " is outside of " + module.filename);
+    }
+
+    /**
+     * sizes and modification times of the .obj, .sym and .dbgsym of a module,
+     * so we can skip hashing modules that obviously haven't changed
+     */
+    private static long[] stamp(String filename) {
+        String filebase = filename.substring(0, filename.lastIndexOf('.')); // get the root filename without any extensions
+        File[] files = {new File(filename), new File(filebase + ".sym"), new File(filebase + ".dbgsym")};
+        long[] stamp = new long[2 * files.length];
+        for (int i = 0; i < files.length; i++) {
+            stamp[2 * i] = files[i].length();
+            stamp[2 * i + 1] = files[i].lastModified();
+        }
+        return stamp;
+    }
+
+    private static String hash(byte[]... contents) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException err) {
+            // Every JVM has to ship SHA-256, so this can't happen
+            throw new RuntimeException(err);
+        }
+        for (byte[] content : contents) {
+            digest.update(content);
+            digest.update((byte)0);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * the link state is plain text so you can look at it. it looks like:
+     *
+     *     LC3LINK 2
+     *     OUTPUT linked.obj
+     *     INPUT my_assembly.obj
+     *     INPUT my_library.obj
+     *     MODULE my_assembly.obj - <sha-256> <.dbgsym length> <.dbgsym room> <.dbginfo lines> <sizes and mtimes...>
+     *     BLOCK x3000 20
+     *     DEF ANSWER x3012
+     *     FILL ADDFUNC x3013
+     *     MODULE my_library.obj ...
+     */
+    private static void writeLinkState(String outObjFileName, List<String> objFileNames, List<Module> modules) throws IOException {
+        String outObjFileBase = outObjFileName.substring(0, outObjFileName.lastIndexOf('.')); // get the root filename without any extensions
+        ChannelWriter state = new ChannelWriter(new File(outObjFileBase + ".linkstate"), true);
+        state.println(LINK_STATE_HEADER);
+        state.println("OUTPUT " + outObjFileName);
         for (String filename : objFileNames) {
-            String filebase = filename.substring(0, filename.lastIndexOf('.')); // get the root filename without any extensions
-            String dbgsym_filename = filebase + ".dbgsym";
-            File dbgsymfile = new File(dbgsym_filename);
-            Scanner dbgsymreader = new Scanner(dbgsymfile);
-            while (dbgsymreader.hasNext()) {
-                String input = dbgsymreader.nextLine();
-                dbgsym_out.println(input);
+            state.println("INPUT " + filename);
+        }
+        for (Module module : modules) {
+            state.print("MODULE " + module.filename + " " + (module.archive != null? module.archive : "-") + " " + module.hash + " " + module.dbgsymLength
+                        + " " + module.dbgsymRoom + " " + module.lineRoom);
+            for (long s : module.stamp) {
+                state.print(" " + s);
+            }
+            state.println();
+            for (int[] block : module.layout) {
+                state.printf("BLOCK x%04x %d\n", block[0], block[1]);
+            }
+            for (Map.Entry<String, Integer> def : module.definitions.entrySet()) {
+                state.printf("DEF %s x%04x\n", def.getKey(), def.getValue());
+            }
+            for (Map.Entry<String, List<Integer>> fill : module.fills.entrySet()) {
+                for (int fillAddress : fill.getValue()) {
+                    state.printf("FILL %s x%04x\n", fill.getKey(), fillAddress);
+                }
             }
-            dbgsymreader.close();
         }
+        state.close();
+    }
 
-        System.out.println("Linked object file written to " + outObjFileName);
+    /**
+     * reads back what writeLinkState() wrote. returns null if the state is
+     * from a different output file or different inputs, or doesn't look like
+     * a link state at all
+     */
+    private static List<Module> readLinkState(File stateFile, String outObjFileName, List<String> objFileNames) throws IOException {
+        List<String> lines = Files.readAllLines(stateFile.toPath());
+        if (lines.size() < 2 + objFileNames.size() || !lines.get(0).equals(LINK_STATE_HEADER) || !lines.get(1).equals("OUTPUT " + outObjFileName)) {
+            return null;
+        }
+        for (int i = 0; i < objFileNames.size(); i++) {
+            if (!lines.get(2 + i).equals("INPUT " + objFileNames.get(i))) {
+                return null;
+            }
+        }
+        lines = lines.subList(2 + objFileNames.size(), lines.size());
+        if (!lines.isEmpty() && lines.get(0).startsWith("INPUT ")) {
+            return null;
+        }
+
+        List<Module> modules = new ArrayList<>();
+        List<int[]> layout = new ArrayList<>();
+        Module module = null;
+        try {
+            for (String line : lines) {
+                String[] words = line.split(" ");
+                switch (words[0]) {
+                    case "MODULE":
+                        if (module != null) {
+                            module.layout = layout.toArray(new int[0][]);
+                        }
+                        module = new Module();
+                        layout = new ArrayList<>();
+                        module.filename = words[1];
+                        module.archive = words[2].equals("-")? null : words[2];
+                        module.hash = words[3];
+                        module.dbgsymLength = Long.parseLong(words[4]);
+                        module.dbgsymRoom = Long.parseLong(words[5]);
+                        module.lineRoom = Integer.parseInt(words[6]);
+                        module.stamp = new long[words.length - 7];
+                        for (int i = 0; i < module.stamp.length; i++) {
+                            module.stamp[i] = Long.parseLong(words[7 + i]);
+                        }
+                        modules.add(module);
+                        break;
+                    case "BLOCK":
+                        layout.add(new int[] {Integer.parseInt(words[1].substring(1), 16), Integer.parseInt(words[2])});
+                        break;
+                    case "DEF":
+                        module.definitions.put(words[1], Integer.parseInt(words[2].substring(1), 16));
+                        break;
+                    case "FILL":
+                        module.fills.computeIfAbsent(words[1], l -> new ArrayList<Integer>())
+                                    .add(Integer.parseInt(words[2].substring(1), 16));
+                        break;
+                    default:
+                        return null;
+                }
+            }
+        } catch (RuntimeException err) {
+            // a mangled link state just means we do a full link
+            return null;
+        }
+        if (module != null) {
+            module.layout = layout.toArray(new int[0][]);
+        }
+        return modules;
     }
 }
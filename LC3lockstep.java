@@ -0,0 +1,684 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Runs the same program on lots of LC-3 machines at once, in lockstep.
+ *
+ * When you run one program on thousands of different inputs (fuzzing
+ * somebody's sumtorial, say), every machine mostly executes the same
+ * instructions, just on different data. So instead of simulating the
+ * machines one after another, this keeps all of their registers and memory
+ * side by side in big flat arrays (register r of machine m lives at
+ * reg[r * n + m], memory word addr at mem[addr * n + m]), decodes each
+ * instruction once, and then applies it to every machine in a tight loop.
+ *
+ * Machines at the same PC travel together as a group. When a branch goes
+ * different ways for different machines, the group splits up, and groups
+ * that end up at the same PC again merge back together. The group with the
+ * lowest PC always goes next, which gets the usual if/else and loop shapes
+ * to reconverge quickly.
+ *
+ * `java LC3lockstep -fuzz R0 1 100 1000 sumtorial.obj' runs 1000 machines,
+ * each with a random number from 1 to 100 in R0 (a memory address like x4000
+ * works too). `-inputs vectors.txt' instead reads one machine per line, where
+ * each line is a list of assignments like `R0=5 x4000=-3'. After running
+ * them in lockstep, it runs them all again one at a time with LC3sim, checks
+ * that every machine ended up the same, and reports both speeds. `-v' prints
+ * how each machine ended up, and `-n <count>' is the per-machine instruction
+ * budget.
+ *
+ * There's no console input in this mode; GETC and IN are errors. Memory is
+ * 64K words times the number of machines, so don't go too crazy.
+ */
+public class LC3lockstep {
+    static final int MEM_SIZE = LC3sim.MEM_SIZE;
+
+    final int n; // number of machines
+    final char[] mem; // mem[addr * n + m] is word addr of machine m
+    final int[] reg; // reg[r * n + m] is register r of machine m
+    final int[] cc; // condition codes of each machine
+    final int[] pc; // where each machine stopped (only valid once it's finished)
+    final long[] instructions; // instructions executed by each machine
+    final boolean[] halted;
+    final String[] error;
+    final ByteArrayOutputStream[] out; // console output, created on first write
+
+    // decoding is shared by every machine, but each machine could in theory
+    // store different things into the same word of code. so any word that
+    // has been stored to gets checked across the group before executing it
+    final int[] decoded = new int[MEM_SIZE];
+    final boolean[] dirty = new boolean[MEM_SIZE];
+
+    final int[] scratch; // per-member next PCs while splitting a group
+
+    /**
+     * A bunch of machines sitting at the same PC. steps counts instructions
+     * executed since the group was formed, which get added to each member's
+     * count once the group breaks up, so the inner loops don't have to
+     */
+    static class Group {
+        int pc;
+        int[] members;
+        int size;
+        long steps;
+        long remaining; // instructions until the busiest member hits the budget
+
+        Group(int pc, int[] members, int size) {
+            this.pc = pc;
+            this.members = members;
+            this.size = size;
+        }
+    }
+
+    LC3lockstep(int n) {
+        this.n = n;
+        mem = new char[MEM_SIZE * n];
+        reg = new int[8 * n];
+        cc = new int[n];
+        Arrays.fill(cc, LC3sim.Z);
+        pc = new int[n];
+        instructions = new long[n];
+        halted = new boolean[n];
+        error = new String[n];
+        out = new ByteArrayOutputStream[n];
+        scratch = new int[n];
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Tedious argument parsing
+        String objfilename = null;
+        String inputsFilename = null;
+        String fuzzLocation = null;
+        int fuzzLo = 0, fuzzHi = 0, fuzzCount = 0;
+        long budget = LC3batch.DEFAULT_BUDGET;
+        boolean verbose = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-n") && i + 1 < args.length) {
+                    budget = Long.parseLong(args[++i]);
+                } else if (args[i].equals("-inputs") && i + 1 < args.length) {
+                    inputsFilename = args[++i];
+                } else if (args[i].equals("-fuzz") && i + 4 < args.length) {
+                    fuzzLocation = args[++i];
+                    fuzzLo = Integer.parseInt(args[++i]);
+                    fuzzHi = Integer.parseInt(args[++i]);
+                    fuzzCount = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-v")) {
+                    verbose = true;
+                } else if (objfilename == null && !args[i].startsWith("-")) {
+                    objfilename = args[i];
+                } else {
+                    objfilename = null;
+                    break;
+                }
+            }
+        } catch (NumberFormatException err) {
+            objfilename = null;
+        }
+        if (objfilename == null || (inputsFilename == null) == (fuzzLocation == null) || fuzzHi < fuzzLo) {
+            System.err.println("usage: java LC3lockstep [-n <max instructions>] [-v] -inputs <vector file> <path to object file>");
+            System.err.println("       java LC3lockstep [-n <max instructions>] [-v] -fuzz <register or address> <min> <max> <count> <path to object file>");
+            System.exit(1);
+        }
+
+        // each machine's starting state is a list of assignments like
+        // R0=5 or x4000=-3 on top of the loaded program
+        List<Map<String, Integer>> vectors = new ArrayList<>();
+        if (inputsFilename != null) {
+            try (BufferedReader br = new BufferedReader(new FileReader(inputsFilename))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    Map<String, Integer> vector = new LinkedHashMap<>();
+                    for (String assignment : line.split("\\s+")) {
+                        String[] sides = assignment.split("=");
+                        if (sides.length != 2) {
+                            System.err.println("Bad assignment `" + assignment + "' in " + inputsFilename + ", expected something like R0=5 or x4000=-3");
+                            System.exit(1);
+                        }
+                        vector.put(sides[0], LC3sim.parseAddress(sides[1]));
+                    }
+                    vectors.add(vector);
+                }
+            }
+        } else {
+            Random random = new Random(2110); // same machines every time
+            for (int i = 0; i < fuzzCount; i++) {
+                Map<String, Integer> vector = new LinkedHashMap<>();
+                vector.put(fuzzLocation, fuzzLo + random.nextInt(fuzzHi - fuzzLo + 1) & 0xFFFF);
+                vectors.add(vector);
+            }
+        }
+        if (vectors.isEmpty()) {
+            System.err.println("No machines to run!");
+            System.exit(1);
+        }
+
+        List<LC3disasm.OrigEndWindow> blocks = LC3sim.readObjectFile(new File(objfilename));
+        int n = vectors.size();
+
+        LC3lockstep lockstep = new LC3lockstep(n);
+        int startPc = lockstep.load(blocks);
+        for (int m = 0; m < n; m++) {
+            for (Map.Entry<String, Integer> entry : vectors.get(m).entrySet()) {
+                lockstep.set(m, entry.getKey(), entry.getValue());
+            }
+        }
+        long start = System.nanoTime();
+        lockstep.run(startPc, budget);
+        long lockstepElapsed = System.nanoTime() - start;
+
+        // now the slow way, one machine at a time
+        LC3sim[] sims = new LC3sim[n];
+        start = System.nanoTime();
+        for (int m = 0; m < n; m++) {
+            LC3sim sim = sims[m] = new LC3sim();
+            sim.in = new ByteArrayInputStream(new byte[0]);
+            sim.out = new PrintStream(new ByteArrayOutputStream(), false, StandardCharsets.ISO_8859_1);
+            sim.load(blocks);
+            for (Map.Entry<String, Integer> entry : vectors.get(m).entrySet()) {
+                set(sim, entry.getKey(), entry.getValue());
+            }
+            sim.run(budget);
+        }
+        long oneAtATimeElapsed = System.nanoTime() - start;
+
+        long total = 0;
+        int mismatches = 0;
+        for (int m = 0; m < n; m++) {
+            total += lockstep.instructions[m];
+            String state = lockstep.dumpRegisters(m);
+            if (verbose) {
+                System.out.println("machine " + m + " " + vectors.get(m) + ": " + lockstep.status(m) + " after "
+                                   + lockstep.instructions[m] + " instructions, " + state
+                                   + (lockstep.out[m] == null? "" : ", output " + LC3json.quote(lockstep.out[m].toString(StandardCharsets.ISO_8859_1))));
+            }
+            if (!state.equals(sims[m].dumpRegisters()) || lockstep.instructions[m] != sims[m].instructions) {
+                System.err.println("machine " + m + " doesn't match LC3sim!");
+                System.err.println("  lockstep: " + state + " after " + lockstep.instructions[m]);
+                System.err.println("  LC3sim:   " + sims[m].dumpRegisters() + " after " + sims[m].instructions);
+                mismatches++;
+            }
+        }
+
+        System.out.printf("%d machines, %d instructions total%n", n, total);
+        System.out.printf("lockstep:       %.3f s (%.1f million per second)%n", lockstepElapsed / 1e9, total * 1e3 / Math.max(lockstepElapsed, 1));
+        System.out.printf("one at a time:  %.3f s (%.1f million per second)%n", oneAtATimeElapsed / 1e9, total * 1e3 / Math.max(oneAtATimeElapsed, 1));
+        System.exit(mismatches == 0? 0 : 1);
+    }
+
+    /**
+     * Copies the program into every machine. Returns the starting PC
+     */
+    int load(List<LC3disasm.OrigEndWindow> blocks) {
+        for (LC3disasm.OrigEndWindow block : blocks) {
+            int addr = block.origAddr;
+            for (int word : block.words) {
+                Arrays.fill(mem, addr * n, addr * n + n, (char)word);
+                addr = (addr + 1) & 0xFFFF;
+            }
+        }
+        return blocks.isEmpty()? 0 : blocks.get(0).origAddr;
+    }
+
+    // sets register (like R3) or memory location (like x4000) where to value
+    void set(int m, String where, int value) {
+        if (where.matches("[Rr][0-7]")) {
+            reg[(where.charAt(1) - '0') * n + m] = value & 0xFFFF;
+        } else {
+            mem[LC3sim.parseAddress(where) * n + m] = (char)value;
+        }
+    }
+
+    static void set(LC3sim sim, String where, int value) {
+        if (where.matches("[Rr][0-7]")) {
+            sim.reg[where.charAt(1) - '0'] = value & 0xFFFF;
+        } else {
+            sim.write(LC3sim.parseAddress(where), value);
+        }
+    }
+
+    String status(int m) {
+        return error[m] != null? error[m] : halted[m]? "halted" : "timeout";
+    }
+
+    String dumpRegisters(int m) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            sb.append(String.format("R%d=x%04x ", i, reg[i * n + m]));
+        }
+        sb.append(String.format("PC=x%04x CC=%s", pc[m], cc[m] == LC3sim.N? "N" : cc[m] == LC3sim.Z? "Z" : "P"));
+        return sb.toString();
+    }
+
+    /**
+     * Runs every machine from startPc until it halts or executes budget
+     * instructions
+     */
+    void run(int startPc, long budget) {
+        int[] everybody = new int[n];
+        for (int m = 0; m < n; m++) {
+            everybody[m] = m;
+        }
+        Group first = new Group(startPc, everybody, n);
+        first.remaining = budget;
+
+        // groups waiting to run, by PC. lowest PC goes first
+        TreeMap<Integer, Group> groups = new TreeMap<>();
+        groups.put(startPc, first);
+        while (!groups.isEmpty()) {
+            Group g = groups.pollFirstEntry().getValue();
+            // run this group until it catches up to the next one (so they
+            // can merge) or splits up
+            int limit = groups.isEmpty()? Integer.MAX_VALUE : groups.firstKey();
+            for (Group h : runGroup(g, limit, budget)) {
+                Group existing = groups.get(h.pc);
+                groups.put(h.pc, existing == null? h : merge(existing, h, budget));
+            }
+        }
+    }
+
+    private Group merge(Group g, Group h, long budget) {
+        flush(g);
+        flush(h);
+        int[] members = Arrays.copyOf(g.members, g.size + h.size);
+        System.arraycopy(h.members, 0, members, g.size, h.size);
+        Group merged = new Group(g.pc, members, members.length);
+        merged.remaining = remaining(merged, budget);
+        return merged;
+    }
+
+    // hands out the instructions a group has executed to its members
+    private void flush(Group g) {
+        for (int i = 0; i < g.size; i++) {
+            instructions[g.members[i]] += g.steps;
+        }
+        g.steps = 0;
+    }
+
+    private long remaining(Group g, long budget) {
+        long most = 0;
+        for (int i = 0; i < g.size; i++) {
+            most = Math.max(most, instructions[g.members[i]]);
+        }
+        return budget - most;
+    }
+
+    /**
+     * Runs g until its PC reaches limit or it splits up. Returns whatever
+     * groups are left afterwards
+     */
+    private List<Group> runGroup(Group g, int limit, long budget) {
+        while (true) {
+            if (g.remaining <= 0) {
+                // somebody's out of instructions. kick them out and keep going
+                // with everybody else
+                flush(g);
+                int kept = 0;
+                for (int i = 0; i < g.size; i++) {
+                    int m = g.members[i];
+                    if (instructions[m] >= budget) {
+                        pc[m] = g.pc;
+                    } else {
+                        g.members[kept++] = m;
+                    }
+                }
+                g.size = kept;
+                if (g.size == 0) {
+                    return List.of();
+                }
+                g.remaining = remaining(g, budget);
+            }
+
+            List<Group> split;
+            int addr = g.pc;
+            if (dirty[addr] && !sameWord(g, addr)) {
+                // machines disagree about what the instruction here even is.
+                // run each version separately
+                split = new ArrayList<>();
+                flush(g);
+                Map<Integer, List<Integer>> byWord = new LinkedHashMap<>();
+                for (int i = 0; i < g.size; i++) {
+                    byWord.computeIfAbsent((int)mem[addr * n + g.members[i]], w -> new ArrayList<>()).add(g.members[i]);
+                }
+                for (Map.Entry<Integer, List<Integer>> entry : byWord.entrySet()) {
+                    Group sub = new Group(addr, entry.getValue().stream().mapToInt(Integer::intValue).toArray(), entry.getValue().size());
+                    sub.remaining = remaining(sub, budget);
+                    sub.steps++;
+                    sub.remaining--;
+                    List<Group> result = step(sub, LC3sim.decode(entry.getKey()));
+                    if (result == null) {
+                        result = List.of(sub);
+                    }
+                    for (Group h : result) {
+                        if (h.size > 0) {
+                            split.add(h);
+                        }
+                    }
+                }
+                return split;
+            }
+
+            int d = decoded[addr];
+            if (d == 0) {
+                d = decoded[addr] = LC3sim.decode(mem[addr * n + g.members[0]]);
+            }
+            g.steps++;
+            g.remaining--;
+            split = step(g, d);
+            if (split != null) {
+                return split;
+            }
+            if (g.size == 0) {
+                return List.of();
+            }
+            if (g.pc >= limit) {
+                return List.of(g);
+            }
+        }
+    }
+
+    private boolean sameWord(Group g, int addr) {
+        char word = mem[addr * n + g.members[0]];
+        for (int i = 1; i < g.size; i++) {
+            if (mem[addr * n + g.members[i]] != word) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Executes predecoded instruction d (see LC3sim) on every machine in g,
+     * which has already been charged for it. Returns null if everybody
+     * went to the same place (and g.pc is updated to there). Otherwise
+     * returns the groups g split into
+     */
+    private List<Group> step(Group g, int d) {
+        final int n = this.n;
+        final int[] members = g.members;
+        final int size = g.size;
+        final int[] reg = this.reg;
+        final char[] mem = this.mem;
+        final int[] cc = this.cc;
+        int nextPc = (g.pc + 1) & 0xFFFF;
+        int a = (d >> LC3sim.A_SHIFT & 0x7) * n;
+        int b = (d >> LC3sim.B_SHIFT & 0x7) * n;
+        int operand = d >> LC3sim.OPERAND_SHIFT;
+
+        switch (d & LC3sim.OP_MASK) {
+            case 0b0000: { // BR
+                int nzp = d >> LC3sim.A_SHIFT & 0x7;
+                int target = (nextPc + operand) & 0xFFFF;
+                int taken = 0;
+                for (int i = 0; i < size; i++) {
+                    if ((cc[members[i]] & nzp) != 0) {
+                        taken++;
+                    }
+                }
+                if (taken == 0 || taken == size) {
+                    g.pc = taken == 0? nextPc : target;
+                    return null;
+                }
+                for (int i = 0; i < size; i++) {
+                    scratch[i] = (cc[members[i]] & nzp) != 0? target : nextPc;
+                }
+                return split(g);
+            }
+            case 0b0001: // ADD
+                if ((d & LC3sim.IMM_FLAG) != 0) {
+                    for (int i = 0; i < size; i++) {
+                        int m = members[i];
+                        cc[m] = LC3sim.setcc(reg[a + m] = (reg[b + m] + operand) & 0xFFFF);
+                    }
+                } else {
+                    int c = (d >> LC3sim.C_SHIFT & 0x7) * n;
+                    for (int i = 0; i < size; i++) {
+                        int m = members[i];
+                        cc[m] = LC3sim.setcc(reg[a + m] = (reg[b + m] + reg[c + m]) & 0xFFFF);
+                    }
+                }
+                break;
+            case 0b0101: // AND
+                if ((d & LC3sim.IMM_FLAG) != 0) {
+                    for (int i = 0; i < size; i++) {
+                        int m = members[i];
+                        cc[m] = LC3sim.setcc(reg[a + m] = reg[b + m] & operand & 0xFFFF);
+                    }
+                } else {
+                    int c = (d >> LC3sim.C_SHIFT & 0x7) * n;
+                    for (int i = 0; i < size; i++) {
+                        int m = members[i];
+                        cc[m] = LC3sim.setcc(reg[a + m] = reg[b + m] & reg[c + m]);
+                    }
+                }
+                break;
+            case 0b1001: // NOT
+                for (int i = 0; i < size; i++) {
+                    int m = members[i];
+                    cc[m] = LC3sim.setcc(reg[a + m] = ~reg[b + m] & 0xFFFF);
+                }
+                break;
+            case 0b0010: { // LD
+                int base = ((nextPc + operand) & 0xFFFF) * n;
+                for (int i = 0; i < size; i++) {
+                    int m = members[i];
+                    cc[m] = LC3sim.setcc(reg[a + m] = mem[base + m]);
+                }
+                break;
+            }
+            case 0b1010: { // LDI
+                int base = ((nextPc + operand) & 0xFFFF) * n;
+                for (int i = 0; i < size; i++) {
+                    int m = members[i];
+                    cc[m] = LC3sim.setcc(reg[a + m] = mem[mem[base + m] * n + m]);
+                }
+                break;
+            }
+            case 0b0110: // LDR
+                for (int i = 0; i < size; i++) {
+                    int m = members[i];
+                    cc[m] = LC3sim.setcc(reg[a + m] = mem[((reg[b + m] + operand) & 0xFFFF) * n + m]);
+                }
+                break;
+            case 0b1110: { // LEA
+                int value = (nextPc + operand) & 0xFFFF;
+                for (int i = 0; i < size; i++) {
+                    reg[a + members[i]] = value;
+                }
+                break;
+            }
+            case 0b0011: { // ST
+                int addr = (nextPc + operand) & 0xFFFF;
+                for (int i = 0; i < size; i++) {
+                    int m = members[i];
+                    mem[addr * n + m] = (char)reg[a + m];
+                }
+                stored(addr);
+                break;
+            }
+            case 0b1011: { // STI
+                int base = ((nextPc + operand) & 0xFFFF) * n;
+                for (int i = 0; i < size; i++) {
+                    int m = members[i];
+                    int addr = mem[base + m];
+                    mem[addr * n + m] = (char)reg[a + m];
+                    stored(addr);
+                }
+                break;
+            }
+            case 0b0111: // STR
+                for (int i = 0; i < size; i++) {
+                    int m = members[i];
+                    int addr = (reg[b + m] + operand) & 0xFFFF;
+                    mem[addr * n + m] = (char)reg[a + m];
+                    stored(addr);
+                }
+                break;
+            case 0b1100: // JMP/RET
+                for (int i = 0; i < size; i++) {
+                    scratch[i] = reg[b + members[i]];
+                }
+                return splitIfNeeded(g);
+            case 0b0100: // JSR/JSRR
+                for (int i = 0; i < size; i++) {
+                    int m = members[i];
+                    scratch[i] = (d & LC3sim.IMM_FLAG) != 0? (nextPc + operand) & 0xFFFF : reg[b + m];
+                    reg[7 * n + m] = nextPc;
+                }
+                return splitIfNeeded(g);
+            case 0b1111: { // TRAP
+                int vector = operand;
+                for (int i = 0; i < size; i++) {
+                    int m = members[i];
+                    reg[7 * n + m] = nextPc;
+                    if (mem[vector * n + m] != 0) {
+                        // the program brought its own trap handler
+                        scratch[i] = mem[vector * n + m];
+                    } else {
+                        trap(m, vector, nextPc);
+                        scratch[i] = nextPc;
+                    }
+                }
+                removeFinished(g, nextPc);
+                return splitIfNeeded(g);
+            }
+            case 0b1000: // RTI
+                for (int i = 0; i < size; i++) {
+                    int m = members[i];
+                    int sp = reg[6 * n + m];
+                    scratch[i] = mem[sp * n + m];
+                    cc[m] = mem[((sp + 1) & 0xFFFF) * n + m] & 0x7;
+                    reg[6 * n + m] = (sp + 2) & 0xFFFF;
+                }
+                return splitIfNeeded(g);
+            default: // 1101 is reserved
+                for (int i = 0; i < size; i++) {
+                    int m = members[i];
+                    halted[m] = true;
+                    error[m] = String.format("illegal opcode at x%04x", g.pc);
+                }
+                removeFinished(g, nextPc);
+                return null;
+        }
+        g.pc = nextPc;
+        return null;
+    }
+
+    private void stored(int addr) {
+        decoded[addr] = 0;
+        dirty[addr] = true;
+    }
+
+    // takes halted machines out of g, remembering where they stopped. their
+    // entries in scratch go with them
+    private void removeFinished(Group g, int nextPc) {
+        int kept = 0;
+        for (int i = 0; i < g.size; i++) {
+            int m = g.members[i];
+            if (halted[m]) {
+                instructions[m] += g.steps;
+                pc[m] = nextPc;
+            } else {
+                scratch[kept] = scratch[i];
+                g.members[kept++] = m;
+            }
+        }
+        g.size = kept;
+    }
+
+    private List<Group> splitIfNeeded(Group g) {
+        for (int i = 1; i < g.size; i++) {
+            if (scratch[i] != scratch[0]) {
+                return split(g);
+            }
+        }
+        if (g.size > 0) {
+            g.pc = scratch[0];
+        }
+        return null;
+    }
+
+    // breaks g up by the next PCs in scratch
+    private List<Group> split(Group g) {
+        flush(g);
+        Map<Integer, Group> byPc = new LinkedHashMap<>();
+        for (int i = 0; i < g.size; i++) {
+            Group h = byPc.computeIfAbsent(scratch[i], p -> new Group(p, new int[g.size], 0));
+            h.members[h.size++] = g.members[i];
+        }
+        for (Group h : byPc.values()) {
+            h.remaining = g.remaining; // nobody's count changed, so this is still safe
+        }
+        return new ArrayList<>(byPc.values());
+    }
+
+    /**
+     * The usual built-in trap routines, for machine m
+     */
+    private void trap(int m, int vector, int nextPc) {
+        int r0 = reg[m];
+        switch (vector) {
+            case 0x21: // OUT
+                output(m).write(r0 & 0xff);
+                break;
+            case 0x22: // PUTS
+                for (int addr = r0; mem[addr * n + m] != 0; addr = (addr + 1) & 0xFFFF) {
+                    output(m).write(mem[addr * n + m] & 0xff);
+                }
+                break;
+            case 0x24: // PUTSP
+                for (int addr = r0; mem[addr * n + m] != 0; addr = (addr + 1) & 0xFFFF) {
+                    output(m).write(mem[addr * n + m] & 0xff);
+                    if ((mem[addr * n + m] >> 8) != 0) {
+                        output(m).write(mem[addr * n + m] >> 8);
+                    }
+                }
+                break;
+            case 0x25: // HALT
+                halted[m] = true;
+                break;
+            case 0x23: // IN
+                output(m).writeBytes(LC3sim.IN_PROMPT.getBytes(StandardCharsets.ISO_8859_1));
+                outOfInput(m);
+                break;
+            case 0x20: // GETC
+                outOfInput(m);
+                break;
+            default:
+                halted[m] = true;
+                error[m] = String.format("no handler for TRAP x%02x at x%04x", vector, (nextPc - 1) & 0xFFFF);
+                break;
+        }
+    }
+
+    // there's never any console input in lockstep, so GETC and IN just stop
+    private void outOfInput(int m) {
+        reg[m] = 0;
+        halted[m] = true;
+        error[m] = "ran out of console input";
+    }
+
+    private ByteArrayOutputStream output(int m) {
+        if (out[m] == null) {
+            out[m] = new ByteArrayOutputStream();
+        }
+        return out[m];
+    }
+}
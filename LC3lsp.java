@@ -0,0 +1,421 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Language server for LC-3 assembly, so your editor can underline mistakes
+ * as you type instead of you finding them one at a time in a .debug file.
+ *
+ * Point your editor's LSP client at `java LC3lsp' for .asm files. It talks
+ * JSON-RPC over stdin/stdout and does:
+ *
+ *  - diagnostics: everything LC3asm would complain about (bad registers,
+ *    offsets that don't fit, undefined labels, a missing .END, ...), all at
+ *    once rather than just the first one
+ *  - go to definition on a label
+ *  - hover: a label's address, or the address of the line you're on
+ *
+ * Every document is kept as a list of lines, each tokenized once. An edit
+ * only re-tokenizes the lines it touched, and then the assembler's two
+ * passes get rerun over the cached words (see LC3asm.check), which is quick
+ * enough to do on every keystroke even for a file thousands of lines long.
+ * Pass -v to have it log how long each change took to stderr.
+ */
+public class LC3lsp {
+    static final String SOURCE = "LC3asm";
+    static boolean verbose = false;
+
+    static Map<String, Document> documents = new HashMap<>(); // uri -> what's open in the editor
+    static OutputStream out;
+    static boolean shutdown = false; // did we get a shutdown request before exit?
+
+    public static void main(String[] args) throws IOException {
+        // Tedious argument parsing
+        for (String arg : args) {
+            if (arg.equals("-v")) {
+                verbose = true;
+            } else {
+                System.err.println("usage: java LC3lsp [-v]");
+                System.exit(1);
+            }
+        }
+
+        // stdout belongs to the protocol now, so nothing else gets to print there
+        out = System.out;
+        System.setOut(System.err);
+        InputStream in = new BufferedInputStream(System.in);
+        String message;
+        while ((message = readMessage(in)) != null) {
+            Map<String, Object> request;
+            try {
+                Object parsed = LC3json.parse(message);
+                if (!(parsed instanceof Map)) {
+                    throw new IllegalArgumentException("not a JSON object");
+                }
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = (Map<String, Object>)parsed;
+                request = map;
+            } catch (RuntimeException err) {
+                // there's no telling what id it had, so the answer gets none
+                System.err.println("bad message: " + err);
+                respond(null, null, error(-32700, "parse error: " + err.getMessage()));
+                continue;
+            }
+            Object id = request.get("id");
+            String method = (String)request.get("method");
+            if (method == null) {
+                continue; // a response to something we never asked
+            }
+            try {
+                Object result = handle(method, (Map<?, ?>)request.get("params"));
+                if (id != null) {
+                    respond(id, result, null);
+                }
+            } catch (UnknownMethod err) {
+                if (id != null) {
+                    respond(id, null, error(-32601, "no such method: " + method));
+                }
+            } catch (RuntimeException err) {
+                System.err.println(method + " failed: " + err);
+                if (id != null) {
+                    respond(id, null, error(-32603, String.valueOf(err)));
+                }
+            }
+        }
+        System.exit(shutdown? 0 : 1);
+    }
+
+    static class UnknownMethod extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static Object handle(String method, Map<?, ?> params) {
+        switch (method) {
+            case "initialize": {
+                Map<String, Object> sync = new LinkedHashMap<>();
+                sync.put("openClose", true);
+                sync.put("change", 2); // incremental
+                Map<String, Object> capabilities = new LinkedHashMap<>();
+                capabilities.put("textDocumentSync", sync);
+                capabilities.put("definitionProvider", true);
+                capabilities.put("hoverProvider", true);
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("capabilities", capabilities);
+                result.put("serverInfo", Map.of("name", "LC3lsp"));
+                return result;
+            }
+            case "initialized":
+            case "$/cancelRequest":
+            case "$/setTrace":
+            case "workspace/didChangeConfiguration":
+            case "textDocument/didSave":
+                return null;
+            case "shutdown":
+                shutdown = true;
+                return null;
+            case "exit":
+                System.exit(shutdown? 0 : 1);
+                return null;
+            case "textDocument/didOpen": {
+                Map<?, ?> doc = (Map<?, ?>)params.get("textDocument");
+                String uri = (String)doc.get("uri");
+                long start = System.nanoTime();
+                Document document = new Document((String)doc.get("text"));
+                documents.put(uri, document);
+                publish(uri, document, start);
+                return null;
+            }
+            case "textDocument/didChange": {
+                String uri = uri(params);
+                long start = System.nanoTime();
+                Document document = documents.get(uri);
+                for (Object change : (List<?>)params.get("contentChanges")) {
+                    Map<?, ?> edit = (Map<?, ?>)change;
+                    String text = (String)edit.get("text");
+                    if (edit.get("range") == null) {
+                        document = new Document(text);
+                        documents.put(uri, document);
+                    } else {
+                        Map<?, ?> range = (Map<?, ?>)edit.get("range");
+                        int[] from = position((Map<?, ?>)range.get("start"));
+                        int[] to = position((Map<?, ?>)range.get("end"));
+                        document.edit(from[0], from[1], to[0], to[1], text);
+                    }
+                }
+                document.checked = null;
+                publish(uri, document, start);
+                return null;
+            }
+            case "textDocument/didClose": {
+                String uri = uri(params);
+                documents.remove(uri);
+                Map<String, Object> diagnostics = new LinkedHashMap<>();
+                diagnostics.put("uri", uri);
+                diagnostics.put("diagnostics", new ArrayList<>());
+                notify("textDocument/publishDiagnostics", diagnostics);
+                return null;
+            }
+            case "textDocument/definition": {
+                Document document = documents.get(uri(params));
+                int[] at = position((Map<?, ?>)params.get("position"));
+                String word = document == null? null : document.wordAt(at[0], at[1]);
+                Integer line = word == null? null : document.check().definedOn.get(word);
+                if (line == null) {
+                    return null;
+                }
+                Map<String, Object> location = new LinkedHashMap<>();
+                location.put("uri", uri(params));
+                location.put("range", document.labelRange(line));
+                return location;
+            }
+            case "textDocument/hover": {
+                Document document = documents.get(uri(params));
+                int[] at = position((Map<?, ?>)params.get("position"));
+                if (document == null || at[0] >= document.lines.size()) {
+                    return null;
+                }
+                String hover = document.describe(at[0], at[1]);
+                if (hover == null) {
+                    return null;
+                }
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("contents", Map.of("kind", "markdown", "value", hover));
+                return result;
+            }
+            default:
+                if (method.startsWith("$/")) {
+                    return null; // optional notifications are fine to ignore
+                }
+                throw new UnknownMethod();
+        }
+    }
+
+    private static String uri(Map<?, ?> params) {
+        return (String)((Map<?, ?>)params.get("textDocument")).get("uri");
+    }
+
+    private static int[] position(Map<?, ?> position) {
+        return new int[] {((Number)position.get("line")).intValue(), ((Number)position.get("character")).intValue()};
+    }
+
+    private static Map<String, Object> range(int line, int from, int to) {
+        Map<String, Object> range = new LinkedHashMap<>();
+        range.put("start", Map.of("line", line, "character", from));
+        range.put("end", Map.of("line", line, "character", to));
+        return range;
+    }
+
+    /**
+     * Reruns the assembler over a document and sends the editor everything
+     * that's wrong with it
+     */
+    private static void publish(String uri, Document document, long start) {
+        List<Object> diagnostics = new ArrayList<>();
+        for (LC3asm.Diagnostic problem : document.check().diagnostics) {
+            Map<String, Object> diagnostic = new LinkedHashMap<>();
+            diagnostic.put("range", range(problem.line, problem.column, problem.endColumn));
+            diagnostic.put("severity", 1); // error
+            diagnostic.put("code", problem.code);
+            diagnostic.put("source", SOURCE);
+            diagnostic.put("message", problem.message);
+            diagnostics.add(diagnostic);
+        }
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("uri", uri);
+        params.put("diagnostics", diagnostics);
+        notify("textDocument/publishDiagnostics", params);
+        if (verbose) {
+            System.err.printf("%s: %d lines, %d problems, %.2f ms%n", uri, document.lines.size(), diagnostics.size(), (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    static class Document {
+        final List<LC3asm.SourceLine> lines = new ArrayList<>(); // each one tokenized just once, when it changes
+        LC3asm.Checked checked; // the assembler's opinion of the lines as they are now, or null if stale
+
+        Document(String text) {
+            for (String line : split(text)) {
+                lines.add(new LC3asm.SourceLine(line));
+            }
+        }
+
+        private static String[] split(String text) {
+            return text.split("\r\n|\r|\n", -1);
+        }
+
+        /**
+         * Replaces a range of the text, re-tokenizing only the lines it covers
+         */
+        void edit(int fromLine, int fromChar, int toLine, int toChar, String text) {
+            String first = fromLine < lines.size()? lines.get(fromLine).text : "";
+            String last = toLine < lines.size()? lines.get(toLine).text : "";
+            String merged = first.substring(0, Math.min(fromChar, first.length())) + text
+                            + last.substring(Math.min(toChar, last.length()));
+            List<LC3asm.SourceLine> replacement = new ArrayList<>();
+            for (String line : split(merged)) {
+                replacement.add(new LC3asm.SourceLine(line));
+            }
+            fromLine = Math.min(fromLine, lines.size());
+            lines.subList(fromLine, Math.min(toLine + 1, lines.size())).clear();
+            lines.addAll(fromLine, replacement);
+        }
+
+        LC3asm.Checked check() {
+            if (checked == null) {
+                checked = LC3asm.check(lines);
+            }
+            return checked;
+        }
+
+        /**
+         * The word the cursor is on, uppercased like the assembler would
+         */
+        String wordAt(int line, int character) {
+            if (line >= lines.size()) {
+                return null;
+            }
+            String text = lines.get(line).text;
+            int comment = text.indexOf(';');
+            if (comment >= 0 && character > comment) {
+                return null;
+            }
+            int start = Math.min(character, text.length()), end = start;
+            while (start > 0 && !separator(text.charAt(start - 1))) {
+                start--;
+            }
+            while (end < text.length() && !separator(text.charAt(end))) {
+                end++;
+            }
+            return start == end? null : text.substring(start, end).toUpperCase();
+        }
+
+        private static boolean separator(char c) {
+            return c == ' ' || c == '\t' || c == ',' || c == ';' || c == '"';
+        }
+
+        /**
+         * Hover text: the label under the cursor, or else where the line lives
+         */
+        String describe(int line, int character) {
+            LC3asm.Checked checked = check();
+            String word = wordAt(line, character);
+            Integer address = word == null? null : checked.labels.get(word);
+            if (address != null) {
+                return address < 0? "`" + word + "` is `.EXTERNAL`: LC3link fills it in"
+                                   : String.format("`%s` = x%04X", word, address);
+            }
+            List<String> words = lines.get(line).words;
+            if (words == null || words.get(0).equals(".ORIG") || words.get(0).equals(".END") || words.get(0).equals(".EXTERNAL")) {
+                return null;
+            }
+            return String.format("x%04X", checked.addresses[line] & 0xFFFF);
+        }
+
+        // the part of a line that's not indentation or comment, for underlining
+        Map<String, Object> contentRange(int line) {
+            if (line >= lines.size()) {
+                return range(line, 0, 0);
+            }
+            String text = lines.get(line).text;
+            int comment = text.indexOf(';');
+            int end = comment >= 0? comment : text.length();
+            while (end > 0 && Character.isWhitespace(text.charAt(end - 1))) {
+                end--;
+            }
+            int start = 0;
+            while (start < end && Character.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+            return range(line, start, Math.max(start, end));
+        }
+
+        // the label a line starts with, or the whole line if it's an .EXTERNAL
+        Map<String, Object> labelRange(int line) {
+            Map<String, Object> range = contentRange(line);
+            List<String> words = lines.get(line).words;
+            if (words != null && LC3asm.startsWithLabel(words)) {
+                int start = (Integer)((Map<?, ?>)range.get("start")).get("character");
+                return range(line, start, start + words.get(0).length());
+            }
+            return range;
+        }
+    }
+
+    /*
+     * The protocol: every message is a Content-Length header, a blank line,
+     * and that many bytes of JSON
+     */
+
+    private static String readMessage(InputStream in) throws IOException {
+        int length = -1;
+        StringBuilder header = new StringBuilder();
+        while (true) {
+            int c = in.read();
+            if (c < 0) {
+                return null;
+            } else if (c == '\n') {
+                String line = header.toString().trim();
+                header.setLength(0);
+                if (line.isEmpty()) {
+                    if (length >= 0) {
+                        break;
+                    }
+                } else if (line.toLowerCase().startsWith("content-length:")) {
+                    length = Integer.parseInt(line.substring("content-length:".length()).trim());
+                }
+            } else {
+                header.append((char)c);
+            }
+        }
+        byte[] body = in.readNBytes(length);
+        if (body.length < length) {
+            return null;
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static void send(Map<String, Object> message) {
+        message.put("jsonrpc", "2.0");
+        byte[] body = LC3json.write(message).getBytes(StandardCharsets.UTF_8);
+        try {
+            out.write(("Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(body);
+            out.flush();
+        } catch (IOException err) {
+            // the editor hung up on us
+            System.exit(1);
+        }
+    }
+
+    private static void respond(Object id, Object result, Map<String, Object> error) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", id);
+        if (error != null) {
+            response.put("error", error);
+        } else {
+            response.put("result", result);
+        }
+        send(response);
+    }
+
+    private static void notify(String method, Object params) {
+        Map<String, Object> notification = new LinkedHashMap<>();
+        notification.put("method", method);
+        notification.put("params", params);
+        send(notification);
+    }
+
+    private static Map<String, Object> error(int code, String message) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("code", code);
+        error.put("message", message);
+        return error;
+    }
+}
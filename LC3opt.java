@@ -0,0 +1,272 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Peephole optimizer, for `java LC3asm -O bubba.asm'. Looks at what every
+ * line assembles to (using LC3asm.check, so it sees the real encodings and
+ * the real symbol table) and cleans up the usual waste:
+ *
+ *  - a BR to the very next instruction does nothing, so it goes
+ *  - a BR to another BR that's sure to be taken too (BRz to a BRnzp, say)
+ *    gets pointed straight at the final destination
+ *  - ADD Rx, Rx, #0 right after something that just set Rx (and so the
+ *    condition codes) already, goes
+ *  - AND Rx, ?, #0 right after another AND Rx, ?, #0 goes
+ *
+ * It works by rewriting the lines and letting the assembler do its thing,
+ * so labels, .FILLs of labels and PC offsets all land wherever the code
+ * ended up. A line that goes away keeps its label, which then points at
+ * the next instruction, and the .dbgsym still shows the lines as you wrote
+ * them. Nothing that anything jumps to (or has a label on it) gets removed
+ * unless it's one of those do-nothing BRs, since you could get there without
+ * running whatever set the condition codes first. Hardcoded PC offsets (a
+ * `BRp #-4', say) stay put when the code around them moves, so nothing
+ * between one of those and where it points goes anywhere either.
+ *
+ * The cycles in the report assume the textbook LC-3 state machine with
+ * memory that answers in one cycle: 4 to fetch and decode, plus 1 for ADD or
+ * AND, plus 2 for a taken BR. cycles() has the rest of the instructions, for
+ * LC3prof.
+ */
+public class LC3opt {
+    static final int MAX_ROUNDS = 10; // one change can make room for another, but not forever
+    static final int MAX_HOPS = 16; // how far to chase a chain of branches
+    static final int ALU_CYCLES = 5;
+    static final int BR_CYCLES = 6;
+
+    /**
+     * Optimizes a file (as lines from LC3asm.readLines), telling report
+     * (if it's not null) what it did. Hands back the lines untouched if
+     * they don't assemble, so the assembler can complain as usual
+     */
+    static List<LC3asm.SourceLine> optimize(List<LC3asm.SourceLine> lines, PrintStream report) {
+        List<LC3asm.SourceLine> result = new ArrayList<>(lines);
+        List<String> changes = new ArrayList<>();
+        int removed = 0, retargeted = 0, cycles = 0;
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            LC3asm.Checked checked = LC3asm.check(result);
+            if (!checked.diagnostics.isEmpty()) {
+                if (round > 0 && report != null) {
+                    report.println("Peephole: gave up, since the optimized code doesn't assemble: " + checked.diagnostics.get(0));
+                }
+                return lines;
+            }
+
+            // where all the instructions (not data) are, and everything
+            // that might get jumped to or poked at
+            Map<Integer, Integer> lineAt = new HashMap<>(); // address -> line index
+            Set<Integer> targets = new HashSet<>();
+            Map<Integer, String> labelAt = new HashMap<>();
+            for (Map.Entry<String, Integer> label : checked.labels.entrySet()) {
+                int address = label.getValue();
+                if (address >= 0) {
+                    targets.add(address);
+                    labelAt.merge(address, label.getKey(), (a, b) -> a.compareTo(b) <= 0? a : b);
+                }
+            }
+            for (int i = 0; i < result.size(); i++) {
+                if (instruction(result.get(i).words) && checked.code[i] >= 0) {
+                    int address = checked.addresses[i];
+                    lineAt.put(address, i);
+                    int target = target(address, checked.code[i]);
+                    if (target >= 0) {
+                        targets.add(target);
+                    }
+                }
+            }
+
+            List<int[]> hardcoded = hardcodedOffsets(result, checked);
+
+            Set<Integer> gone = new HashSet<>(); // addresses removed this round
+            boolean changed = false;
+            for (int i = 0; i < result.size(); i++) {
+                int word = checked.code[i];
+                if (!instruction(result.get(i).words) || word < 0) {
+                    continue;
+                }
+                int address = checked.addresses[i];
+                int opcode = word >> 12;
+                Integer prevLine = lineAt.get(address - 1);
+                int prev = prevLine == null || gone.contains(address - 1)? -1 : checked.code[prevLine];
+                String why = null;
+                int saved = 0; // cycles, if it goes
+
+                if (opcode == 0b0000 && (word >> 9 & 0x7) != 0 && (word & 0x1ff) == 0) {
+                    why = "removed a BR to the very next instruction";
+                    saved = BR_CYCLES;
+                } else if (opcode == 0b0001 && (word >> 9 & 0x7) == (word >> 6 & 0x7) && (word & 0x3f) == 0x20
+                           && !targets.contains(address) && prev >= 0 && setsCc(prev, word >> 9 & 0x7)) {
+                    why = "removed an ADD R" + (word >> 9 & 0x7) + ", R" + (word >> 9 & 0x7) + ", #0, since the line before set the condition codes already";
+                    saved = ALU_CYCLES;
+                } else if (opcode == 0b0101 && (word & 0x3f) == 0x20 && !targets.contains(address)
+                           && prev >= 0 && prev >> 12 == 0b0101 && (prev & 0x3f) == 0x20 && (prev >> 9 & 0x7) == (word >> 9 & 0x7)) {
+                    why = "removed an AND R" + (word >> 9 & 0x7) + ", ?, #0, since R" + (word >> 9 & 0x7) + " was zeroed on the line before";
+                    saved = ALU_CYCLES;
+                } else if (opcode == 0b0000 && (word >> 9 & 0x7) != 0) {
+                    // follow the chain of branches that are sure to be taken
+                    int nzp = word >> 9 & 0x7;
+                    int target = target(address, word);
+                    Set<Integer> seen = new HashSet<>();
+                    for (int hops = 0; hops < MAX_HOPS && seen.add(target); hops++) {
+                        Integer there = lineAt.get(target);
+                        int next = there == null? -1 : checked.code[there];
+                        if (next < 0 || next >> 12 != 0b0000 || (nzp & ~(next >> 9 & 0x7)) != 0) {
+                            break;
+                        }
+                        target = target(target, next);
+                    }
+                    int offset = target - (address + 1);
+                    String label = labelAt.get(target);
+                    if (target != target(address, word) && label != null && offset >= -256 && offset <= 255) {
+                        List<String> words = new ArrayList<>(result.get(i).words);
+                        words.set(words.size() - 1, label);
+                        result.set(i, new LC3asm.SourceLine(result.get(i), words));
+                        changes.add(String.format("  line %d (x%04x): %s now goes straight to %s (x%04x)", i + 1, address, words.get(words.size() - 2), label, target));
+                        retargeted++;
+                        cycles += BR_CYCLES;
+                        changed = true;
+                    }
+                }
+
+                if (why != null && !moves(hardcoded, address)) {
+                    // keep the label (if any), which will point at whatever comes next
+                    List<String> words = result.get(i).words;
+                    result.set(i, new LC3asm.SourceLine(result.get(i), LC3asm.startsWithLabel(words)? List.of(words.get(0)) : null));
+                    changes.add(String.format("  line %d (x%04x): %s", i + 1, address, why));
+                    gone.add(address);
+                    removed++;
+                    cycles += saved;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+        }
+
+        if (report != null) {
+            report.printf("Peephole: removed %d instructions and retargeted %d branches, saving about %d cycles per trip through them%n",
+                          removed, retargeted, cycles);
+            for (String change : changes) {
+                report.println(change);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * how many cycles word takes on that same state machine, with a BR
+     * counted as taken or not. A TRAP only counts getting to the handler
+     * (which is either more instructions, or the simulator doing it itself),
+     * and RTI is just a guess, since it depends on which stack it goes back to
+     */
+    static int cycles(int word, boolean taken) {
+        switch (word >> 12 & 0xf) {
+            case 0b0000: // BR
+                return taken? BR_CYCLES : BR_CYCLES - 1;
+            case 0b0001: // ADD
+            case 0b0101: // AND
+            case 0b1001: // NOT
+                return ALU_CYCLES;
+            case 0b1100: // JMP/RET
+            case 0b1110: // LEA
+                return 5;
+            case 0b0100: // JSR/JSRR
+                return 6;
+            case 0b0010: // LD
+            case 0b0110: // LDR
+            case 0b0011: // ST
+            case 0b0111: // STR
+            case 0b1111: // TRAP
+                return 7;
+            case 0b1010: // LDI
+            case 0b1011: // STI
+                return 9;
+            case 0b1000: // RTI
+                return 12;
+            default: // reserved, so just the fetch and decode
+                return 4;
+        }
+    }
+
+    /**
+     * {address, target} of each PC-relative instruction with a number for
+     * an offset instead of a label. The assembler takes those as written,
+     * so adding or removing words between the two sends it somewhere else
+     * (LC3relax needs to know this too)
+     */
+    static List<int[]> hardcodedOffsets(List<LC3asm.SourceLine> lines, LC3asm.Checked checked) {
+        List<int[]> offsets = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            List<String> words = lines.get(i).words;
+            if (!instruction(words) || checked.code[i] < 0) {
+                continue;
+            }
+            int address = checked.addresses[i];
+            int target = target(address, checked.code[i]);
+            String operand = words.get(words.size() - 1);
+            if (target < 0 || checked.labels.containsKey(operand) || operand.startsWith("=")) {
+                continue;
+            }
+            offsets.add(new int[] {address, target});
+        }
+        return offsets;
+    }
+
+    // would removing the word at address send one of those somewhere else?
+    private static boolean moves(List<int[]> hardcoded, int address) {
+        for (int[] offset : hardcoded) {
+            int pc = offset[0] + 1, target = offset[1];
+            if (address >= Math.min(pc, target) && address < Math.max(pc, target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // does this line assemble to an instruction (as opposed to data)?
+    private static boolean instruction(List<String> words) {
+        if (words == null) {
+            return false;
+        }
+        int first = LC3asm.startsWithLabel(words)? 1 : 0;
+        return words.size() > first && (LC3asm.mnemonics.contains(words.get(first)) || words.get(first).startsWith("BR"));
+    }
+
+    // where a PC-relative instruction points, or -1 if it isn't one
+    private static int target(int address, int word) {
+        switch (word >> 12) {
+            case 0b0000: // BR
+            case 0b0010: // LD
+            case 0b0011: // ST
+            case 0b1010: // LDI
+            case 0b1011: // STI
+            case 0b1110: // LEA
+                return (address + 1 + LC3disasm.Instruction.sext(word & 0x1ff, 9)) & 0xFFFF;
+            case 0b0100: // JSR (but not JSRR)
+                return (word >> 11 & 0x1) == 1? (address + 1 + LC3disasm.Instruction.sext(word & 0x7ff, 11)) & 0xFFFF : -1;
+            default:
+                return -1;
+        }
+    }
+
+    // does this instruction set the condition codes from register r?
+    private static boolean setsCc(int word, int r) {
+        switch (word >> 12) {
+            case 0b0001: // ADD
+            case 0b0101: // AND
+            case 0b1001: // NOT
+            case 0b0010: // LD
+            case 0b1010: // LDI
+            case 0b0110: // LDR
+                return (word >> 9 & 0x7) == r;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Profiler: runs a program in the simulator, counting how many times every
+ * address gets executed, and then tells you where all the time went.
+ *
+ * `java LC3prof bubba.obj' runs bubba.obj just like LC3sim would (console
+ * and all) and then writes `bubba.prof', which has:
+ *
+ *  - the hottest source lines, from the counts joined with bubba.dbginfo (or .dbgsym)
+ *  - the loops: every backward branch that got executed, how many times it
+ *    went around, and how many instructions were spent inside
+ *  - each subroutine's share of the cycles, where a subroutine is
+ *    anywhere something JSR'd, JSRR'd or TRAPped to (plus wherever the
+ *    program started), named after its label in bubba.sym, and it owns
+ *    everything up to the next subroutine. The cycles are the textbook
+ *    state machine's (see LC3opt.cycles), counting taken BRs as the longer
+ *    kind
+ *
+ * Pass `-n <count>' to give up after that many instructions, which is
+ * mostly the point: if a program blows past the instruction budget, the
+ * profile shows you which loop it was stuck in. `-top <count>' changes how
+ * many lines and loops get listed (20 by default), and `-os <os.obj>' loads
+ * an operating system image first like LC3sim does, in which case the OS's
+ * .dbgsym and .sym get used too.
+ */
+public class LC3prof {
+    public static void main(String[] args) throws IOException {
+        // Tedious argument parsing
+        String objfilename = null;
+        String osFilename = null;
+        long budget = Long.MAX_VALUE;
+        int top = 20;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-n") && i + 1 < args.length) {
+                    budget = Long.parseLong(args[++i]);
+                } else if (args[i].equals("-top") && i + 1 < args.length) {
+                    top = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-os") && i + 1 < args.length) {
+                    osFilename = args[++i];
+                } else if (objfilename == null && !args[i].startsWith("-")) {
+                    objfilename = args[i];
+                } else {
+                    objfilename = null;
+                    break;
+                }
+            }
+        } catch (NumberFormatException err) {
+            objfilename = null;
+        }
+        if (objfilename == null || !objfilename.contains(".")) {
+            System.err.println("usage: java LC3prof [-n <max instructions>] [-top <count>] [-os <os object file>] <path to object file>");
+            System.exit(1);
+        }
+
+        LC3sim sim = new LC3sim();
+        sim.profile = new long[LC3sim.MEM_SIZE];
+        sim.calls = new long[LC3sim.MEM_SIZE];
+        sim.coverage = new LC3cov.Coverage(); // for which way the BRs went, since a taken one costs more
+        sim.restore(LC3sim.loadProgram(new File(objfilename)));
+        int startPc = sim.pc;
+        Map<Integer, String> lines = new HashMap<>();
+        TreeMap<Integer, String> labels = new TreeMap<>();
+        if (osFilename != null) {
+            sim.load(LC3sim.readObjectFile(new File(osFilename)));
+            sim.pc = startPc;
+            readDebugInfo(osFilename, lines, labels);
+        }
+        readDebugInfo(objfilename, lines, labels);
+
+        sim.run(budget);
+        sim.flush();
+        String status = sim.error != null? sim.error : sim.halted? "halted" : "gave up";
+        System.err.println("--- " + status + " after " + sim.instructions + " instructions ---");
+
+        String filebase = objfilename.substring(0, objfilename.lastIndexOf('.')); // get the root filename without any extensions
+        File profFile = new File(filebase + ".prof");
+        try (PrintStream prof = new PrintStream(profFile)) {
+            writeReport(prof, sim, startPc, status, lines, labels, top);
+        }
+        System.err.println("Wrote profile to " + profFile.getPath());
+    }
+
+    /**
+     * Reads the .dbginfo or .dbgsym (address -> source line) and .sym
+     * (address -> label) next to an object file, if they're there
+     */
+    static void readDebugInfo(String objfilename, Map<Integer, String> lines, TreeMap<Integer, String> labels) throws IOException {
+        String filebase = objfilename.substring(0, objfilename.lastIndexOf('.'));
+        if (new File(filebase + ".dbginfo").exists() || new File(filebase + ".dbgsym").exists()) {
+            LC3dbginfo.load(filebase).forEach((address, line) -> lines.put(address, line.trim()));
+        }
+        File symFile = new File(filebase + ".sym");
+        if (symFile.exists()) {
+            try (BufferedReader br = new BufferedReader(new FileReader(symFile))) {
+                br.readLine(); // skip the header line
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] words = line.trim().split(" +");
+                    if (words.length == 3 && words[2].equals("0")) {
+                        labels.put(Integer.parseInt(words[0].substring(1), 16), words[1]);
+                    }
+                }
+            }
+        }
+    }
+
+    static void writeReport(PrintStream prof, LC3sim sim, int startPc, String status, Map<Integer, String> lines,
+                            TreeMap<Integer, String> labels, int top) {
+        long[] counts = sim.profile;
+        long total = sim.instructions;
+        prof.printf("%d instructions, %s%n", total, status);
+
+        List<Integer> executed = new ArrayList<>();
+        for (int addr = 0; addr < LC3sim.MEM_SIZE; addr++) {
+            if (counts[addr] > 0) {
+                executed.add(addr);
+            }
+        }
+
+        prof.println();
+        prof.println("Hottest lines:");
+        prof.printf("  %12s  %6s  %-7s %s%n", "count", "share", "address", "line");
+        executed.stream()
+                .sorted(Comparator.comparingLong((Integer addr) -> -counts[addr]))
+                .limit(top)
+                .forEach(addr -> prof.printf("  %12d  %5.1f%%  x%04x   %s%n", counts[addr], percent(counts[addr], total), addr, describe(sim, addr, lines)));
+
+        // a loop is a branch back to somewhere at or before itself. the
+        // branch runs once per trip around the loop (counting the last
+        // time, when it falls through)
+        List<long[]> loops = new ArrayList<>(); // {branch address, target, trips, instructions inside}
+        for (int addr : executed) {
+            int word = sim.mem[addr];
+            if ((word >> 12) == 0b0000 && (word >> 9 & 0x7) != 0) {
+                int target = (addr + 1 + LC3disasm.Instruction.sext(word & 0x1ff, 9)) & 0xFFFF;
+                if (target <= addr) {
+                    long inside = 0;
+                    for (int a = target; a <= addr; a++) {
+                        inside += counts[a];
+                    }
+                    loops.add(new long[] {addr, target, counts[addr], inside});
+                }
+            }
+        }
+        loops.sort(Comparator.comparingLong((long[] loop) -> -loop[3]));
+        prof.println();
+        prof.println("Loops:");
+        prof.printf("  %12s  %12s  %6s  %-11s  %s%n", "trips", "instructions", "share", "range", "loop");
+        for (long[] loop : loops.subList(0, Math.min(top, loops.size()))) {
+            int target = (int)loop[1];
+            String name = labels.containsKey(target)? labels.get(target) : describe(sim, target, lines);
+            prof.printf("  %12d  %12d  %5.1f%%  x%04x-x%04x  %s%n", loop[2], loop[3], percent(loop[3], total), target, loop[0], name);
+        }
+
+        // figure out which labels are subroutines, then charge every
+        // executed address to the closest subroutine label before it
+        TreeMap<Integer, String> subroutines = new TreeMap<>();
+        for (int addr : executed) {
+            if (sim.calls[addr] > 0 || addr == startPc) {
+                subroutines.put(addr, labels.getOrDefault(addr, String.format("x%04x", addr)));
+            }
+        }
+        // trap routines count as subroutines too
+        for (int vector = 0; vector < 0x100; vector++) {
+            int handler = sim.mem[vector];
+            if (handler != 0 && counts[handler] > 0) {
+                subroutines.put(handler, labels.getOrDefault(handler, String.format("TRAP x%02x", vector)));
+            }
+        }
+        Map<Integer, Long> self = new TreeMap<>(); // instructions
+        Map<Integer, Long> selfCycles = new TreeMap<>();
+        long totalCycles = 0;
+        for (int addr : executed) {
+            Map.Entry<Integer, String> owner = subroutines.floorEntry(addr);
+            int key = owner == null? -1 : owner.getKey();
+            long taken = sim.coverage.taken[addr];
+            long cycles = (counts[addr] - taken) * LC3opt.cycles(sim.mem[addr], false) + taken * LC3opt.cycles(sim.mem[addr], true);
+            self.merge(key, counts[addr], Long::sum);
+            selfCycles.merge(key, cycles, Long::sum);
+            totalCycles += cycles;
+        }
+        long allCycles = totalCycles; // (for the lambda)
+        prof.println();
+        prof.println("Subroutines:");
+        prof.printf("  %12s  %12s  %12s  %6s  %s%n", "calls", "instructions", "cycles", "share", "subroutine");
+        selfCycles.entrySet().stream()
+            .sorted(Comparator.comparingLong((Map.Entry<Integer, Long> entry) -> -entry.getValue()))
+            .forEach(entry -> {
+                int addr = entry.getKey();
+                String name = addr < 0? "(before any subroutine)" : subroutines.get(addr);
+                long callCount = addr < 0? 0 : sim.calls[addr];
+                prof.printf("  %12d  %12d  %12d  %5.1f%%  %s%n", callCount, self.get(addr), entry.getValue(), percent(entry.getValue(), allCycles), name);
+            });
+    }
+
+    // the source line at addr, or the disassembly if we don't have the source
+    private static String describe(LC3sim sim, int addr, Map<Integer, String> lines) {
+        String line = lines.get(addr);
+        return line != null? line : LC3disasm.Instruction.decodeOrFill(sim.mem[addr], true);
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0? 0 : 100.0 * part / whole;
+    }
+}
@@ -0,0 +1,364 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Branch relaxation, for `java LC3asm -relax R6 bubba.asm': instead of
+ * giving up when a label is too far away for a PC offset (9 bits, or 11 for
+ * JSR), rewrites the instruction to go through a pointer word that holds
+ * the label's address:
+ *
+ *      LD  R1, FAR     becomes     LDI R1, ptr
+ *      LDI R1, FAR                 LDI R1, ptr / LDR R1, R1, #0
+ *      LEA R1, FAR                 LD R1, ptr (which sets the condition codes, unlike LEA)
+ *      ST  R1, FAR                 STI R1, ptr
+ *      STI R1, FAR                 LDI R6, ptr / STR R1, R6, #0
+ *      JSR FAR                     LD R7, ptr / JSRR R7
+ *      BRz FAR                     BRnp past / LD R6, ptr / JMP R6
+ *
+ * where R6 is the scratch register you named after -relax (BR and STI
+ * can't be relaxed without one, and the trampolines leave the condition
+ * codes set from it). The same goes for .EXTERNAL labels, which are always
+ * too far away as far as the assembler knows, since the pointer word is
+ * just a .FILL that LC3link fills in.
+ *
+ * Pointer words are shared, and they live in pools placed where execution
+ * can't fall into them: right after a BRnzp, JMP, RET or HALT, or at the
+ * end of an .ORIG block that ends in data. An instruction with no pool
+ * within reach gets its own pointer right after it, with a BR around it.
+ *
+ * Relaxing one instruction makes the code longer, which can push others
+ * out of range, so it goes around again until nothing new is out of range.
+ * That only ever relaxes more, so it settles down after a few passes, each
+ * of which is one LC3asm.check (a pass or two of the assembler).
+ *
+ * Hardcoded PC offsets (a `BRp #-4', say) don't follow the code around, so
+ * no pool goes between one of those and where it points. An instruction in
+ * there can only be relaxed if it stays one word long and its pointer fits
+ * in a pool outside (LD, LEA and ST). Anything else gives up, and the
+ * assembler complains about the offset as usual.
+ */
+public class LC3relax {
+    static final int REACH = 200; // how far away a pool can be, with some slack for pools growing in the meantime
+    static final int MAX_PASSES = 50;
+
+    /**
+     * Relaxes a file (as lines from LC3asm.readLines), telling report (if
+     * it's not null) what it did. Hands back the lines untouched if they
+     * have mistakes relaxation can't fix, so the assembler can complain as
+     * usual
+     *
+     * @param scratch: a register trampolines can clobber, or -1 for none
+     */
+    static List<LC3asm.SourceLine> relax(List<LC3asm.SourceLine> lines, int scratch, PrintStream report) {
+        Set<Integer> relaxed = new TreeSet<>(); // original lines to go through a pointer
+        Set<Integer> inline = new TreeSet<>(); // ...of which these get their pointer right after them
+        List<Integer> sites = poolSites(lines);
+        Layout layout = new Layout(lines, scratch, relaxed, inline, new HashMap<>(), new HashMap<>());
+        LC3asm.Checked checked = LC3asm.check(layout.lines);
+
+        // nothing relaxed yet, so these are the original addresses
+        List<int[]> hardcoded = LC3opt.hardcodedOffsets(lines, checked);
+        int[] addresses = checked.addresses.clone();
+        sites.removeIf(site -> site + 1 < lines.size() && splits(hardcoded, addresses[site + 1]));
+
+        int passes = 1;
+        for (; passes < MAX_PASSES; passes++) {
+            // anything newly out of reach?
+            boolean more = false;
+            for (LC3asm.Diagnostic problem : checked.diagnostics) {
+                int i = layout.origin.get(problem.line);
+                if (i < 0) {
+                    continue;
+                }
+                if (layout.usesPointer.containsKey(i)) {
+                    // the pool it was sent to ended up too far away
+                    if (splits(hardcoded, addresses[i] + 1)) {
+                        return stuck(lines, i, report);
+                    }
+                    more |= inline.add(i);
+                } else if ((problem.code.equals("bad-offset") || problem.code.equals("external-offset"))
+                           && relaxable(lines.get(i).words, scratch, checked)) {
+                    String op = operation(lines.get(i).words);
+                    if (!(op.equals("LD") || op.equals("LEA") || op.equals("ST")) && splits(hardcoded, addresses[i] + 1)) {
+                        return stuck(lines, i, report);
+                    }
+                    more |= relaxed.add(i);
+                }
+            }
+            if (!more) {
+                break;
+            }
+
+            // send each pointer to the nearest pool that was within reach
+            // last time around, going by where everything was then
+            TreeMap<Integer, Integer> siteAt = new TreeMap<>(); // address -> site
+            for (int site : sites) {
+                siteAt.put(checked.addresses[layout.poolAt.get(site)], site);
+            }
+            Map<Integer, Integer> pools = new HashMap<>(); // original line -> the site its pointer goes at
+            for (int i : relaxed) {
+                if (inline.contains(i)) {
+                    continue;
+                }
+                int address = checked.addresses[layout.firstLine.get(i)];
+                Map.Entry<Integer, Integer> before = siteAt.floorEntry(address), after = siteAt.ceilingEntry(address);
+                Map.Entry<Integer, Integer> best = before == null? after
+                                                   : after == null? before
+                                                   : address - before.getKey() <= after.getKey() - address? before : after;
+                if (best != null && Math.abs(best.getKey() - address) <= REACH) {
+                    pools.put(i, best.getValue());
+                } else if (splits(hardcoded, addresses[i] + 1)) {
+                    return stuck(lines, i, report);
+                } else {
+                    inline.add(i);
+                }
+            }
+
+            // lay it out once to find out where everything lands, then again
+            // with the right offsets to the pointers
+            Map<Integer, Integer> offsets = new HashMap<>();
+            layout = new Layout(lines, scratch, relaxed, inline, pools, offsets);
+            checked = LC3asm.check(layout.lines);
+            for (Map.Entry<Integer, Integer> use : layout.usesPointer.entrySet()) {
+                int user = use.getValue(), pointer = layout.pointer.get(use.getKey());
+                offsets.put(use.getKey(), checked.addresses[pointer] - (checked.addresses[user] + 1));
+            }
+            layout = new Layout(lines, scratch, relaxed, inline, pools, offsets);
+            checked = LC3asm.check(layout.lines);
+        }
+
+        if (!checked.diagnostics.isEmpty()) {
+            if (!relaxed.isEmpty() && report != null) {
+                report.println("Relaxation: couldn't fix everything, so not relaxing anything");
+            }
+            return lines;
+        }
+        if (report != null && !relaxed.isEmpty()) {
+            report.printf("Relaxation: relaxed %d instructions in %d passes, with %d pointer words (%d of them inline)%n",
+                          relaxed.size(), passes, layout.pointers, inline.size());
+        }
+        return layout.lines;
+    }
+
+    // would putting words in right before address send one of the
+    // hardcoded offsets (see LC3opt.hardcodedOffsets) somewhere else? only
+    // if it moves the instruction and not its target, or the other way round
+    private static boolean splits(List<int[]> hardcoded, int address) {
+        for (int[] offset : hardcoded) {
+            if (address > Math.min(offset[0], offset[1]) && address <= Math.max(offset[0], offset[1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<LC3asm.SourceLine> stuck(List<LC3asm.SourceLine> lines, int i, PrintStream report) {
+        if (report != null) {
+            report.println("Relaxation: line " + (i + 1) + " would need more room, right where a hardcoded PC offset jumps across, so not relaxing anything");
+        }
+        return lines;
+    }
+
+    /**
+     * The lines with the relaxed instructions rewritten and the pools put
+     * in, plus how they line up with the original
+     */
+    static class Layout {
+        final List<LC3asm.SourceLine> lines = new ArrayList<>();
+        final List<Integer> origin = new ArrayList<>(); // new line -> the original line it came from, or -1 for pools
+        final Map<Integer, Integer> firstLine = new HashMap<>(); // original line -> where it starts now
+        final Map<Integer, Integer> poolAt = new HashMap<>(); // site -> the new line where its pool starts (or would)
+        final Map<Integer, Integer> usesPointer = new HashMap<>(); // relaxed line -> the new line that uses its pointer
+        final Map<Integer, Integer> pointer = new HashMap<>(); // relaxed line -> the new line with its pointer word
+        final int scratch;
+        int pointers = 0;
+
+        Layout(List<LC3asm.SourceLine> original, int scratch, Set<Integer> relaxed, Set<Integer> inline,
+               Map<Integer, Integer> pools, Map<Integer, Integer> offsets) {
+            this.scratch = scratch;
+            // what goes in each pool: label -> the relaxed lines pointing at it
+            Map<Integer, Map<String, List<Integer>>> contents = new HashMap<>();
+            for (Map.Entry<Integer, Integer> pool : pools.entrySet()) {
+                contents.computeIfAbsent(pool.getValue(), site -> new LinkedHashMap<>())
+                        .computeIfAbsent(operand(original.get(pool.getKey()).words), label -> new ArrayList<>())
+                        .add(pool.getKey());
+            }
+            Set<Integer> sites = new TreeSet<>(poolSites(original));
+
+            for (int i = 0; i < original.size(); i++) {
+                LC3asm.SourceLine line = original.get(i);
+                firstLine.put(i, lines.size());
+                if (relaxed.contains(i)) {
+                    expand(i, line, inline.contains(i), offsets.getOrDefault(i, 0));
+                } else {
+                    add(i, line);
+                }
+                if (sites.contains(i)) {
+                    poolAt.put(i, lines.size());
+                    for (Map.Entry<String, List<Integer>> entry : contents.getOrDefault(i, Map.of()).entrySet()) {
+                        for (int user : entry.getValue()) {
+                            pointer.put(user, lines.size());
+                        }
+                        add(-1, new LC3asm.SourceLine(".FILL " + entry.getKey()));
+                        pointers++;
+                    }
+                }
+            }
+        }
+
+        private void add(int i, LC3asm.SourceLine line) {
+            lines.add(line);
+            origin.add(i);
+        }
+
+        /**
+         * Writes out the relaxed version of a line. The first instruction
+         * keeps the label and (for the .dbgsym) the original text
+         */
+        private void expand(int i, LC3asm.SourceLine line, boolean inline, int offset) {
+            List<String> words = line.words;
+            String label = LC3asm.startsWithLabel(words)? words.get(0) : null;
+            String op = operation(words);
+            String target = operand(words);
+            String ptr = "#" + offset;
+            List<String> code = new ArrayList<>();
+            int use; // which of those uses the pointer
+            boolean barrier = false; // does the code never fall through?
+            if (op.startsWith("BR")) {
+                String r = "R" + scratch;
+                int nzp = nzp(op);
+                if (nzp != 0x7) {
+                    code.add("BR" + conditions(~nzp & 0x7) + " #" + (inline? 3 : 2));
+                }
+                use = code.size();
+                code.add("LD " + r + ", " + ptr);
+                code.add("JMP " + r);
+                barrier = true;
+            } else if (op.equals("JSR")) {
+                use = 0;
+                code.add("LD R7, " + ptr);
+                code.add("JSRR R7");
+            } else {
+                String reg = words.get(words.size() - 2);
+                use = 0;
+                switch (op) {
+                    case "LD":
+                        code.add("LDI " + reg + ", " + ptr);
+                        break;
+                    case "LDI":
+                        code.add("LDI " + reg + ", " + ptr);
+                        code.add("LDR " + reg + ", " + reg + ", #0");
+                        break;
+                    case "LEA":
+                        code.add("LD " + reg + ", " + ptr);
+                        break;
+                    case "ST":
+                        code.add("STI " + reg + ", " + ptr);
+                        break;
+                    default: // STI
+                        String r = "R" + scratch;
+                        code.add("LDI " + r + ", " + ptr);
+                        code.add("STR " + reg + ", " + r + ", #0");
+                        break;
+                }
+            }
+            if (inline && !barrier) {
+                code.add("BRNZP #1");
+            }
+
+            for (int k = 0; k < code.size(); k++) {
+                if (k == use) {
+                    usesPointer.put(i, lines.size());
+                }
+                if (k == 0) {
+                    LC3asm.SourceLine first = new LC3asm.SourceLine(code.get(0));
+                    List<String> firstWords = new ArrayList<>(first.words);
+                    if (label != null) {
+                        firstWords.add(0, label);
+                    }
+                    add(i, new LC3asm.SourceLine(line, firstWords));
+                } else {
+                    add(i, new LC3asm.SourceLine(code.get(k)));
+                }
+            }
+            if (inline) {
+                pointer.put(i, lines.size());
+                add(i, new LC3asm.SourceLine(".FILL " + target));
+                pointers++;
+            }
+        }
+    }
+
+    /**
+     * Where pools can go: after the lines execution never falls through
+     * (BRnzp, JMP, RET, HALT), and at the end of any .ORIG block that ends
+     * in data. A pool goes right after the site line
+     */
+    static List<Integer> poolSites(List<LC3asm.SourceLine> lines) {
+        List<Integer> sites = new ArrayList<>();
+        int last = -1; // the last line with something on it
+        for (int i = 0; i < lines.size(); i++) {
+            List<String> words = lines.get(i).words;
+            if (words == null) {
+                continue;
+            }
+            String op = operation(words);
+            if (op == null) {
+                continue; // just a label
+            }
+            if (op.equals(".END") && last >= 0 && sites.indexOf(last) < 0) {
+                String lastOp = operation(lines.get(last).words);
+                if (lastOp.equals(".FILL") || lastOp.equals(".BLKW") || lastOp.equals(".STRINGZ")) {
+                    sites.add(last);
+                }
+            } else if (op.equals("JMP") || op.equals("RET") || op.equals("HALT") || (op.startsWith("BR") && nzp(op) == 0x7)) {
+                sites.add(i);
+            }
+            last = i;
+        }
+        return sites;
+    }
+
+    // can relaxing help with this line?
+    private static boolean relaxable(List<String> words, int scratch, LC3asm.Checked checked) {
+        String op = operation(words);
+        if (op == null || !checked.labels.containsKey(operand(words))) {
+            return false; // hardcoded offsets stay hardcoded
+        }
+        switch (op) {
+            case "LD": case "LDI": case "LEA": case "ST": case "JSR":
+                return true;
+            case "STI":
+                return scratch >= 0 && !words.get(words.size() - 2).equals("R" + scratch);
+            default:
+                return scratch >= 0 && op.startsWith("BR") && LC3asm.BR.matcher(op).matches();
+        }
+    }
+
+    // the mnemonic or directive (after any label), or null if there isn't one
+    private static String operation(List<String> words) {
+        int first = LC3asm.startsWithLabel(words)? 1 : 0;
+        return words.size() > first? words.get(first) : null;
+    }
+
+    private static String operand(List<String> words) {
+        return words.get(words.size() - 1);
+    }
+
+    private static int nzp(String br) {
+        int nzp = (br.contains("N")? 4 : 0) | (br.contains("Z")? 2 : 0) | (br.contains("P")? 1 : 0);
+        return nzp == 0? 0x7 : nzp;
+    }
+
+    private static String conditions(int nzp) {
+        return ((nzp & 4) != 0? "N" : "") + ((nzp & 2) != 0? "Z" : "") + ((nzp & 1) != 0? "P" : "");
+    }
+
+}
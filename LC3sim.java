@@ -0,0 +1,886 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Headless LC-3 simulator, so you can run programs without firing up LC3Tools.
+ *
+ * `java LC3sim bubba.obj' loads an object file made by LC3asm or LC3link (or
+ * an LC3Tools object file made by ObjToLC3Tools), starts at the first .orig,
+ * and runs until it hits a HALT. Console output goes to stdout and console
+ * input comes from stdin. Pass `-n <count>' to give up after that many
+ * instructions, and `-pc <address>' to start somewhere else. Pass `-jit' to
+ * compile hot code to JVM bytecode (see LC3jit).
+ *
+ * There's no operating system loaded, so the simulator handles the usual
+ * TRAPs (GETC, OUT, PUTS, IN, PUTSP, HALT) itself unless the program put its
+ * own handler in the trap vector table. These built-in versions write into
+ * an output buffer and read from an input buffer instead of fiddling with
+ * the keyboard and display registers a character at a time, which makes
+ * output-heavy programs much faster. To check a program against the real
+ * thing, `-os <os.obj>' loads an operating system image first (like
+ * tests/lc3os.asm), and then TRAPs run its routines instead, which poll the
+ * device registers (KBSR, KBDR, DSR, DDR and MCR) just like on hardware.
+ * `-in <file>' and `-out <file>' hook the console up to files instead of
+ * stdin and stdout.
+ *
+ * The device registers live on a little bus: every address in the xFE00
+ * page can have a Device plugged into it, which gets called for loads and
+ * stores there instead of plain memory. The keyboard knows when a program
+ * is just spinning on KBSR waiting for a key (two polls in a row that came
+ * back empty, with no stores in between), and skips the rest of the
+ * spinning by waiting for input right there.
+ *
+ * To go fast, each word of memory is decoded into a compact form the first
+ * time it's executed, so the main loop never has to pick apart instruction
+ * bits again. Stores throw away the decoded form of whatever they overwrite,
+ * so self-modifying code still works.
+ *
+ * For running lots of test cases against one program, snapshot() freezes the
+ * machine into 512-word pages, sharing every page that hasn't changed since
+ * the last snapshot. The machine keeps track of which pages it's written
+ * since then, so restore() puts it back by copying just those pages, and
+ * neither one has to touch the rest of memory. Pass `-save <file.snap>' to
+ * write the machine out to a snapshot file when it stops, and give a .snap
+ * file instead of an object file to pick up from there.
+ *
+ * `-coverage <file.cov>' records which instructions ran and which way each
+ * branch went, adding to whatever's already in the file; see LC3cov for
+ * turning that into a report.
+ */
+public class LC3sim {
+    static final int MEM_SIZE = 1 << 16;
+    static final int PAGE_SHIFT = 9;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT; // words
+    static final int PAGES = MEM_SIZE / PAGE_SIZE;
+
+    static final int[] ZERO_PAGE = new int[PAGE_SIZE]; // shared by every snapshot, never written to
+
+    // Condition codes, in the same bit positions as the nzp bits of a BR
+    static final int N = 0b100;
+    static final int Z = 0b010;
+    static final int P = 0b001;
+
+    // Layout of a predecoded instruction. Everything the interpreter needs is
+    // pulled out of the instruction word once and packed into one int:
+    static final int OP_MASK = 0xf;        // bits 0-3: opcode
+    static final int A_SHIFT = 4;          // bits 4-6: DR or SR (or nzp for BR)
+    static final int B_SHIFT = 7;          // bits 7-9: SR1 or BaseR
+    static final int C_SHIFT = 10;         // bits 10-12: SR2
+    static final int IMM_FLAG = 1 << 13;   // bit 13: immediate ADD/AND, or JSR (not JSRR)
+    static final int DECODED = 1 << 14;    // bit 14: always set, so 0 can mean "not decoded yet"
+    static final int OPERAND_SHIFT = 16;   // bits 16-31: sign-extended imm5/offset6/PCoffset9/PCoffset11, or trapvect8
+
+    int[] mem = new int[MEM_SIZE];
+    int[] decoded = new int[MEM_SIZE]; // predecoded mem, 0 where not decoded yet
+    Snapshot base = Snapshot.EMPTY; // the last snapshot taken or restored
+    boolean[] dirty = new boolean[PAGES]; // pages written since then
+    int[] reg = new int[8];
+    int pc;
+    int cc = Z;
+    boolean halted;
+    String error; // why the machine stopped, if it wasn't a HALT
+    long instructions; // total executed so far
+
+    // Set these to arrays of MEM_SIZE to have run() count how many times
+    // each address gets executed and called with JSR/JSRR/TRAP (see LC3prof)
+    long[] profile;
+    long[] calls;
+
+    // Set this to have run() record which addresses ran and which way every
+    // BR went (see LC3cov)
+    LC3cov.Coverage coverage;
+
+    // Set this to have run() log every jump, memory write and input
+    // character (see LC3trace)
+    LC3trace.Recorder trace;
+
+    InputStream in = System.in;
+    PrintStream out = System.out;
+
+    // Console buffers. Output piles up in outBuf until it fills up, the
+    // program wants input, or somebody calls flush(). Input gets read into
+    // inBuf as much at a time as `in' will give us
+    byte[] outBuf = new byte[8192];
+    int outLen;
+    byte[] inBuf = new byte[8192];
+    int inPos, inLen;
+
+    // Device registers
+    static final int IO_PAGE = 0xFE00;
+    static final int KBSR = 0xFE00;
+    static final int KBDR = 0xFE02;
+    static final int DSR = 0xFE04;
+    static final int DDR = 0xFE06;
+    static final int MCR = 0xFFFE;
+
+    /**
+     * Something that lives at an address (or a few) in the xFE00 page
+     */
+    interface Device {
+        int read(LC3sim sim, int addr);
+        void write(LC3sim sim, int addr, int value);
+
+        // forget everything, because the machine got restore()d
+        default void reset() {
+        }
+    }
+
+    // what's plugged in at each address of the xFE00 page, null for plain
+    // memory
+    Device[] devices = new Device[MEM_SIZE - IO_PAGE];
+    long writeCount; // stores so far, so the keyboard can tell if anything's happening
+
+    {
+        plug(new Keyboard(), KBSR, KBDR);
+        plug(new Display(), DSR, DDR);
+        plug(new MachineControl(), MCR);
+    }
+
+    void plug(Device device, int... addrs) {
+        for (int addr : addrs) {
+            devices[addr - IO_PAGE] = device;
+        }
+    }
+
+    /**
+     * KBSR and KBDR, reading from the console input
+     */
+    static class Keyboard implements Device {
+        private boolean wasEmpty; // the last KBSR poll found no key
+        private long writesThen; // writeCount at the last poll
+
+        @Override
+        public int read(LC3sim sim, int addr) {
+            if (addr == KBDR) {
+                return sim.inPos < sim.inLen || sim.fillInput()? sim.takeInput() : 0;
+            }
+            boolean ready = sim.inputReady();
+            if (!ready && wasEmpty && sim.writeCount == writesThen) {
+                // nothing's going on but polling, so fast forward to
+                // whenever somebody types something
+                ready = sim.fillInput();
+                if (!ready) {
+                    sim.halted = true;
+                    sim.error = "ran out of console input";
+                }
+            }
+            wasEmpty = !ready;
+            writesThen = sim.writeCount;
+            if (sim.trace != null) {
+                sim.trace.poll(ready? LC3trace.POLL_READY : sim.halted? LC3trace.POLL_EOF : LC3trace.POLL_EMPTY);
+            }
+            return ready? 0x8000 : 0;
+        }
+
+        @Override
+        public void write(LC3sim sim, int addr, int value) {
+        }
+
+        @Override
+        public void reset() {
+            wasEmpty = false;
+        }
+    }
+
+    /**
+     * DSR and DDR, writing to the console output. Always ready
+     */
+    static class Display implements Device {
+        @Override
+        public int read(LC3sim sim, int addr) {
+            return addr == DSR? 0x8000 : sim.mem[addr];
+        }
+
+        @Override
+        public void write(LC3sim sim, int addr, int value) {
+            if (addr == DDR) {
+                sim.putByte(value);
+            }
+        }
+    }
+
+    /**
+     * MCR: clearing the top bit stops the clock
+     */
+    static class MachineControl implements Device {
+        @Override
+        public int read(LC3sim sim, int addr) {
+            return sim.halted? 0 : 0x8000;
+        }
+
+        @Override
+        public void write(LC3sim sim, int addr, int value) {
+            if ((value & 0x8000) == 0) {
+                sim.halted = true;
+            }
+        }
+    }
+
+    /**
+     * Everything about a machine at some point in time. Pages are shared
+     * between snapshots, so they must never be written to
+     */
+    static class Snapshot {
+        static final String MAGIC = "LC3SNAP1";
+        static final Snapshot EMPTY = new Snapshot(emptyPages(), new int[8], 0, Z);
+
+        final int[][] pages;
+        final int[] reg;
+        final int pc;
+        final int cc;
+
+        Snapshot(int[][] pages, int[] reg, int pc, int cc) {
+            this.pages = pages;
+            this.reg = reg;
+            this.pc = pc;
+            this.cc = cc;
+        }
+
+        /**
+         * Writes the registers, then every page that isn't all zeros:
+         *
+         *     LC3SNAP1 <R0-R7> <PC> <CC> <page count> {<page number> <512 words>}...
+         *
+         * with everything after the magic as 16-bit big-endian numbers
+         */
+        void write(File file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.writeBytes(MAGIC);
+                writeTo(out);
+            }
+        }
+
+        // everything after the magic (LC3trace embeds these in its traces)
+        void writeTo(DataOutputStream out) throws IOException {
+            for (int r : reg) {
+                out.writeShort(r);
+            }
+            out.writeShort(pc);
+            out.writeShort(cc);
+            List<Integer> nonzero = new ArrayList<>();
+            for (int p = 0; p < PAGES; p++) {
+                if (pages[p] != ZERO_PAGE && !Arrays.equals(pages[p], ZERO_PAGE)) {
+                    nonzero.add(p);
+                }
+            }
+            out.writeShort(nonzero.size());
+            for (int p : nonzero) {
+                out.writeShort(p);
+                for (int word : pages[p]) {
+                    out.writeShort(word);
+                }
+            }
+        }
+
+        static Snapshot read(File file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                byte[] magic = new byte[MAGIC.length()];
+                in.readFully(magic);
+                if (!new String(magic, java.nio.charset.StandardCharsets.US_ASCII).equals(MAGIC)) {
+                    throw new IllegalArgumentException(file + " is not an LC-3 snapshot");
+                }
+                return readFrom(in, file.toString());
+            }
+        }
+
+        static Snapshot readFrom(DataInputStream in, String name) throws IOException {
+            int[] reg = new int[8];
+            for (int r = 0; r < reg.length; r++) {
+                reg[r] = in.readUnsignedShort();
+            }
+            int pc = in.readUnsignedShort();
+            int cc = in.readUnsignedShort();
+            int[][] pages = emptyPages();
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                int p = in.readUnsignedShort();
+                if (p >= PAGES) {
+                    throw new IllegalArgumentException(name + " has a page past the end of memory");
+                }
+                pages[p] = new int[PAGE_SIZE];
+                for (int j = 0; j < PAGE_SIZE; j++) {
+                    pages[p][j] = in.readUnsignedShort();
+                }
+            }
+            return new Snapshot(pages, reg, pc, cc);
+        }
+
+        private static int[][] emptyPages() {
+            int[][] pages = new int[PAGES][];
+            Arrays.fill(pages, ZERO_PAGE);
+            return pages;
+        }
+    }
+
+    public static void main(String[] args) {
+        // Tedious argument parsing
+        String objfilename = null;
+        long budget = Long.MAX_VALUE;
+        int startPc = -1;
+        boolean jit = false;
+        String saveFilename = null;
+        String osFilename = null;
+        String coverageFilename = null;
+        String inFilename = null;
+        String outFilename = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-n") && i + 1 < args.length) {
+                    budget = Long.parseLong(args[++i]);
+                } else if (args[i].equals("-pc") && i + 1 < args.length) {
+                    startPc = parseAddress(args[++i]);
+                } else if (args[i].equals("-jit")) {
+                    jit = true;
+                } else if (args[i].equals("-save") && i + 1 < args.length) {
+                    saveFilename = args[++i];
+                } else if (args[i].equals("-os") && i + 1 < args.length) {
+                    osFilename = args[++i];
+                } else if (args[i].equals("-coverage") && i + 1 < args.length) {
+                    coverageFilename = args[++i];
+                } else if (args[i].equals("-in") && i + 1 < args.length) {
+                    inFilename = args[++i];
+                } else if (args[i].equals("-out") && i + 1 < args.length) {
+                    outFilename = args[++i];
+                } else if (objfilename == null && !args[i].startsWith("-")) {
+                    objfilename = args[i];
+                } else {
+                    objfilename = null;
+                    break;
+                }
+            }
+        } catch (NumberFormatException err) {
+            objfilename = null;
+        }
+        if (objfilename == null) {
+            System.err.println("usage: java LC3sim [-jit] [-n <max instructions>] [-pc <start address>] [-save <snapshot file>] [-os <os object file>] [-coverage <coverage file>] [-in <input file>] [-out <output file>] <path to object or snapshot file>");
+            System.exit(1);
+        }
+
+        LC3sim sim = jit? new LC3jit() : new LC3sim();
+        sim.restore(loadProgram(new File(objfilename)));
+        if (osFilename != null) {
+            int pc = sim.pc;
+            sim.load(readObjectFile(new File(osFilename)));
+            sim.pc = pc;
+        }
+        if (startPc >= 0) {
+            sim.pc = startPc;
+        }
+        if (coverageFilename != null) {
+            sim.coverage = new LC3cov.Coverage();
+        }
+        try {
+            if (inFilename != null) {
+                sim.in = new FileInputStream(inFilename);
+            }
+            if (outFilename != null) {
+                sim.out = new PrintStream(new FileOutputStream(outFilename));
+            }
+        } catch (IOException err) {
+            System.err.println("Couldn't open console file: " + err.getMessage());
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        sim.run(budget);
+        long elapsed = System.nanoTime() - start;
+        sim.flush();
+
+        if (sim.error != null) {
+            System.err.println("--- " + sim.error + " ---");
+        } else if (!sim.halted) {
+            System.err.println("--- gave up after " + sim.instructions + " instructions ---");
+        } else {
+            System.err.println("--- halted ---");
+        }
+        System.err.printf("%d instructions in %.3f s (%.1f million per second)%n",
+                          sim.instructions, elapsed / 1e9, sim.instructions * 1e3 / Math.max(elapsed, 1));
+        System.err.println(sim.dumpRegisters());
+        if (saveFilename != null) {
+            try {
+                sim.snapshot().write(new File(saveFilename));
+            } catch (IOException err) {
+                // Rethrow as unchecked (Mr. Gosling, thank you for everything)
+                throw new RuntimeException(err);
+            }
+            System.err.println("Wrote snapshot to " + saveFilename);
+        }
+        if (coverageFilename != null) {
+            try {
+                sim.coverage.mergeInto(new File(coverageFilename));
+            } catch (IOException err) {
+                // Rethrow as unchecked (Mr. Gosling, thank you for everything)
+                throw new RuntimeException(err);
+            }
+            System.err.println("Added coverage to " + coverageFilename);
+        }
+        System.exit(sim.halted && sim.error == null? 0 : 1);
+    }
+
+    static int parseAddress(String str) {
+        if (str.startsWith("x") || str.startsWith("X")) {
+            return Integer.parseInt(str.substring(1), 16) & 0xFFFF;
+        }
+        return Integer.parseInt(str) & 0xFFFF;
+    }
+
+    /**
+     * Reads either kind of object file: the text format LC3asm and LC3link
+     * write, or the binary format LC3Tools uses (which starts with a magic
+     * number)
+     */
+    static List<LC3disasm.OrigEndWindow> readObjectFile(File objFile) {
+        byte[] magic = new byte[ObjToLC3Tools.LC3TOOLS_OBJ_MAGIC.length];
+        try (InputStream is = new BufferedInputStream(new FileInputStream(objFile))) {
+            is.mark(magic.length);
+            int len = is.readNBytes(magic, 0, magic.length);
+            is.reset();
+            if (len < magic.length || !Arrays.equals(magic, ObjToLC3Tools.LC3TOOLS_OBJ_MAGIC)) {
+                return LC3disasm.parseObjectFile(objFile);
+            }
+
+            if (ObjToLC3Tools.verifyLC3ToolsMagicNumber(is) != 0) {
+                throw new IllegalArgumentException("Can't read LC3Tools object file " + objFile);
+            }
+            List<LC3disasm.OrigEndWindow> windows = new ArrayList<>();
+            Optional<ObjToLC3Tools.MemLocation> loc;
+            while ((loc = ObjToLC3Tools.MemLocation.fromStream(is)).isPresent()) {
+                if (loc.get().is_orig) {
+                    windows.add(new LC3disasm.OrigEndWindow(loc.get().value));
+                } else if (windows.isEmpty()) {
+                    throw new IllegalStateException("Word before .orig");
+                } else {
+                    windows.get(windows.size() - 1).words.add(loc.get().value);
+                }
+            }
+            return windows;
+        } catch (IOException err) {
+            // Rethrow as unchecked (Thank you Mr. Dr. Gosling sir)
+            throw new RuntimeException(err);
+        }
+    }
+
+    /**
+     * Copies the .orig blocks into memory and points the PC at the first one.
+     * This goes straight into memory without bothering any devices, so an
+     * image with something in the xFE00 page loads as is
+     */
+    void load(List<LC3disasm.OrigEndWindow> blocks) {
+        for (LC3disasm.OrigEndWindow block : blocks) {
+            int addr = block.origAddr;
+            for (int word : block.words) {
+                mem[addr] = word & 0xFFFF;
+                decoded[addr] = 0;
+                dirty[addr >> PAGE_SHIFT] = true;
+                addr = (addr + 1) & 0xFFFF;
+            }
+        }
+        if (!blocks.isEmpty()) {
+            pc = blocks.get(0).origAddr;
+        }
+    }
+
+    /**
+     * Loads either a snapshot file (.snap) or an object file (as a fresh
+     * machine with the PC at the first .orig)
+     */
+    static Snapshot loadProgram(File file) {
+        if (file.getName().endsWith(".snap")) {
+            try {
+                return Snapshot.read(file);
+            } catch (IOException err) {
+                // Rethrow as unchecked (Thank you Mr. Dr. Gosling sir)
+                throw new RuntimeException(err);
+            }
+        }
+        LC3sim sim = new LC3sim();
+        sim.load(readObjectFile(file));
+        return sim.snapshot();
+    }
+
+    /**
+     * Freezes the machine as it is right now. Only copies the pages written
+     * since the last snapshot() or restore(); the rest are shared with that
+     * snapshot
+     */
+    Snapshot snapshot() {
+        int[][] pages = base.pages.clone();
+        for (int p = 0; p < PAGES; p++) {
+            if (dirty[p]) {
+                pages[p] = Arrays.copyOfRange(mem, p << PAGE_SHIFT, (p + 1) << PAGE_SHIFT);
+                dirty[p] = false;
+            }
+        }
+        base = new Snapshot(pages, reg.clone(), pc, cc);
+        return base;
+    }
+
+    /**
+     * Puts the machine back to exactly how it was in snapshot, as if it
+     * hadn't run any instructions yet. Restoring the same snapshot again
+     * (say, before each test case) only copies back the pages that were
+     * written since last time
+     */
+    void restore(Snapshot snapshot) {
+        for (int p = 0; p < PAGES; p++) {
+            if (dirty[p] || snapshot.pages[p] != base.pages[p]) {
+                System.arraycopy(snapshot.pages[p], 0, mem, p << PAGE_SHIFT, PAGE_SIZE);
+                Arrays.fill(decoded, p << PAGE_SHIFT, (p + 1) << PAGE_SHIFT, 0);
+                dirty[p] = false;
+                pageRestored(p);
+            }
+        }
+        base = snapshot;
+        System.arraycopy(snapshot.reg, 0, reg, 0, reg.length);
+        pc = snapshot.pc;
+        cc = snapshot.cc;
+        halted = false;
+        error = null;
+        instructions = 0;
+        outLen = 0;
+        inPos = inLen = 0;
+        for (Device device : devices) {
+            if (device != null) {
+                device.reset();
+            }
+        }
+    }
+
+    // for subclasses that cache things about memory
+    void pageRestored(int p) {
+    }
+
+    int read(int addr) {
+        if (addr >= IO_PAGE && devices[addr - IO_PAGE] != null) {
+            return devices[addr - IO_PAGE].read(this, addr);
+        }
+        return mem[addr];
+    }
+
+    void write(int addr, int value) {
+        if (trace != null) {
+            trace.write(addr, value);
+        }
+        if (addr >= IO_PAGE && devices[addr - IO_PAGE] != null) {
+            devices[addr - IO_PAGE].write(this, addr, value);
+        }
+        mem[addr] = value & 0xFFFF;
+        decoded[addr] = 0; // whatever was decoded here is stale now
+        dirty[addr >> PAGE_SHIFT] = true;
+        writeCount++;
+    }
+
+    /**
+     * Packs an instruction word into the predecoded layout described at the
+     * top of this class
+     */
+    static int decode(int word) {
+        int opcode = word >> 12 & 0xf;
+        int operand = 0;
+        boolean imm = false;
+        switch (opcode) {
+            case 0b0001: // ADD
+            case 0b0101: // AND
+                imm = (word & 0x1 << 5) != 0;
+                operand = LC3disasm.Instruction.sext(word & 0x1f, 5);
+                break;
+            case 0b0000: // BR
+            case 0b0010: // LD
+            case 0b0011: // ST
+            case 0b1010: // LDI
+            case 0b1011: // STI
+            case 0b1110: // LEA
+                operand = LC3disasm.Instruction.sext(word & 0x1ff, 9);
+                break;
+            case 0b0100: // JSR/JSRR
+                imm = (word >> 11 & 0x1) == 1;
+                operand = LC3disasm.Instruction.sext(word & 0x7ff, 11);
+                break;
+            case 0b0110: // LDR
+            case 0b0111: // STR
+                operand = LC3disasm.Instruction.sext(word & 0x3f, 6);
+                break;
+            case 0b1111: // TRAP
+                operand = word & 0xff;
+                break;
+        }
+        return operand << OPERAND_SHIFT | (imm? IMM_FLAG : 0) | DECODED
+               | (word & 0x7) << C_SHIFT | (word >> 6 & 0x7) << B_SHIFT | (word >> 9 & 0x7) << A_SHIFT | opcode;
+    }
+
+    static int setcc(int value) {
+        return value == 0? Z : (value & 0x8000) != 0? N : P;
+    }
+
+    /**
+     * Runs until the machine halts or budget instructions have executed,
+     * whichever comes first. Returns the number of instructions executed
+     */
+    long run(long budget) {
+        // Copy everything into locals so the JIT can keep them in registers
+        int[] mem = this.mem;
+        int[] decoded = this.decoded;
+        int[] reg = this.reg;
+        int pc = this.pc;
+        int cc = this.cc;
+        long[] profile = this.profile;
+        LC3cov.Coverage coverage = this.coverage;
+        boolean instrumented = profile != null || coverage != null || trace != null;
+        long n = 0;
+
+        loop:
+        while (n < budget && !halted) {
+            if (instrumented) {
+                instrument(pc);
+            }
+            int d = decoded[pc];
+            if (d == 0) {
+                d = decoded[pc] = decode(mem[pc]);
+            }
+            pc = (pc + 1) & 0xFFFF;
+            n++;
+
+            int a = d >> A_SHIFT & 0x7;
+            int value;
+            switch (d & OP_MASK) {
+                case 0b0000: // BR
+                    if (coverage != null) {
+                        branched((pc - 1) & 0xFFFF, (a & cc) != 0);
+                    }
+                    if ((a & cc) != 0) {
+                        pc = (pc + (d >> OPERAND_SHIFT)) & 0xFFFF;
+                    }
+                    break;
+                case 0b0001: // ADD
+                    value = reg[d >> B_SHIFT & 0x7] + ((d & IMM_FLAG) != 0? d >> OPERAND_SHIFT : reg[d >> C_SHIFT & 0x7]);
+                    cc = setcc(reg[a] = value & 0xFFFF);
+                    break;
+                case 0b0101: // AND
+                    value = reg[d >> B_SHIFT & 0x7] & ((d & IMM_FLAG) != 0? d >> OPERAND_SHIFT : reg[d >> C_SHIFT & 0x7]);
+                    cc = setcc(reg[a] = value & 0xFFFF);
+                    break;
+                case 0b1001: // NOT
+                    cc = setcc(reg[a] = ~reg[d >> B_SHIFT & 0x7] & 0xFFFF);
+                    break;
+                case 0b0010: // LD
+                    cc = setcc(reg[a] = read((pc + (d >> OPERAND_SHIFT)) & 0xFFFF));
+                    break;
+                case 0b1010: // LDI
+                    cc = setcc(reg[a] = read(read((pc + (d >> OPERAND_SHIFT)) & 0xFFFF)));
+                    break;
+                case 0b0110: // LDR
+                    cc = setcc(reg[a] = read((reg[d >> B_SHIFT & 0x7] + (d >> OPERAND_SHIFT)) & 0xFFFF));
+                    break;
+                case 0b1110: // LEA
+                    reg[a] = (pc + (d >> OPERAND_SHIFT)) & 0xFFFF;
+                    break;
+                case 0b0011: // ST
+                    write((pc + (d >> OPERAND_SHIFT)) & 0xFFFF, reg[a]);
+                    break;
+                case 0b1011: // STI
+                    write(read((pc + (d >> OPERAND_SHIFT)) & 0xFFFF), reg[a]);
+                    break;
+                case 0b0111: // STR
+                    write((reg[d >> B_SHIFT & 0x7] + (d >> OPERAND_SHIFT)) & 0xFFFF, reg[a]);
+                    break;
+                case 0b1100: // JMP/RET
+                    pc = reg[d >> B_SHIFT & 0x7];
+                    break;
+                case 0b0100: // JSR/JSRR
+                    value = pc;
+                    pc = (d & IMM_FLAG) != 0? (pc + (d >> OPERAND_SHIFT)) & 0xFFFF : reg[d >> B_SHIFT & 0x7];
+                    reg[7] = value;
+                    if (profile != null) {
+                        calls[pc]++;
+                    }
+                    break;
+                case 0b1111: // TRAP
+                    int vector = d >> OPERAND_SHIFT;
+                    reg[7] = pc;
+                    if (mem[vector] != 0) {
+                        // the program brought its own trap handler
+                        pc = mem[vector];
+                        if (profile != null) {
+                            calls[pc]++;
+                        }
+                    } else {
+                        this.pc = pc;
+                        this.cc = cc;
+                        trap(vector);
+                        pc = this.pc;
+                        cc = this.cc;
+                        if (halted) {
+                            break loop;
+                        }
+                    }
+                    break;
+                case 0b1000: // RTI
+                    pc = read(reg[6]);
+                    cc = read((reg[6] + 1) & 0xFFFF) & 0x7;
+                    reg[6] = (reg[6] + 2) & 0xFFFF;
+                    break;
+                default: // 1101 is reserved
+                    halted = true;
+                    error = String.format("illegal opcode at x%04x", (pc - 1) & 0xFFFF);
+                    break loop;
+            }
+        }
+
+        this.pc = pc;
+        this.cc = cc;
+        this.instructions += n;
+        return n;
+    }
+
+    // the bookkeeping for LC3prof, LC3cov and LC3trace lives out here, so
+    // the main loop is just the instructions when nobody's watching
+    private void instrument(int pc) {
+        if (profile != null) {
+            profile[pc]++;
+        }
+        if (coverage != null) {
+            coverage.executed[pc >> 6] |= 1L << pc;
+        }
+        if (trace != null) {
+            trace.step(pc);
+        }
+    }
+
+    private void branched(int addr, boolean taken) {
+        if (taken) {
+            coverage.taken[addr]++;
+        } else {
+            coverage.notTaken[addr]++;
+        }
+    }
+
+    /**
+     * Built-in versions of the standard trap routines, for when there's no
+     * operating system around to provide them
+     */
+    void trap(int vector) {
+        switch (vector) {
+            case 0x20: // GETC
+                reg[0] = readChar();
+                break;
+            case 0x21: // OUT
+                putByte(reg[0]);
+                break;
+            case 0x22: // PUTS
+                for (int addr = reg[0]; read(addr) != 0; addr = (addr + 1) & 0xFFFF) {
+                    putByte(read(addr));
+                }
+                break;
+            case 0x23: // IN
+                for (int i = 0; i < IN_PROMPT.length(); i++) {
+                    putByte(IN_PROMPT.charAt(i));
+                }
+                reg[0] = readChar();
+                if (!halted) {
+                    putByte(reg[0]);
+                    putByte('\n');
+                }
+                break;
+            case 0x24: // PUTSP
+                for (int addr = reg[0]; read(addr) != 0; addr = (addr + 1) & 0xFFFF) {
+                    putByte(read(addr));
+                    if ((read(addr) >> 8) != 0) {
+                        putByte(read(addr) >> 8);
+                    }
+                }
+                break;
+            case 0x25: // HALT
+                halted = true;
+                break;
+            default:
+                halted = true;
+                error = String.format("no handler for TRAP x%02x at x%04x", vector, (pc - 1) & 0xFFFF);
+                break;
+        }
+    }
+
+    static final String IN_PROMPT = "Input a character> ";
+
+    void putByte(int b) {
+        if (outLen == outBuf.length) {
+            drainOutput();
+        }
+        outBuf[outLen++] = (byte)b;
+    }
+
+    private void drainOutput() {
+        out.write(outBuf, 0, outLen);
+        outLen = 0;
+    }
+
+    /**
+     * Pushes any buffered console output out to `out'. Call this when
+     * you're done running, or the end of the output might never show up
+     */
+    void flush() {
+        drainOutput();
+        out.flush();
+    }
+
+    // reads whatever input is available into inBuf, waiting for some if
+    // there isn't any yet. returns false at EOF
+    boolean fillInput() {
+        flush(); // so the prompt shows up before we wait for an answer
+        try {
+            inPos = 0;
+            inLen = Math.max(in.read(inBuf), 0);
+            return inLen > 0;
+        } catch (IOException err) {
+            // Rethrow as unchecked (Dr. Mr. Gosling you are my HERO)
+            throw new RuntimeException(err);
+        }
+    }
+
+    // whether there's input we can have without waiting for it
+    boolean inputReady() {
+        try {
+            return inPos < inLen || (in.available() > 0 && fillInput());
+        } catch (IOException err) {
+            // Rethrow as unchecked (Mr. Gosling, thank you for everything)
+            throw new RuntimeException(err);
+        }
+    }
+
+    private int readChar() {
+        if (inPos == inLen && !fillInput()) {
+            halted = true;
+            error = "ran out of console input";
+            return 0;
+        }
+        return takeInput();
+    }
+
+    int takeInput() {
+        int c = inBuf[inPos++] & 0xff;
+        if (trace != null) {
+            trace.input(c);
+        }
+        return c;
+    }
+
+    String dumpRegisters() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < reg.length; i++) {
+            sb.append(String.format("R%d=x%04x ", i, reg[i]));
+        }
+        sb.append(String.format("PC=x%04x CC=%s", pc, cc == N? "N" : cc == Z? "Z" : "P"));
+        return sb.toString();
+    }
+}
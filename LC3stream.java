@@ -0,0 +1,122 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The framed stream the tools use to send more than one file down a pipe,
+ * so you can go
+ *
+ *     java LC3asm -stream bubba.asm | java LC3link -stream -o - - | java ObjToLC3Tools - > bubba.lc3tools.obj
+ *
+ * without any of the .obj, .sym and .dbgsym in between touching the disk.
+ * It's a header line and then each file with its name and length in bytes:
+ *
+ *     LC3STREAM 1
+ *     FILE bubba.obj 1234
+ *     ...the 1234 bytes of bubba.obj...
+ *     FILE bubba.sym 56
+ *     ...
+ *
+ * The header can show up again anywhere a FILE line could, so sticking two
+ * streams together makes another stream: `(java LC3asm -stream a.asm; java
+ * LC3asm -stream b.asm) | java LC3link -o linked.obj -' links both.
+ */
+public class LC3stream {
+    static final String HEADER = "LC3STREAM 1";
+
+    static class Frame {
+        final String name; // the file's name, like bubba.obj
+        final byte[] contents;
+
+        Frame(String name, byte[] contents) {
+            this.name = name;
+            this.contents = contents;
+        }
+    }
+
+    /**
+     * writes the frames out as one stream (header and all) and flushes
+     */
+    static void write(OutputStream out, List<Frame> frames) throws IOException {
+        out.write((HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+        for (Frame frame : frames) {
+            out.write(("FILE " + frame.name + " " + frame.contents.length + "\n").getBytes(StandardCharsets.UTF_8));
+            out.write(frame.contents);
+        }
+        out.flush();
+    }
+
+    /**
+     * reads every frame until the end of the stream. If it turns out not to
+     * be a framed stream at all, the whole thing is one file called plainName
+     * (so the tools can take a bare .obj on stdin too)
+     */
+    static List<Frame> read(InputStream in, String plainName) throws IOException {
+        byte[] all = in.readAllBytes();
+        List<Frame> frames = new ArrayList<>();
+        byte[] header = (HEADER + "\n").getBytes(StandardCharsets.UTF_8);
+        if (!startsWith(all, 0, header)) {
+            frames.add(new Frame(plainName, all));
+            return frames;
+        }
+
+        int pos = 0;
+        while (pos < all.length) {
+            int eol = pos;
+            while (eol < all.length && all[eol] != '\n') {
+                eol++;
+            }
+            String line = new String(all, pos, eol - pos, StandardCharsets.UTF_8);
+            pos = eol + 1;
+            if (line.equals(HEADER)) {
+                continue;
+            }
+            int space = line.lastIndexOf(' ');
+            if (!line.startsWith("FILE ") || space <= "FILE".length()) {
+                throw new IOException("Bad line in stream: " + line);
+            }
+            int length;
+            try {
+                length = Integer.parseInt(line.substring(space + 1));
+            } catch (NumberFormatException nfe) {
+                throw new IOException("Bad line in stream: " + line);
+            }
+            if (length < 0 || pos + length > all.length) {
+                throw new IOException("Stream is truncated in the middle of " + line.substring(5, space));
+            }
+            byte[] contents = new byte[length];
+            System.arraycopy(all, pos, contents, 0, length);
+            frames.add(new Frame(line.substring(5, space), contents));
+            pos += length;
+        }
+        return frames;
+    }
+
+    /**
+     * the contents of the first frame named something ending in extension
+     * (".obj", say), or null if there isn't one
+     */
+    static byte[] find(List<Frame> frames, String extension) {
+        for (Frame frame : frames) {
+            if (frame.name.endsWith(extension)) {
+                return frame.contents;
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+        if (bytes.length - offset < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
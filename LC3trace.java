@@ -0,0 +1,518 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Execution traces: record a run once, then go back and look at the machine
+ * at any point in it, without having to run the program again by hand (and
+ * type in the same input, and hope it does the same thing).
+ *
+ * `java LC3trace bubba.obj' runs bubba.obj like LC3sim (console and all) and
+ * writes `bubba.trace'. Then
+ *
+ *     java LC3trace -at 1234567 bubba.trace
+ *
+ * shows the registers right before instruction 1234567 ran (counting from
+ * 0), and the last few instructions leading up to it along with whatever
+ * they wrote to memory or read from the console. `-last <count>' changes
+ * how many (20 by default). Without -at you just get a summary of the trace.
+ *
+ * The trace is the program's control flow and memory writes, nothing more:
+ * it logs every time the PC goes somewhere other than the next address,
+ * every write, every character of input, and whether there was a key
+ * waiting each time the program checked KBSR, each as a few varints giving
+ * how many instructions ran in a straight line since the last thing
+ * happened plus what happened (jump distances and write addresses as
+ * deltas, so they're small). The log gets deflated as it goes through a
+ * fixed size buffer on its way to disk, so memory use doesn't grow with the
+ * length of the run, and hundreds of millions of instructions of loopy code
+ * come out to a few MB.
+ *
+ * Every `-every <count>' instructions (10 million by default) the trace
+ * starts a new segment with a snapshot of the machine, and an index at the
+ * end says where each one starts. Seeking jumps to the closest snapshot
+ * before the target and runs forward from there, feeding the program the
+ * input it got the first time (and the keyboard saying there's a key ready
+ * exactly when it did the first time). Since the replay makes its own trace as it
+ * goes, we also check that it matches the recording exactly. The usual
+ * `-n <count>' and `-os <os.obj>' work like they do for LC3sim.
+ *
+ * The format, with everything big-endian:
+ *
+ *     LC3TRAC1 <program path as UTF>
+ *     segments, each a deflate stream of:
+ *         <snapshot without its magic> <events>
+ *     index:
+ *         <segment count, int> {<first instruction, long> <file offset, long>}...
+ *         <total instructions, long> <how it ended as UTF>
+ *     <file offset of the index, long>
+ *
+ * An event is a varint (run << 2 | type), where run is how many
+ * instructions went by since the last event (counting the one that caused
+ * this event, for writes and input), followed by:
+ *
+ *     JUMP:  zigzag varint of (new PC - where the PC would've gone)
+ *     WRITE: zigzag varint of (address - last write address), varint value
+ *     INPUT: varint of the byte that was read, or for a KBSR poll,
+ *            POLL_EMPTY, POLL_READY or POLL_EOF
+ *     END:   nothing; closes the segment
+ */
+public class LC3trace {
+    static final String MAGIC = "LC3TRAC1";
+    static final long DEFAULT_CHECKPOINT_EVERY = 10_000_000;
+
+    static final int JUMP = 0;
+    static final int WRITE = 1;
+    static final int INPUT = 2;
+    static final int END = 3;
+
+    // what a KBSR poll found, logged as INPUT events
+    static final int POLL_EMPTY = 0x100;
+    static final int POLL_READY = 0x101;
+    static final int POLL_EOF = 0x102;
+
+    /**
+     * Hangs off an LC3sim (as sim.trace) and encodes what it does into out,
+     * a buffer's worth at a time
+     */
+    static class Recorder {
+        private final OutputStream out;
+        private final byte[] buf = new byte[1 << 16];
+        private int len;
+        private int next; // where the PC goes if nothing jumps
+        private long run; // instructions since the last event
+        private int lastAddr;
+
+        Recorder(OutputStream out, int pc) {
+            this.out = out;
+            this.next = pc;
+        }
+
+        // about to execute the instruction at pc
+        void step(int pc) {
+            if (pc != next) {
+                event(JUMP);
+                varint(zigzag(pc - next));
+            }
+            run++;
+            next = (pc + 1) & 0xFFFF;
+        }
+
+        void write(int addr, int value) {
+            event(WRITE);
+            varint(zigzag(addr - lastAddr));
+            varint(value & 0xFFFF);
+            lastAddr = addr;
+        }
+
+        void input(int c) {
+            event(INPUT);
+            varint(c);
+        }
+
+        void poll(int result) {
+            event(INPUT);
+            varint(result);
+        }
+
+        // closes out the segment. don't use this Recorder after
+        void end() throws IOException {
+            event(END);
+            flush();
+        }
+
+        // hands everything encoded so far to out
+        void flush() throws IOException {
+            out.write(buf, 0, len);
+            len = 0;
+        }
+
+        private void event(int type) {
+            if (len > buf.length - 32) {
+                try {
+                    flush();
+                } catch (IOException err) {
+                    // Rethrow as unchecked (Mr. Gosling, thank you for everything)
+                    throw new RuntimeException(err);
+                }
+            }
+            varint(run << 2 | type);
+            run = 0;
+        }
+
+        private void varint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                buf[len++] = (byte)(value & 0x7f | 0x80);
+                value >>>= 7;
+            }
+            buf[len++] = (byte)value;
+        }
+
+        // 16-bit differences wrap around, so take the short way
+        private static long zigzag(int delta) {
+            int d = (short)delta;
+            return (d << 1) ^ (d >> 31);
+        }
+    }
+
+    /**
+     * Reads back the events a Recorder wrote, one at a time
+     */
+    static class Events {
+        private final byte[] bytes;
+        private int pos;
+        private int lastAddr;
+
+        int type;
+        long run;
+        int delta; // JUMP
+        int addr; // WRITE
+        int value; // WRITE and INPUT
+
+        Events(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        boolean next() {
+            if (pos >= bytes.length) {
+                return false;
+            }
+            long head = varint();
+            type = (int)(head & 0x3);
+            run = head >>> 2;
+            switch (type) {
+                case JUMP:
+                    delta = unzigzag(varint());
+                    break;
+                case WRITE:
+                    addr = (lastAddr + unzigzag(varint())) & 0xFFFF;
+                    lastAddr = addr;
+                    value = (int)varint();
+                    break;
+                case INPUT:
+                    value = (int)varint();
+                    break;
+            }
+            return true;
+        }
+
+        private long varint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[pos++];
+                value |= (long)(b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        private static int unzigzag(long value) {
+            return (int)(value >>> 1) ^ -(int)(value & 1);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Tedious argument parsing
+        String filename = null;
+        String osFilename = null;
+        long budget = Long.MAX_VALUE;
+        long every = DEFAULT_CHECKPOINT_EVERY;
+        long at = -1;
+        int last = 20;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-n") && i + 1 < args.length) {
+                    budget = Long.parseLong(args[++i]);
+                } else if (args[i].equals("-every") && i + 1 < args.length) {
+                    every = Long.parseLong(args[++i]);
+                } else if (args[i].equals("-os") && i + 1 < args.length) {
+                    osFilename = args[++i];
+                } else if (args[i].equals("-at") && i + 1 < args.length) {
+                    at = Long.parseLong(args[++i]);
+                } else if (args[i].equals("-last") && i + 1 < args.length) {
+                    last = Integer.parseInt(args[++i]);
+                } else if (filename == null && !args[i].startsWith("-")) {
+                    filename = args[i];
+                } else {
+                    filename = null;
+                    break;
+                }
+            }
+        } catch (NumberFormatException err) {
+            filename = null;
+        }
+        if (filename == null || !filename.contains(".") || every < 1 || last < 0) {
+            System.err.println("usage: java LC3trace [-n <max instructions>] [-every <instructions between checkpoints>] [-os <os object file>] <path to object file>");
+            System.err.println("       java LC3trace [-at <instruction count> [-last <count>]] <path to trace file>");
+            System.exit(1);
+        }
+
+        if (filename.endsWith(".trace")) {
+            replay(new File(filename), at, last);
+            return;
+        }
+
+        LC3sim sim = new LC3sim();
+        sim.restore(LC3sim.loadProgram(new File(filename)));
+        if (osFilename != null) {
+            int pc = sim.pc;
+            sim.load(LC3sim.readObjectFile(new File(osFilename)));
+            sim.pc = pc;
+        }
+        String filebase = filename.substring(0, filename.lastIndexOf('.')); // get the root filename without any extensions
+        File traceFile = new File(filebase + ".trace");
+
+        long start = System.nanoTime();
+        record(sim, filename, traceFile, budget, every);
+        long elapsed = System.nanoTime() - start;
+        sim.flush();
+
+        String status = sim.error != null? sim.error : sim.halted? "halted" : "gave up";
+        System.err.println("--- " + status + " after " + sim.instructions + " instructions ---");
+        System.err.printf("Wrote trace to %s in %.3f s: %d bytes, %.3f bytes per instruction%n", traceFile.getPath(),
+                          elapsed / 1e9, traceFile.length(), (double)traceFile.length() / Math.max(sim.instructions, 1));
+    }
+
+    /**
+     * Runs sim until it stops or runs out of budget, tracing the whole way
+     */
+    static void record(LC3sim sim, String program, File traceFile, long budget, long every) throws IOException {
+        List<long[]> index = new ArrayList<>(); // {first instruction, file offset} for each segment
+        try (FileOutputStream file = new FileOutputStream(traceFile)) {
+            DataOutputStream header = new DataOutputStream(file);
+            header.writeBytes(MAGIC);
+            header.writeUTF(program);
+            header.flush();
+
+            do {
+                index.add(new long[] {sim.instructions, file.getChannel().position()});
+                Deflater deflater = new Deflater();
+                DeflaterOutputStream segment = new DeflaterOutputStream(file, deflater, 1 << 16);
+                DataOutputStream data = new DataOutputStream(segment);
+                sim.snapshot().writeTo(data);
+                data.flush();
+
+                sim.trace = new Recorder(segment, sim.pc);
+                sim.run(Math.min(budget - sim.instructions, every));
+                sim.trace.end();
+                sim.trace = null;
+                segment.finish();
+                deflater.end();
+            } while (!sim.halted && sim.instructions < budget);
+
+            DataOutputStream trailer = new DataOutputStream(file);
+            long indexOffset = file.getChannel().position();
+            trailer.writeInt(index.size());
+            for (long[] entry : index) {
+                trailer.writeLong(entry[0]);
+                trailer.writeLong(entry[1]);
+            }
+            trailer.writeLong(sim.instructions);
+            trailer.writeUTF(sim.error != null? sim.error : sim.halted? "halted" : "gave up");
+            trailer.writeLong(indexOffset);
+            trailer.flush();
+        }
+    }
+
+    /**
+     * Reconstructs the machine right before instruction `at' and shows how
+     * it got there. If at is negative, just describes the trace
+     */
+    static void replay(File traceFile, long at, int last) throws IOException {
+        String program;
+        long[] starts, offsets;
+        long total;
+        String status;
+        try (RandomAccessFile raf = new RandomAccessFile(traceFile, "r")) {
+            byte[] magic = new byte[MAGIC.length()];
+            raf.readFully(magic);
+            if (!new String(magic, java.nio.charset.StandardCharsets.US_ASCII).equals(MAGIC)) {
+                throw new IllegalArgumentException(traceFile + " is not an LC-3 trace");
+            }
+            program = raf.readUTF();
+            raf.seek(raf.length() - 8);
+            raf.seek(raf.readLong());
+            int count = raf.readInt();
+            starts = new long[count];
+            offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                starts[i] = raf.readLong();
+                offsets[i] = raf.readLong();
+            }
+            total = raf.readLong();
+            status = raf.readUTF();
+        }
+
+        System.out.printf("%s: %s, %s after %d instructions, %d segments, %d bytes (%.3f bytes per instruction)%n",
+                          traceFile.getPath(), program, status, total, starts.length, traceFile.length(),
+                          (double)traceFile.length() / Math.max(total, 1));
+        if (at < 0) {
+            return;
+        }
+        if (at > total) {
+            System.out.println("(the program only ran " + total + " instructions, so going to the end)");
+            at = total;
+        }
+
+        // start from the last segment that has all of the instructions we
+        // want to show in it, and read up through the one `at' is in
+        long from = Math.max(at - last, 0);
+        int seg = 0;
+        while (seg + 1 < starts.length && starts[seg + 1] <= from) {
+            seg++;
+        }
+        int segAt = seg;
+        while (segAt + 1 < starts.length && starts[segAt + 1] <= at) {
+            segAt++;
+        }
+        List<Segment> segments = new ArrayList<>();
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        ReplayKeyboard keyboard = new ReplayKeyboard();
+        for (int k = seg; k <= segAt; k++) {
+            Segment segment = readSegment(traceFile, offsets[k]);
+            segments.add(segment);
+            Events e = new Events(segment.events);
+            while (e.next()) {
+                if (e.type == INPUT && e.value < POLL_EMPTY) {
+                    input.write(e.value);
+                } else if (e.type == INPUT) {
+                    keyboard.polls.add(e.value);
+                }
+            }
+        }
+
+        // replay it with the same input it got the first time
+        LC3sim sim = new LC3sim();
+        sim.plug(keyboard, LC3sim.KBSR);
+        sim.restore(segments.get(0).snapshot);
+        sim.in = new ByteArrayInputStream(input.toByteArray());
+        sim.out = new PrintStream(OutputStream.nullOutputStream());
+        sim.instructions = starts[seg];
+        int[] pcs = new int[(int)(at - from)];
+        Map<Long, List<String>> notes = new HashMap<>();
+        for (int k = seg; k <= segAt; k++) {
+            // the replay makes its own trace of each segment, which had
+            // better match the recording
+            byte[] events = segments.get(k - seg).events;
+            ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+            sim.trace = new Recorder(replayed, sim.pc);
+            sim.run((k == segAt? at : starts[k + 1]) - sim.instructions);
+            sim.trace.flush();
+            sim.trace = null;
+            byte[] again = replayed.toByteArray();
+            if (again.length > events.length || !Arrays.equals(again, 0, again.length, events, 0, again.length)) {
+                System.err.println("Replaying doesn't match the trace! Was it recorded by a different version of LC3trace?");
+                System.exit(1);
+            }
+            walk(events, segments.get(k - seg).snapshot.pc, starts[k], from, at, pcs, notes);
+        }
+
+        Map<Integer, String> lines = new HashMap<>();
+        if (new File(program).exists() && program.contains(".")) {
+            LC3prof.readDebugInfo(program, lines, new TreeMap<>());
+        }
+        System.out.println();
+        System.out.println("Last " + pcs.length + " instructions before " + at + ":");
+        for (int i = 0; i < pcs.length; i++) {
+            long instruction = from + i;
+            String line = lines.get(pcs[i]);
+            if (line == null) {
+                line = LC3disasm.Instruction.decodeOrFill(sim.mem[pcs[i]], true);
+            }
+            List<String> note = notes.get(instruction);
+            System.out.printf("  %12d  x%04x  %-32s %s%n", instruction, pcs[i], line, note == null? "" : String.join(", ", note));
+        }
+        System.out.println();
+        if (sim.error != null) {
+            System.out.println("Stopped: " + sim.error);
+        } else if (sim.halted) {
+            System.out.println("Halted");
+        }
+        System.out.println("At instruction " + sim.instructions + ": " + sim.dumpRegisters());
+    }
+
+    /**
+     * A keyboard that has KBSR say whatever it said when the trace was
+     * recorded
+     */
+    private static class ReplayKeyboard extends LC3sim.Keyboard {
+        List<Integer> polls = new ArrayList<>();
+        int next;
+
+        @Override
+        public int read(LC3sim sim, int addr) {
+            if (addr != LC3sim.KBSR) {
+                return super.read(sim, addr);
+            }
+            int result = next < polls.size()? polls.get(next++) : POLL_EOF;
+            if (result == POLL_EOF) {
+                sim.halted = true;
+                sim.error = "ran out of console input";
+            }
+            if (sim.trace != null) {
+                sim.trace.poll(result);
+            }
+            return result == POLL_READY? 0x8000 : 0;
+        }
+    }
+
+    private static class Segment {
+        LC3sim.Snapshot snapshot;
+        byte[] events;
+    }
+
+    private static Segment readSegment(File traceFile, long offset) throws IOException {
+        try (FileInputStream file = new FileInputStream(traceFile)) {
+            file.getChannel().position(offset);
+            DataInputStream data = new DataInputStream(new InflaterInputStream(file));
+            Segment segment = new Segment();
+            segment.snapshot = LC3sim.Snapshot.readFrom(data, traceFile.toString());
+            segment.events = data.readAllBytes();
+            return segment;
+        }
+    }
+
+    /**
+     * Walks through the events of a segment that starts at instruction
+     * `done' with the PC at pc, filling in the PC of each instruction from
+     * `from' up to `at' and what they wrote and read
+     */
+    private static void walk(byte[] events, int pc, long done, long from, long at, int[] pcs, Map<Long, List<String>> notes) {
+        Events e = new Events(events);
+        while (e.next()) {
+            for (long i = Math.max(done, from); i < Math.min(done + e.run, at); i++) {
+                pcs[(int)(i - from)] = (int)((pc + (i - done)) & 0xFFFF);
+            }
+            if (done + e.run > at) {
+                break;
+            }
+            done += e.run;
+            pc = (int)((pc + e.run) & 0xFFFF);
+            if (e.type == JUMP) {
+                pc = (pc + e.delta) & 0xFFFF;
+            } else if (done - 1 >= from && done - 1 < at && e.type == WRITE) {
+                notes.computeIfAbsent(done - 1, k -> new ArrayList<>()).add(String.format("x%04x <- x%04x", e.addr, e.value));
+            } else if (done - 1 >= from && done - 1 < at && e.type == INPUT) {
+                notes.computeIfAbsent(done - 1, k -> new ArrayList<>()).add(String.format("read x%02x", e.value));
+            }
+        }
+    }
+}
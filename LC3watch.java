@@ -0,0 +1,257 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watch mode: rebuilds your program every time you save, without paying for
+ * three JVM startups every time.
+ *
+ * `java LC3watch my_library.asm my_assembly.asm -o linked.obj' assembles
+ * both files, links them into linked.obj and converts that to
+ * linked.lc3tools.obj for LC3Tools, just like running LC3asm, LC3link and
+ * ObjToLC3Tools by hand. Then it sits there watching the .asm files. When
+ * one changes, it reassembles just that file, relinks (which only patches
+ * in the modules that changed, see LC3link), makes a fresh LC3Tools object
+ * file, and tells you how long it took from the save to the new object
+ * file. Editors tend to save in a flurry of events, so it waits until
+ * things have been quiet for a moment before it starts.
+ *
+ * Give a directory instead of files to watch every .asm file in it,
+ * including new ones. Without -o, nothing gets linked and every .asm file is
+ * its own program, converted to LC3Tools on its own. Press Ctrl-C to stop.
+ */
+public class LC3watch {
+    static final long DEBOUNCE_MILLIS = 100;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // Tedious argument parsing
+        List<Path> paths = new ArrayList<>();
+        String outObjFileName = null;
+        boolean usage = args.length == 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length && outObjFileName == null) {
+                outObjFileName = args[++i];
+            } else if (!args[i].startsWith("-")) {
+                paths.add(Path.of(args[i]).toAbsolutePath().normalize());
+            } else {
+                usage = true;
+            }
+        }
+        if (usage || paths.isEmpty() || (outObjFileName != null && !outObjFileName.contains("."))) {
+            System.err.println("usage: java LC3watch [-o <linked object file>] <asm file or directory>...");
+            System.exit(1);
+        }
+
+        // figure out which files we're watching, and watch the directories
+        // they're in (WatchService only does directories)
+        Set<Path> watchedDirs = new LinkedHashSet<>(); // every .asm in here counts
+        Set<Path> files = new LinkedHashSet<>();
+        WatchService watcher = FileSystems.getDefault().newWatchService();
+        Set<Path> registered = new LinkedHashSet<>();
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                watchedDirs.add(path);
+                try (var listing = Files.list(path)) {
+                    listing.filter(LC3watch::isAsm).sorted().forEach(files::add);
+                }
+            } else if (isAsm(path) && Files.exists(path)) {
+                files.add(path);
+            } else {
+                System.err.println(path + " is not an .asm file or a directory");
+                System.exit(1);
+            }
+            Path dir = Files.isDirectory(path)? path : path.getParent();
+            if (registered.add(dir)) {
+                dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("No .asm files to watch");
+            System.exit(1);
+        }
+
+        LC3asm.quiet = true;
+        Builder builder = new Builder(outObjFileName);
+        builder.rebuild(files, files, System.nanoTime());
+        System.out.println("Watching " + files.size() + " files. Press Ctrl-C to stop");
+
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (ClosedWatchServiceException err) {
+                return;
+            }
+            long firstEvent = System.nanoTime();
+            Set<Path> touched = new LinkedHashSet<>();
+            // keep collecting until nothing has happened for a bit
+            do {
+                Path dir = (Path)key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        touched.addAll(files); // lost track, so rebuild everything
+                        continue;
+                    }
+                    Path path = dir.resolve((Path)event.context());
+                    if (files.contains(path)) {
+                        touched.add(path);
+                    } else if (watchedDirs.contains(dir) && isAsm(path)) {
+                        files.add(path);
+                        touched.add(path);
+                    }
+                }
+                key.reset();
+            } while ((key = watcher.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+
+            if (!touched.isEmpty()) {
+                builder.rebuild(files, touched, firstEvent);
+            }
+        }
+    }
+
+    private static boolean isAsm(Path path) {
+        return path.getFileName().toString().endsWith(".asm");
+    }
+
+    /**
+     * Remembers what it built last time so it can skip files that didn't
+     * really change (editors like to touch files without changing them)
+     */
+    static class Builder {
+        private final String outObjFileName; // null if we're not linking
+        private final Map<Path, byte[]> built = new HashMap<>(); // source as of the last successful assembly
+
+        Builder(String outObjFileName) {
+            this.outObjFileName = outObjFileName;
+        }
+
+        void rebuild(Set<Path> files, Set<Path> touched, long firstEvent) {
+            long start = System.nanoTime();
+            List<Path> assembled = new ArrayList<>();
+            boolean ok = true;
+            for (Path file : touched) {
+                byte[] source;
+                try {
+                    source = Files.readAllBytes(file);
+                } catch (IOException err) {
+                    // deleted, or renamed out from under us mid-save
+                    continue;
+                }
+                if (Arrays.equals(source, built.get(file))) {
+                    continue;
+                }
+                try {
+                    LC3asm.assemble(file.toString());
+                    built.put(file, source);
+                    assembled.add(file);
+                } catch (LC3asm.AssemblyError | IOException err) {
+                    built.remove(file);
+                    System.out.println(file.getFileName() + ": " + err.getMessage());
+                    ok = false;
+                } catch (RuntimeException err) {
+                    built.remove(file);
+                    System.out.println(file.getFileName() + ": assembler crashed: " + err);
+                    ok = false;
+                }
+            }
+            if (assembled.isEmpty()) {
+                return; // nothing changed, or nothing worked
+            }
+            long assembledAt = System.nanoTime();
+
+            // link (unless something's broken, since then the old .obj would
+            // get linked in as if nothing happened) and convert
+            List<String> toConvert = new ArrayList<>();
+            if (outObjFileName == null) {
+                for (Path file : assembled) {
+                    toConvert.add(objFileName(file));
+                }
+            } else if (ok && built.keySet().containsAll(files)) {
+                List<String> objFileNames = new ArrayList<>();
+                for (Path file : files) {
+                    objFileNames.add(objFileName(file));
+                }
+                if (quietly(() -> LC3link.link(objFileNames, outObjFileName, false, false, new ArrayList<>()))) {
+                    toConvert.add(outObjFileName);
+                } else {
+                    ok = false;
+                }
+            }
+            long linkedAt = System.nanoTime();
+            for (String objFileName : toConvert) {
+                ok &= quietly(() -> {
+                    if (ObjToLC3Tools.convertPulkitToChirag(objFileName) != 0) {
+                        throw new IOException("Couldn't convert " + objFileName + " for LC3Tools");
+                    }
+                });
+            }
+            long done = System.nanoTime();
+
+            List<String> names = new ArrayList<>();
+            for (Path file : assembled) {
+                names.add(file.getFileName().toString());
+            }
+            List<String> steps = new ArrayList<>();
+            steps.add(String.format("waited %.1f ms for the dust to settle", (start - firstEvent) / 1e6));
+            steps.add(String.format("assembled in %.1f ms", (assembledAt - start) / 1e6));
+            if (outObjFileName != null) {
+                steps.add(String.format("linked in %.1f ms", (linkedAt - assembledAt) / 1e6));
+            }
+            steps.add(String.format("converted in %.1f ms", (done - linkedAt) / 1e6));
+            System.out.printf("%s %s in %.1f ms (%s)%n", ok? "Rebuilt" : "Partly rebuilt", String.join(", ", names),
+                              (done - firstEvent) / 1e6, String.join(", ", steps));
+        }
+    }
+
+    private static String objFileName(Path asmFile) {
+        String name = asmFile.toString();
+        return name.substring(0, name.lastIndexOf('.')) + ".obj";
+    }
+
+    interface Step {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs a step with its chatter to stdout and stderr swallowed, printing
+     * it only if the step fails. Returns whether it worked
+     */
+    private static boolean quietly(Step step) {
+        PrintStream realOut = System.out, realErr = System.err;
+        ByteArrayOutputStream chatter = new ByteArrayOutputStream();
+        PrintStream capture = new PrintStream(chatter, true);
+        System.setOut(capture);
+        System.setErr(capture);
+        boolean ok;
+        try {
+            step.run();
+            ok = true;
+        } catch (IOException | RuntimeException err) {
+            capture.println(err.getMessage() != null? err.getMessage() : err.toString());
+            ok = false;
+        } finally {
+            System.setOut(realOut);
+            System.setErr(realErr);
+        }
+        if (!ok) {
+            realOut.print(chatter);
+        }
+        return ok;
+    }
+}
@@ -1,20 +1,22 @@
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.Reader;
 import java.nio.ByteOrder;
-import java.util.AbstractMap;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 /**
  * Converts human-readable Pulkit object files to human-unreadable LC3Tools
@@ -24,7 +26,11 @@ import java.util.stream.Collectors;
  * `java ObjToLC3Tools bubba.obj', where `bubba.obj' was generated by saying
  * `java LC3asm bubba.asm'. It will produce a `bubba.lc3tools.obj` you can open
  * and run in LC3Tools. You can convert the other way around (from LC3Tools to
- * Pulkit) like `java ObjToLC3Tools -v bubba.lc3tools.obj`.
+ * Pulkit) like `java ObjToLC3Tools -v bubba.lc3tools.obj`. Pass - instead of
+ * a filename to convert stdin (a plain .obj, or a stream from LC3asm -stream
+ * or LC3link -stream, so it gets the .dbginfo too) to stdout. The source
+ * lines come out of the .dbginfo next to the .obj (see LC3dbginfo), or the
+ * .dbgsym if there's no up-to-date .dbginfo.
  *
  * Author: Austin J. Adams IV, B.S., M.S., Esq, IV
  */
@@ -51,27 +57,51 @@ public class ObjToLC3Tools {
     }
 
     static int convertPulkitToChirag(String objfilename) {
+        if (objfilename.equals("-")) {
+            // a bare .obj or a stream from LC3link -stream on stdin, straight to stdout
+            try {
+                List<LC3stream.Frame> frames = LC3stream.read(System.in, "stdin.obj");
+                byte[] objBytes = LC3stream.find(frames, ".obj");
+                byte[] dbgsymBytes = LC3stream.find(frames, ".dbgsym");
+                byte[] dbginfoBytes = LC3stream.find(frames, ".dbginfo");
+                if (objBytes == null) {
+                    System.err.println("No object file on stdin");
+                    return 1;
+                }
+                if (dbginfoBytes == null) {
+                    dbginfoBytes = LC3dbginfo.fromDbgsym(dbgsymBytes == null? new byte[0] : dbgsymBytes);
+                }
+                LC3dbginfo debugSymbols = LC3dbginfo.of(dbginfoBytes);
+                writeLC3ToolsObj(parseObjFile(new InputStreamReader(new ByteArrayInputStream(objBytes), StandardCharsets.UTF_8), debugSymbols),
+                                 System.out);
+                System.out.flush();
+            } catch (IOException err) {
+                throw new RuntimeException(err);
+            }
+            return 0;
+        }
         if (!objfilename.endsWith(".obj")) {
             System.err.println("Filename " + objfilename + " does not end in .obj. Please pass the path to an object file");
             return 1;
         }
         String filebase = objfilename.substring(0, objfilename.lastIndexOf('.')); // get the root filename without any extensions
-        File dbgsymFile = new File(filebase + ".dbgsym"); // find debug symbols
         File objFile = new File(objfilename); // object file
         File newObjFile = new File(filebase + ".lc3tools.obj"); // lc3tools object file
 
-        // mapping from addresses to line of source code
-        Map<Integer, String> debugSymbols = parseDebugSymbols(dbgsymFile);
+        // mapping from addresses to line of source code (the .dbginfo, memory
+        // mapped, or the .dbgsym if that's all there is)
+        LC3dbginfo debugSymbols;
+        try {
+            debugSymbols = LC3dbginfo.load(filebase);
+        } catch (IOException err) {
+            // Rethrow as unchecked (Thank you Mr. Dr. Gosling sir)
+            throw new RuntimeException(err);
+        }
         // Object file as a data structure
         List<MemLocation> obj = parseObjFile(objFile, debugSymbols);
 
         try (FileOutputStream os = new FileOutputStream(newObjFile)) {
-            os.write(LC3TOOLS_OBJ_MAGIC);
-            os.write(LC3TOOLS_OBJ_VERSION);
-
-            for (MemLocation memloc : obj) {
-                os.write(memloc.toBytes());
-            }
+            writeLC3ToolsObj(obj, os);
         } catch (IOException err) {
             // Rethrow as unchecked (Thank you Mr. Dr. Gosling sir)
             throw new RuntimeException(err);
@@ -81,40 +111,30 @@ public class ObjToLC3Tools {
         return 0;
     }
 
-    static Map<Integer, String> parseDebugSymbols(File dbgsymFile) {
-        try (FileReader fr = new FileReader(dbgsymFile);
-             BufferedReader br = new BufferedReader(fr)) {
-            return br.lines()
-                     .map(String::trim)
-                     .filter(line -> !line.isEmpty())
-                     .map(line -> {
-                        String[] splat = line.split(": ", 2);
-                        String addrString = splat[0];
-                        if (addrString.startsWith("x")) {
-                            addrString = addrString.substring(1);
-                        }
-                        Integer addr = Integer.parseInt(addrString, 16);
-                        String codeLine = "";
-                        if (splat.length > 1) {
-                            codeLine = splat[1];
-                        }
-                        return new AbstractMap.SimpleImmutableEntry<Integer, String>(addr, codeLine);
-                     })
-                     .collect(Collectors.toMap(AbstractMap.SimpleImmutableEntry<Integer, String>::getKey,
-                                               AbstractMap.SimpleImmutableEntry<Integer, String>::getValue));
+    static void writeLC3ToolsObj(List<MemLocation> obj, OutputStream os) throws IOException {
+        os.write(LC3TOOLS_OBJ_MAGIC);
+        os.write(LC3TOOLS_OBJ_VERSION);
+
+        for (MemLocation memloc : obj) {
+            os.write(memloc.toBytes());
+        }
+    }
+
+    static List<MemLocation> parseObjFile(File objFile, LC3dbginfo debugSymbols) {
+        try {
+            return parseObjFile(new FileReader(objFile), debugSymbols);
         } catch (IOException err) {
             // Rethrow as unchecked (Thank you Mr. Dr. Gosling sir)
             throw new RuntimeException(err);
         }
     }
 
-    static List<MemLocation> parseObjFile(File objFile, Map<Integer, String> debugSymbols) {
+    static List<MemLocation> parseObjFile(Reader reader, LC3dbginfo debugSymbols) {
         final String ORIG = "ORIG: ";
         int nextAddr = -1;
         List<MemLocation> result = new ArrayList<MemLocation>();
 
-        try (FileReader fr = new FileReader(objFile);
-             BufferedReader br = new BufferedReader(fr)) {
+        try (BufferedReader br = new BufferedReader(reader)) {
             String line;
             while ((line = br.readLine()) != null) {
                 line = line.trim();
@@ -138,7 +158,10 @@ public class ObjToLC3Tools {
                     if (nextAddr < 0) {
                         throw new IllegalStateException("Word before .orig");
                     }
-                    codeLine = debugSymbols.getOrDefault(nextAddr++, "");
+                    codeLine = debugSymbols.line(nextAddr++);
+                    if (codeLine == null) {
+                        codeLine = "";
+                    }
                 }
                 result.add(new MemLocation(value, codeLine, isOrig));
             }
@@ -151,6 +174,9 @@ public class ObjToLC3Tools {
     }
 
     static int convertChiragToPulkit(String objfilename) {
+        if (objfilename.equals("-")) {
+            return convertChiragToPulkit(System.in, System.out);
+        }
         String newObjFileName;
         if (objfilename.endsWith(".lc3tools.obj")) {
             newObjFileName = objfilename.substring(0, objfilename.length()-".lc3tools.obj".length()) + ".obj";
@@ -165,19 +191,23 @@ public class ObjToLC3Tools {
 
         try (FileInputStream is = new FileInputStream(objFile);
              PrintStream out = new PrintStream(newObjFile)) {
-            if (verifyLC3ToolsMagicNumber(is) != 0) {
-                return 1;
-            }
-
-            Optional<MemLocation> loc;
-            while ((loc = MemLocation.fromStream(is)).isPresent()) {
-                out.println(loc.get().toString());
-            }
+            return convertChiragToPulkit(is, out);
         } catch (IOException err) {
             // Rethrow as unchecked (Dr. Mr. Gosling you are my HERO)
             throw new RuntimeException(err);
         }
+    }
 
+    static int convertChiragToPulkit(InputStream is, PrintStream out) {
+        if (verifyLC3ToolsMagicNumber(is) != 0) {
+            return 1;
+        }
+
+        Optional<MemLocation> loc;
+        while ((loc = MemLocation.fromStream(is)).isPresent()) {
+            out.println(loc.get().toString());
+        }
+        out.flush();
         return 0;
     }
 
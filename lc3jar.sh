@@ -0,0 +1,46 @@
+#!/bin/sh
+# Builds lc3.jar (every tool behind one `lc3' command, see LC3.java) and
+# lc3.jsa, a class data sharing archive of every class the tools load on the
+# samples in tests/, which is most of what any run needs. Then use the `lc3'
+# script next to this one, which runs the jar with the archive:
+#
+#     ./lc3jar.sh
+#     ./lc3 pipeline my_assembly.asm my_library.asm -o linked.obj
+#
+# Rerun this after changing any .java file (or switching JDKs), since the JVM
+# ignores an archive that doesn't match the jar.
+set -e
+here=$(cd "$(dirname "$0")" && pwd)
+build=$(mktemp -d)
+trap 'rm -rf "$build"' EXIT
+
+# (plain string concatenation, instead of the invokedynamic kind that costs a
+# few dozen milliseconds to get going on every run)
+javac -XDstringConcat=inline -Xlint:-options -d "$build/classes" "$here"/*.java
+jar --create --file "$here/lc3.jar" --main-class LC3 -C "$build/classes" .
+
+# train: run the usual chain over the samples (in a scratch copy, so the
+# outputs don't land in tests/), writing down every class that gets loaded
+mkdir "$build/work"
+cp "$here"/tests/*.asm "$here"/my_*.asm "$build/work"
+cd "$build/work"
+runs=0
+run() {
+    runs=$((runs + 1))
+    java -Xshare:off -XX:DumpLoadedClassList="$build/classes.$runs" -jar "$here/lc3.jar" "$@" >/dev/null 2>&1 </dev/null || true
+}
+for asm in *.asm; do
+    run pipeline "$asm"
+    run asm -all "$asm"
+    run disasm "${asm%.asm}.obj"
+    run sim -n 100000 "${asm%.asm}.obj"
+done
+run pipeline -O -relax R6 peephole.asm relax.asm literals.asm -o linked.obj
+run link extern_base.obj extern_second.obj -o linked.obj
+run conv linked.obj
+run sim -jit -n 100000 collatz.obj
+cat "$build"/classes.* | sort -u > "$build/classes.lst"
+
+java -Xshare:dump -XX:SharedClassListFile="$build/classes.lst" -XX:SharedArchiveFile="$here/lc3.jsa" \
+     -cp "$here/lc3.jar" >/dev/null
+echo "Wrote $here/lc3.jar and $here/lc3.jsa"
@@ -0,0 +1,40 @@
+;; Sorts the same 64-word array over and over with bubble sort. Meant as a
+;; workload for timing the simulator (java LC3jit tests/bubblesort.obj)
+;; rather than as an example of how to sort things
+
+.orig x3000
+        ld r6, ROUNDS
+ROUND   lea r0, ARRAY           ; scramble the array back into descending order
+        ld r1, LEN
+        add r2, r1, 0
+FILL    str r2, r0, 0
+        add r0, r0, 1
+        add r2, r2, -1
+        brp FILL
+
+        ld r1, LEN              ; r1 = passes left
+PASS    add r1, r1, -1
+        brz DONE
+        lea r0, ARRAY
+        add r2, r1, 0           ; r2 = comparisons left this pass
+CMP     ldr r3, r0, 0
+        ldr r4, r0, 1
+        not r5, r4
+        add r5, r5, 1
+        add r5, r3, r5          ; r5 = a[i] - a[i+1]
+        brnz NOSWAP
+        str r4, r0, 0
+        str r3, r0, 1
+NOSWAP  add r0, r0, 1
+        add r2, r2, -1
+        brp CMP
+        brnzp PASS
+
+DONE    add r6, r6, -1
+        brp ROUND
+        halt
+
+ROUNDS  .fill 2000
+LEN     .fill 64
+ARRAY   .blkw 64
+.end
@@ -0,0 +1,31 @@
+;; Counts how many Collatz steps it takes to get from the number in R0 down
+;; to 1, leaving the count in R1. Every starting number takes a different
+;; path through the loop, which makes it a decent workout for LC3lockstep:
+;;     java LC3lockstep -fuzz R0 1 1000 500 tests/collatz.obj
+
+.orig x3000
+        and r1, r1, 0           ; r1 = steps so far
+LOOP    add r2, r0, -1
+        brnz DONE               ; stop at 1 (or if we started at 0)
+        add r1, r1, 1
+        and r2, r0, 1
+        brz EVEN
+        add r2, r0, r0          ; odd: n = 3n + 1
+        add r0, r2, r0
+        add r0, r0, 1
+        brnzp LOOP
+EVEN    and r2, r2, 0           ; even: n = n / 2, by counting up
+        and r3, r3, 0
+HALVE   add r2, r2, 1
+        add r3, r3, 2
+        not r4, r3
+        add r4, r4, 1
+        add r4, r0, r4
+        brp HALVE
+        add r0, r2, 0
+        brnzp LOOP
+DONE    lea r0, MSG
+        puts
+        halt
+MSG     .stringz "done\n"
+.end
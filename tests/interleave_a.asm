@@ -0,0 +1,17 @@
+;; Two modules whose .ORIG blocks take turns in memory: interleave_b.asm
+;; goes in the gap between the two blocks here.
+;;     java LC3link tests/interleave_a.obj tests/interleave_b.obj -o linked.obj
+;; It should print "A", and linked.lc3tools.obj should have the source
+;; lines of both.
+.EXTERNAL SECOND
+
+.orig x3000
+        ld r1, SECOND_PTR
+        jsrr r1
+        out
+        halt
+.end
+
+.orig x3008
+SECOND_PTR .fill SECOND
+.end
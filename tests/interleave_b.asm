@@ -0,0 +1,6 @@
+;; Goes between the blocks of interleave_a.asm, see there
+.orig x3004
+SECOND  ld r0, LETTER
+        ret
+LETTER  .fill x41
+.end
@@ -0,0 +1,129 @@
+;; A tiny operating system: just the trap vector table and the usual console
+;; trap routines, done the slow honest way by polling the device registers.
+;; LC3sim normally fakes these traps itself; load this with
+;;     java LC3sim -os tests/lc3os.obj bubba.obj
+;; to check that a program behaves the same on the real thing. Unlike the
+;; built-in versions, these routines return with RET, so the condition codes
+;; after a TRAP are whatever the routine left behind.
+
+.orig x0020
+        .fill GETC_R
+        .fill OUT_R
+        .fill PUTS_R
+        .fill IN_R
+        .fill PUTSP_R
+        .fill HALT_R
+.end
+
+.orig x0200
+;; GETC: wait for a key and put it in R0
+GETC_R  ldi r0, KBSR_A
+        brzp GETC_R
+        ldi r0, KBDR_A
+        ret
+
+;; OUT: write the character in R0
+OUT_R   st r1, SAVE_R1
+OUT_W   ldi r1, DSR_A
+        brzp OUT_W
+        sti r0, DDR_A
+        ld r1, SAVE_R1
+        ret
+
+;; PUTS: write the string starting at R0, one character per word
+PUTS_R  st r0, SAVE_R0
+        st r1, SAVE_R1
+        st r2, SAVE_R2
+        add r1, r0, 0
+PUTS_L  ldr r0, r1, 0
+        brz PUTS_D
+PUTS_W  ldi r2, DSR_A
+        brzp PUTS_W
+        sti r0, DDR_A
+        add r1, r1, 1
+        brnzp PUTS_L
+PUTS_D  ld r0, SAVE_R0
+        ld r1, SAVE_R1
+        ld r2, SAVE_R2
+        ret
+
+;; IN: prompt, read a key into R0, and echo it
+IN_R    st r1, SAVE_R1
+        st r2, SAVE_R2
+        lea r1, PROMPT
+IN_P    ldr r0, r1, 0
+        brz IN_K
+IN_PW   ldi r2, DSR_A
+        brzp IN_PW
+        sti r0, DDR_A
+        add r1, r1, 1
+        brnzp IN_P
+IN_K    ldi r0, KBSR_A
+        brzp IN_K
+        ldi r0, KBDR_A
+IN_EW   ldi r2, DSR_A
+        brzp IN_EW
+        sti r0, DDR_A
+        ld r1, NEWLINE
+IN_NW   ldi r2, DSR_A
+        brzp IN_NW
+        sti r1, DDR_A
+        ld r1, SAVE_R1
+        ld r2, SAVE_R2
+        ret
+
+;; PUTSP: write the string starting at R0, two characters per word
+PUTSP_R st r0, SAVE_R0
+        st r1, SAVE_R1
+        st r2, SAVE_R2
+        st r3, SAVE_R3
+        add r1, r0, 0
+PUTSP_L ldr r3, r1, 0
+        brz PUTSP_D
+PUTSP_W ldi r2, DSR_A
+        brzp PUTSP_W
+        sti r3, DDR_A           ; the display only looks at the low byte
+        ld r2, LOWMASK          ; now get the high byte down to the bottom:
+        and r2, r3, r2
+        not r2, r2
+        add r2, r2, 1
+        add r3, r3, r2          ; r3 = high byte * 256
+        and r0, r0, 0
+        ld r2, MINUS256
+PUTSP_C add r3, r3, 0           ; count how many 256s are in there
+        brz PUTSP_O
+        add r3, r3, r2
+        add r0, r0, 1
+        brnzp PUTSP_C
+PUTSP_O add r0, r0, 0
+        brz PUTSP_N             ; odd-length strings end with a zero high byte
+PUTSP_OW ldi r2, DSR_A
+        brzp PUTSP_OW
+        sti r0, DDR_A
+PUTSP_N add r1, r1, 1
+        brnzp PUTSP_L
+PUTSP_D ld r0, SAVE_R0
+        ld r1, SAVE_R1
+        ld r2, SAVE_R2
+        ld r3, SAVE_R3
+        ret
+
+;; HALT: stop the clock
+HALT_R  and r0, r0, 0
+        sti r0, MCR_A
+        brnzp HALT_R
+
+KBSR_A  .fill xFE00
+KBDR_A  .fill xFE02
+DSR_A   .fill xFE04
+DDR_A   .fill xFE06
+MCR_A   .fill xFFFE
+NEWLINE .fill x000A
+LOWMASK .fill x00FF
+MINUS256 .fill #-256
+SAVE_R0 .blkw 1
+SAVE_R1 .blkw 1
+SAVE_R2 .blkw 1
+SAVE_R3 .blkw 1
+PROMPT  .stringz "Input a character> "
+.end
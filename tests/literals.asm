@@ -0,0 +1,35 @@
+;; Constants without the .FILLs: `LD R0, =x41' loads x41 from a pool the
+;; assembler builds for you, at the next .POOL (or .END), sharing one word
+;; between every LD of the same constant within reach.
+;;     java LC3asm tests/literals.asm
+;; It should print "AB", "hi there" and "ABC", one per line.
+
+.orig x3000
+        ld r0, =x41
+        out
+        ld r0, =#66             ; same as =x42, so they share a word
+        out
+        ld r0, =x0A
+        out
+        ld r0, =MSG             ; MSG's address
+        puts
+        ld r0, =x0A
+        out
+        ld r2, =MORE            ; too far to BR to
+        jmp r2
+        .pool                   ; x41, x42, x0A, MSG and MORE go here
+
+MSG     .stringz "hi there"
+        .blkw x100
+
+MORE    ld r0, =x41             ; too far back to share, so it goes in the pool at the .end
+        out
+        ld r1, =1
+        add r0, r0, r1
+        out
+        add r0, r0, r1
+        out
+        ld r0, =x0A
+        out
+        halt
+.end
@@ -0,0 +1,75 @@
+;; Deliberately wasteful code for trying out the peephole optimizer:
+;;     java LC3asm -O tests/peephole.asm
+;; It should print the same thing (the sum of 1..10, the sum of the odd
+;; numbers in the table, then 2*3 from a loop with a hardcoded offset) with
+;; or without -O, just in fewer instructions with it.
+
+.orig x3000
+        and r0, r0, 0
+        and r0, r0, 0           ; already zero
+        and r1, r1, 0
+        add r1, r1, 10
+SUM     add r0, r0, r1
+        add r1, r1, -1
+        add r1, r1, 0           ; the ADD above set the condition codes
+        brp SUM
+        brnzp PRINT1            ; the very next instruction
+PRINT1  jsr PRINTNUM
+
+        and r2, r2, 0           ; r2 = sum of the odd ones
+        lea r3, TABLE
+NEXT    ldr r4, r3, 0
+        add r4, r4, 0           ; LDR set them already
+        brz DONE
+        and r5, r4, 1
+        brz SKIP                ; SKIP just branches on, so go straight there
+        add r2, r2, r4
+SKIP    brnzp STEP
+STEP    add r3, r3, 1
+        brnzp NEXT
+DONE    add r0, r2, 0
+        jsr PRINTNUM
+
+        and r0, r0, 0
+        and r2, r2, 0
+        add r2, r2, 3
+        add r0, r0, 2
+        add r2, r2, -1
+        add r2, r2, 0           ; has to stay, or the brp lands on the add above
+        brp #-4
+        jsr PRINTNUM
+        halt
+
+;; print r0 (0-99) in decimal and a newline
+PRINTNUM st r7, SAVE_R7
+        and r1, r1, 0
+        ld r6, MINUS10
+TENS    add r0, r0, r6
+        brn ONES
+        add r1, r1, 1
+        brnzp TENS
+ONES    add r0, r0, 10
+        st r0, SAVE_R0
+        ld r6, ZERO
+        add r0, r1, r6
+        out
+        ld r0, SAVE_R0
+        add r0, r0, r6
+        out
+        ld r0, NEWLINE
+        out
+        ld r7, SAVE_R7
+        ret
+
+MINUS10 .fill #-10
+ZERO    .fill x30
+NEWLINE .fill x0A
+SAVE_R0 .blkw 1
+SAVE_R7 .blkw 1
+TABLE   .fill 3
+        .fill 8
+        .fill 5
+        .fill 12
+        .fill 7
+        .fill 0
+.end
@@ -0,0 +1,34 @@
+#!/bin/sh
+# Links the two sample modules with -gc through a pipe, and checks that what
+# comes out the other end is the same object file as linking them on disk
+# (so nothing, like the garbage collection report, got mixed in with it):
+#
+#     tests/pipe_gc.sh
+set -e
+here=$(cd "$(dirname "$0")/.." && pwd)
+build=$(mktemp -d)
+trap 'rm -rf "$build"' EXIT
+
+javac -Xlint:-options -d "$build/classes" "$here"/*.java
+cp "$here"/my_*.asm "$build"
+cd "$build"
+lc3() {
+    tool=$1
+    shift
+    java -cp "$build/classes" "$tool" "$@"
+}
+
+lc3 LC3asm my_assembly.asm >/dev/null
+lc3 LC3asm my_library.asm >/dev/null
+lc3 LC3link -gc ANSWER my_assembly.obj my_library.obj -o linked.obj >/dev/null
+lc3 ObjToLC3Tools linked.obj >/dev/null
+
+(lc3 LC3asm -stream my_assembly.asm; lc3 LC3asm -stream my_library.asm) \
+    | lc3 LC3link -o - - -gc ANSWER > piped.obj
+cmp linked.obj piped.obj
+
+(lc3 LC3asm -stream my_assembly.asm; lc3 LC3asm -stream my_library.asm) \
+    | lc3 LC3link -stream -o - - -gc ANSWER | lc3 ObjToLC3Tools - > piped.lc3tools.obj
+cmp linked.lc3tools.obj piped.lc3tools.obj
+
+echo "Piping through LC3link -gc works"
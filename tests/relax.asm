@@ -0,0 +1,63 @@
+;; Everything here is too far away for a PC offset, so it only assembles
+;; with branch relaxation:
+;;     java LC3asm -relax R6 tests/relax.asm
+;; R6 is the register the far branches get to clobber. It should print
+;; "ABCDEFG" and a newline, one letter per kind of far reference.
+
+.orig x3000
+        ld r0, LETTER_A         ; far LD
+        out
+        lea r1, LETTER_B        ; far LEA
+        ldr r0, r1, 0
+        out
+        ldi r0, PTR_C           ; far LDI
+        out
+        jsr GET_D               ; far JSR
+        out
+        ld r0, LETTER_A
+        add r0, r0, 4
+        st r0, SAVE_E           ; far ST
+        sti r0, PTR_SAVE        ; far STI (through R6)
+        out
+        and r5, r5, 0           ; R5 = 3 * 2 for the G, counted in a loop with
+        and r4, r4, 0           ; hardcoded offsets. The pool for everything
+        add r4, r4, 3           ; above mustn't go after either BRnzp, or the
+        add r5, r5, 2           ; offsets would be off by the pool's size
+        add r4, r4, -1
+        brp #1
+        brnzp #1
+        brnzp #-5
+        and r2, r2, 0
+        brz FAR_F               ; far conditional branch
+        halt
+BACK    ld r0, NEWLINE
+        out
+        halt
+
+        .blkw x400
+
+GET_D   ld r0, LETTER_A
+        add r0, r0, 3
+        ret
+FAR_F   ld r0, SAVE_E           ; far LD back up
+        add r0, r0, 1
+        out
+        ld r0, LETTER_A
+        add r0, r0, r5
+        out
+        brnzp BACK              ; far unconditional branch
+
+        .blkw x200
+
+LETTER_A .fill x41
+LETTER_B .fill x42
+PTR_C   .fill LETTER_C
+PTR_SAVE .fill SAVE_G
+SAVE_E  .blkw 1
+NEWLINE .fill x0A
+
+        .blkw x200
+
+LETTER_C .fill x43
+SAVE_G  .blkw 1
+.end